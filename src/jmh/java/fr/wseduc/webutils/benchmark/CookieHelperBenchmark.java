@@ -0,0 +1,51 @@
+/*
+ * Copyright © WebServices pour l'Éducation, 2014
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fr.wseduc.webutils.benchmark;
+
+import fr.wseduc.webutils.request.CookieHelper;
+import io.vertx.core.http.HttpMethod;
+import io.vertx.core.logging.LoggerFactory;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CookieHelperBenchmark {
+
+	private StubHttpServerRequest request;
+
+	@Setup
+	public void setup() {
+		CookieHelper.getInstance().init("benchmark-sign-key", LoggerFactory.getLogger(CookieHelperBenchmark.class));
+		final StubHttpServerRequest signing = new StubHttpServerRequest(HttpMethod.GET, "/");
+		CookieHelper.getInstance().setSigned("oneSessionId", "5f0a3c1e-8b9d-4e2f-a6c7-1d3e5f7a9b0c", 3600, signing);
+		final String signed = signing.response().headers().get("Set-Cookie").split(";")[0];
+		request = new StubHttpServerRequest(HttpMethod.GET, "/");
+		request.headers().set("Cookie", "_ga=GA1.2.123456789.1234567890; authenticated=true; " + signed +
+				"; XSRF-TOKEN=3c5e7a9b-1d3f-4a6c-8e0b-2d4f6a8c0e1f");
+	}
+
+	@Benchmark
+	public String getSigned() {
+		return CookieHelper.getInstance().getSigned("oneSessionId", request);
+	}
+
+}
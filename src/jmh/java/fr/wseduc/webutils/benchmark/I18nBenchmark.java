@@ -0,0 +1,79 @@
+/*
+ * Copyright © WebServices pour l'Éducation, 2014
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fr.wseduc.webutils.benchmark;
+
+import fr.wseduc.webutils.I18n;
+import fr.wseduc.webutils.data.FileResolver;
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonObject;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class I18nBenchmark {
+
+	private static final String DOMAIN = "benchmark.example.org";
+
+	private I18n i18n;
+
+	@Setup
+	public void setup() throws Exception {
+		final File base = Files.createTempDirectory("benchmark-i18n").toFile();
+		final File messages = new File(base, "i18n");
+		messages.mkdir();
+		final JsonObject keys = new JsonObject();
+		for (int i = 0; i < 1000; i++) {
+			keys.put("benchmark.key." + i, "Libellé numéro " + i);
+		}
+		Files.write(new File(messages, "fr.json").toPath(), keys.encode().getBytes(StandardCharsets.UTF_8));
+		Files.write(new File(messages, "en.json").toPath(), keys.encode().getBytes(StandardCharsets.UTF_8));
+		FileResolver.getInstance().setBasePath(base.getAbsolutePath());
+		final Vertx vertx = Vertx.vertx();
+		i18n = I18n.getInstance();
+		i18n.init(vertx);
+		vertx.close();
+		i18n.add(DOMAIN, Locale.FRENCH, new JsonObject()
+				.put("benchmark.notification", "{0} a partagé le document {1} avec vous dans l'espace {2}."));
+	}
+
+	@Benchmark
+	public String translate() {
+		return i18n.translate("benchmark.key.500", DOMAIN, Locale.FRENCH);
+	}
+
+	@Benchmark
+	public String translateWithArgs() {
+		return i18n.translate("benchmark.notification", DOMAIN, Locale.FRENCH,
+				"Marie Dupont", "Compte rendu.pdf", "Documents");
+	}
+
+	@Benchmark
+	public String translateAcceptLanguage() {
+		return i18n.translate("benchmark.notification", DOMAIN, "fr-FR,fr;q=0.9,en-US;q=0.8,en;q=0.7",
+				"Marie Dupont", "Compte rendu.pdf", "Documents");
+	}
+
+}
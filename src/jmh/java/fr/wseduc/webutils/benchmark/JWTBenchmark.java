@@ -0,0 +1,74 @@
+/*
+ * Copyright © WebServices pour l'Éducation, 2014
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fr.wseduc.webutils.benchmark;
+
+import fr.wseduc.webutils.security.JWT;
+import io.vertx.core.json.JsonObject;
+import org.openjdk.jmh.annotations.*;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.PublicKey;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JWTBenchmark {
+
+	private static final String SECRET = "benchmark-hmac-secret-0123456789";
+
+	private PublicKey publicKey;
+	private String rs256Token;
+	private String hs256Token;
+
+	@Setup
+	public void setup() throws Exception {
+		final JsonObject payload = new JsonObject()
+				.put("iss", "https://ent.example.org")
+				.put("sub", "5f0a3c1e-8b9d-4e2f-a6c7-1d3e5f7a9b0c")
+				.put("aud", "benchmark")
+				.put("exp", System.currentTimeMillis() / 1000 + 3600)
+				.put("iat", System.currentTimeMillis() / 1000);
+		final KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+		generator.initialize(2048);
+		final KeyPair keyPair = generator.generateKeyPair();
+		publicKey = keyPair.getPublic();
+		rs256Token = JWT.encodeAndSign(payload, "benchmark", keyPair.getPrivate());
+
+		final String content = JWT.base64Encode(new JsonObject().put("typ", "JWT").put("alg", "HS256").encode()) +
+				"." + JWT.base64Encode(payload.encode());
+		final Mac mac = Mac.getInstance("HmacSHA256");
+		mac.init(new SecretKeySpec(SECRET.getBytes(), "HmacSHA256"));
+		hs256Token = content + "." + JWT.base64Encode(mac.doFinal(content.getBytes("UTF-8")));
+	}
+
+	@Benchmark
+	public JsonObject verifyRS256() {
+		return JWT.verifyAndGet(rs256Token, publicKey);
+	}
+
+	@Benchmark
+	public JsonObject verifyHS256() {
+		return JWT.verifyAndGet(hs256Token, SECRET);
+	}
+
+}
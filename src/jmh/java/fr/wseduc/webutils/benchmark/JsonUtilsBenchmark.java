@@ -0,0 +1,59 @@
+/*
+ * Copyright © WebServices pour l'Éducation, 2014
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fr.wseduc.webutils.benchmark;
+
+import fr.wseduc.webutils.collections.JsonUtils;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import org.openjdk.jmh.annotations.*;
+
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JsonUtilsBenchmark {
+
+	private JsonObject object;
+
+	@Setup
+	public void setup() {
+		object = new JsonObject();
+		for (int i = 0; i < 50; i++) {
+			object.put("field" + i, "value " + i);
+		}
+		final JsonArray groups = new JsonArray();
+		for (int i = 0; i < 20; i++) {
+			groups.add(new JsonObject().put("id", "group-" + i).put("name", "Group " + i));
+		}
+		object.put("groups", groups).put("structure", new JsonObject().put("id", "s1").put("name", "School"));
+	}
+
+	@Benchmark
+	public String checksumSha256() throws NoSuchAlgorithmException {
+		return JsonUtils.checksum(object);
+	}
+
+	@Benchmark
+	public String checksumMd5() throws NoSuchAlgorithmException {
+		return JsonUtils.checksum(object, JsonUtils.HashAlgorithm.MD5);
+	}
+
+}
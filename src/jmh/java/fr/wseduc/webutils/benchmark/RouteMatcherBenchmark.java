@@ -0,0 +1,86 @@
+/*
+ * Copyright © WebServices pour l'Éducation, 2014
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fr.wseduc.webutils.benchmark;
+
+import io.vertx.core.http.HttpMethod;
+import org.openjdk.jmh.annotations.*;
+import org.vertx.java.core.http.RouteMatcher;
+
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RouteMatcherBenchmark {
+
+	@Param({"20"})
+	public int apps;
+
+	private RouteMatcher rm;
+	private Object handled;
+	private String literalPath;
+	private String paramsPath;
+	private String regexPath;
+
+	@Setup
+	public void setup() {
+		rm = new RouteMatcher();
+		for (int i = 0; i < apps; i++) {
+			final String app = "/app" + i;
+			rm.get(app, r -> handled = r);
+			rm.get(app + "/list", r -> handled = r);
+			rm.get(app + "/conf/public", r -> handled = r);
+			rm.get(app + "/:id", r -> handled = r.params().get("id"));
+			rm.put(app + "/:id", r -> handled = r.params().get("id"));
+			rm.delete(app + "/:id", r -> handled = r.params().get("id"));
+			rm.get(app + "/:id/share/:userId", r -> handled = r.params().get("userId"));
+			rm.post(app + "/:id/comment", r -> handled = r.params().get("id"));
+			rm.getWithRegEx("\\" + app + "\\/public\\/.+", r -> handled = r);
+		}
+		final String last = "/app" + (apps - 1);
+		literalPath = last + "/list";
+		paramsPath = last + "/42/share/user-1";
+		regexPath = last + "/public/js/app.js";
+	}
+
+	@Benchmark
+	public Object literal() {
+		rm.handle(new StubHttpServerRequest(HttpMethod.GET, literalPath));
+		return handled;
+	}
+
+	@Benchmark
+	public Object params() {
+		rm.handle(new StubHttpServerRequest(HttpMethod.GET, paramsPath));
+		return handled;
+	}
+
+	@Benchmark
+	public Object regex() {
+		rm.handle(new StubHttpServerRequest(HttpMethod.GET, regexPath));
+		return handled;
+	}
+
+	@Benchmark
+	public Object notFound() {
+		rm.handle(new StubHttpServerRequest(HttpMethod.GET, "/unknown/path/to/resource"));
+		return handled;
+	}
+
+}
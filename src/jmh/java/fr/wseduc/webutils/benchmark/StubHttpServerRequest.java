@@ -0,0 +1,262 @@
+/*
+ * Copyright © WebServices pour l'Éducation, 2014
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package fr.wseduc.webutils.benchmark;
+
+import io.vertx.core.Handler;
+import io.vertx.core.MultiMap;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.http.Cookie;
+import io.vertx.core.http.HttpConnection;
+import io.vertx.core.http.HttpFrame;
+import io.vertx.core.http.HttpMethod;
+import io.vertx.core.http.HttpServerFileUpload;
+import io.vertx.core.http.HttpServerRequest;
+import io.vertx.core.http.HttpServerResponse;
+import io.vertx.core.http.HttpVersion;
+import io.vertx.core.http.ServerWebSocket;
+import io.vertx.core.http.StreamPriority;
+import io.vertx.core.net.NetSocket;
+import io.vertx.core.net.SocketAddress;
+import java.util.Map;
+import javax.net.ssl.SSLPeerUnverifiedException;
+import javax.net.ssl.SSLSession;
+import javax.security.cert.X509Certificate;
+
+/**
+ * Minimal in-memory HttpServerRequest, so the benchmarks run without a server.
+ */
+class StubHttpServerRequest implements HttpServerRequest {
+
+	private final HttpMethod method;
+	private final String path;
+	private final MultiMap headers = MultiMap.caseInsensitiveMultiMap();
+	private final MultiMap params = MultiMap.caseInsensitiveMultiMap();
+	private final MultiMap formAttributes = MultiMap.caseInsensitiveMultiMap();
+	private final StubHttpServerResponse response = new StubHttpServerResponse();
+
+	StubHttpServerRequest(HttpMethod method, String path) {
+		this.method = method;
+		this.path = path;
+	}
+
+	@Override
+	public HttpServerRequest exceptionHandler(Handler<Throwable> arg) {
+		return this;
+	}
+
+	@Override
+	public HttpServerRequest handler(Handler<Buffer> arg) {
+		return this;
+	}
+
+	@Override
+	public HttpServerRequest pause() {
+		return this;
+	}
+
+	@Override
+	public HttpServerRequest resume() {
+		return this;
+	}
+
+	@Override
+	public HttpServerRequest fetch(long arg) {
+		return this;
+	}
+
+	@Override
+	public HttpServerRequest endHandler(Handler<Void> arg) {
+		return this;
+	}
+
+	@Override
+	public HttpVersion version() {
+		return HttpVersion.HTTP_1_1;
+	}
+
+	@Override
+	public HttpMethod method() {
+		return method;
+	}
+
+	@Override
+	public String rawMethod() {
+		return method.name();
+	}
+
+	@Override
+	public boolean isSSL() {
+		return false;
+	}
+
+	@Override
+	public String scheme() {
+		return "https";
+	}
+
+	@Override
+	public String uri() {
+		return path;
+	}
+
+	@Override
+	public String path() {
+		return path;
+	}
+
+	@Override
+	public String query() {
+		return null;
+	}
+
+	@Override
+	public String host() {
+		return headers.get("Host");
+	}
+
+	@Override
+	public long bytesRead() {
+		return 0;
+	}
+
+	@Override
+	public HttpServerResponse response() {
+		return response;
+	}
+
+	@Override
+	public MultiMap headers() {
+		return headers;
+	}
+
+	@Override
+	public String getHeader(String arg) {
+		return headers.get(arg);
+	}
+
+	@Override
+	public String getHeader(CharSequence arg) {
+		return headers.get(arg);
+	}
+
+	@Override
+	public MultiMap params() {
+		return params;
+	}
+
+	@Override
+	public String getParam(String arg) {
+		return params.get(arg);
+	}
+
+	@Override
+	public SocketAddress remoteAddress() {
+		return null;
+	}
+
+	@Override
+	public SocketAddress localAddress() {
+		return null;
+	}
+
+	@Override
+	public SSLSession sslSession() {
+		return null;
+	}
+
+	@Override
+	public X509Certificate[] peerCertificateChain() throws SSLPeerUnverifiedException {
+		return null;
+	}
+
+	@Override
+	public String absoluteURI() {
+		return null;
+	}
+
+	@Deprecated
+	@Override
+	public NetSocket netSocket() {
+		return null;
+	}
+
+	@Override
+	public HttpServerRequest setExpectMultipart(boolean arg) {
+		return this;
+	}
+
+	@Override
+	public boolean isExpectMultipart() {
+		return false;
+	}
+
+	@Override
+	public HttpServerRequest uploadHandler(Handler<HttpServerFileUpload> arg) {
+		return this;
+	}
+
+	@Override
+	public MultiMap formAttributes() {
+		return formAttributes;
+	}
+
+	@Override
+	public String getFormAttribute(String arg) {
+		return formAttributes.get(arg);
+	}
+
+	@Deprecated
+	@Override
+	public ServerWebSocket upgrade() {
+		return null;
+	}
+
+	@Override
+	public boolean isEnded() {
+		return false;
+	}
+
+	@Override
+	public HttpServerRequest customFrameHandler(Handler<HttpFrame> arg) {
+		return this;
+	}
+
+	@Override
+	public HttpConnection connection() {
+		return null;
+	}
+
+	@Override
+	public HttpServerRequest streamPriorityHandler(Handler<StreamPriority> arg) {
+		return this;
+	}
+
+	@Override
+	public Cookie getCookie(String arg) {
+		return null;
+	}
+
+	@Override
+	public int cookieCount() {
+		return 0;
+	}
+
+	@Override
+	public Map<String, Cookie> cookieMap() {
+		return null;
+	}
+}
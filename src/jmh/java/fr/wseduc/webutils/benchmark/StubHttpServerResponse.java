@@ -0,0 +1,307 @@
+/*
+ * Copyright © WebServices pour l'Éducation, 2014
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package fr.wseduc.webutils.benchmark;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Handler;
+import io.vertx.core.MultiMap;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.http.Cookie;
+import io.vertx.core.http.HttpMethod;
+import io.vertx.core.http.HttpServerResponse;
+
+/**
+ * Minimal in-memory HttpServerResponse, so the benchmarks run without a server.
+ */
+class StubHttpServerResponse implements HttpServerResponse {
+
+	private final MultiMap headers = MultiMap.caseInsensitiveMultiMap();
+	private int statusCode = 200;
+	private boolean ended;
+
+	@Override
+	public HttpServerResponse exceptionHandler(Handler<Throwable> arg) {
+		return this;
+	}
+
+	@Override
+	public HttpServerResponse write(Buffer arg) {
+		return this;
+	}
+
+	@Override
+	public HttpServerResponse write(Buffer arg0, Handler<AsyncResult<Void>> arg1) {
+		return this;
+	}
+
+	@Override
+	public boolean writeQueueFull() {
+		return false;
+	}
+
+	@Override
+	public HttpServerResponse setWriteQueueMaxSize(int arg) {
+		return this;
+	}
+
+	@Override
+	public HttpServerResponse drainHandler(Handler<Void> arg) {
+		return this;
+	}
+
+	@Override
+	public int getStatusCode() {
+		return statusCode;
+	}
+
+	@Override
+	public HttpServerResponse setStatusCode(int arg) {
+		statusCode = arg;
+		return this;
+	}
+
+	@Override
+	public String getStatusMessage() {
+		return null;
+	}
+
+	@Override
+	public HttpServerResponse setStatusMessage(String arg) {
+		return this;
+	}
+
+	@Override
+	public HttpServerResponse setChunked(boolean arg) {
+		return this;
+	}
+
+	@Override
+	public boolean isChunked() {
+		return false;
+	}
+
+	@Override
+	public MultiMap headers() {
+		return headers;
+	}
+
+	@Override
+	public HttpServerResponse putHeader(String arg0, String arg1) {
+		headers.set(arg0, arg1);
+		return this;
+	}
+
+	@Override
+	public HttpServerResponse putHeader(CharSequence arg0, CharSequence arg1) {
+		headers.set(arg0, arg1);
+		return this;
+	}
+
+	@Override
+	public HttpServerResponse putHeader(String arg0, Iterable<String> arg1) {
+		return this;
+	}
+
+	@Override
+	public HttpServerResponse putHeader(CharSequence arg0, Iterable<CharSequence> arg1) {
+		return this;
+	}
+
+	@Override
+	public MultiMap trailers() {
+		return null;
+	}
+
+	@Override
+	public HttpServerResponse putTrailer(String arg0, String arg1) {
+		return this;
+	}
+
+	@Override
+	public HttpServerResponse putTrailer(CharSequence arg0, CharSequence arg1) {
+		return this;
+	}
+
+	@Override
+	public HttpServerResponse putTrailer(String arg0, Iterable<String> arg1) {
+		return this;
+	}
+
+	@Override
+	public HttpServerResponse putTrailer(CharSequence arg0, Iterable<CharSequence> arg1) {
+		return this;
+	}
+
+	@Override
+	public HttpServerResponse closeHandler(Handler<Void> arg) {
+		return this;
+	}
+
+	@Override
+	public HttpServerResponse endHandler(Handler<Void> arg) {
+		return this;
+	}
+
+	@Override
+	public HttpServerResponse write(String arg0, String arg1) {
+		return this;
+	}
+
+	@Override
+	public HttpServerResponse write(String arg0, String arg1, Handler<AsyncResult<Void>> arg2) {
+		return this;
+	}
+
+	@Override
+	public HttpServerResponse write(String arg) {
+		return this;
+	}
+
+	@Override
+	public HttpServerResponse write(String arg0, Handler<AsyncResult<Void>> arg1) {
+		return this;
+	}
+
+	@Override
+	public HttpServerResponse writeContinue() {
+		return this;
+	}
+
+	@Override
+	public void end(String arg) {
+		ended = true;
+	}
+
+	@Override
+	public void end(String arg0, Handler<AsyncResult<Void>> arg1) {
+	}
+
+	@Override
+	public void end(String arg0, String arg1) {
+	}
+
+	@Override
+	public void end(String arg0, String arg1, Handler<AsyncResult<Void>> arg2) {
+	}
+
+	@Override
+	public void end(Buffer arg) {
+		ended = true;
+	}
+
+	@Override
+	public void end(Buffer arg0, Handler<AsyncResult<Void>> arg1) {
+	}
+
+	@Override
+	public void end() {
+		ended = true;
+	}
+
+	@Override
+	public void end(Handler<AsyncResult<Void>> arg) {
+		ended = true;
+	}
+
+	@Override
+	public HttpServerResponse sendFile(String arg0, long arg1, long arg2) {
+		return this;
+	}
+
+	@Override
+	public HttpServerResponse sendFile(String arg0, long arg1, long arg2, Handler<AsyncResult<Void>> arg3) {
+		return this;
+	}
+
+	@Override
+	public void close() {
+	}
+
+	@Override
+	public boolean ended() {
+		return ended;
+	}
+
+	@Override
+	public boolean closed() {
+		return false;
+	}
+
+	@Override
+	public boolean headWritten() {
+		return false;
+	}
+
+	@Override
+	public HttpServerResponse headersEndHandler(Handler<Void> arg) {
+		return this;
+	}
+
+	@Override
+	public HttpServerResponse bodyEndHandler(Handler<Void> arg) {
+		return this;
+	}
+
+	@Override
+	public long bytesWritten() {
+		return 0;
+	}
+
+	@Override
+	public int streamId() {
+		return 0;
+	}
+
+	@Override
+	public HttpServerResponse push(HttpMethod arg0, String arg1, String arg2, Handler<AsyncResult<HttpServerResponse>> arg3) {
+		return this;
+	}
+
+	@Override
+	public HttpServerResponse push(HttpMethod arg0, String arg1, MultiMap arg2, Handler<AsyncResult<HttpServerResponse>> arg3) {
+		return this;
+	}
+
+	@Override
+	public HttpServerResponse push(HttpMethod arg0, String arg1, Handler<AsyncResult<HttpServerResponse>> arg2) {
+		return this;
+	}
+
+	@Override
+	public HttpServerResponse push(HttpMethod arg0, String arg1, String arg2, MultiMap arg3, Handler<AsyncResult<HttpServerResponse>> arg4) {
+		return this;
+	}
+
+	@Override
+	public void reset(long arg) {
+	}
+
+	@Override
+	public HttpServerResponse writeCustomFrame(int arg0, int arg1, Buffer arg2) {
+		return this;
+	}
+
+	@Override
+	public HttpServerResponse addCookie(Cookie arg) {
+		return this;
+	}
+
+	@Override
+	public Cookie removeCookie(String arg0, boolean arg1) {
+		return null;
+	}
+}
@@ -0,0 +1,85 @@
+/*
+ * Copyright © WebServices pour l'Éducation, 2014
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fr.wseduc.webutils.benchmark;
+
+import fr.wseduc.webutils.template.TemplateProcessor;
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.File;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TemplateProcessorBenchmark {
+
+	private static final String TEMPLATE = "<html><head><title>{{title}}</title></head><body>" +
+			"<h1>{{#upper}}{{title}}{{/upper}}</h1><ul>{{#items}}<li id=\"{{id}}\">{{name}} - {{description}}</li>" +
+			"{{/items}}</ul><footer>{{user.firstName}} {{user.lastName}}</footer></body></html>";
+
+	private Vertx vertx;
+	private File folder;
+	private TemplateProcessor processor;
+	private JsonObject params;
+
+	@Setup
+	public void setup() throws Exception {
+		vertx = Vertx.vertx();
+		folder = Files.createTempDirectory("benchmark-view").toFile();
+		Files.write(new File(folder, "index.html").toPath(), TEMPLATE.getBytes(StandardCharsets.UTF_8));
+		processor = new TemplateProcessor(vertx, folder.getAbsolutePath(), true);
+		processor.setLambda("upper", (frag, out) -> out.write(frag.execute().toUpperCase()));
+		final JsonArray items = new JsonArray();
+		for (int i = 0; i < 50; i++) {
+			items.add(new JsonObject().put("id", i).put("name", "Item " + i)
+					.put("description", "Description of <item> " + i));
+		}
+		params = new JsonObject().put("title", "Benchmark").put("items", items)
+				.put("user", new JsonObject().put("firstName", "Marie").put("lastName", "Dupont"));
+		final CompletableFuture<String> loaded = new CompletableFuture<>();
+		processor.processTemplate("index.html", params, loaded::complete);
+		loaded.get(10, TimeUnit.SECONDS);
+	}
+
+	@TearDown
+	public void tearDown() {
+		vertx.close();
+		new File(folder, "index.html").delete();
+		folder.delete();
+	}
+
+	@Benchmark
+	public void cachedTemplate(Blackhole blackhole) {
+		processor.processTemplate("index.html", params, blackhole::consume);
+	}
+
+	@Benchmark
+	public void readerTemplate(Blackhole blackhole) {
+		processor.processTemplate("index.html", params, new StringReader(TEMPLATE), blackhole::consume);
+	}
+
+}
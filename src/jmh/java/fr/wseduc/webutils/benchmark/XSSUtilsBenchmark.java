@@ -0,0 +1,63 @@
+/*
+ * Copyright © WebServices pour l'Éducation, 2014
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fr.wseduc.webutils.benchmark;
+
+import fr.wseduc.webutils.security.XSSUtils;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class XSSUtilsBenchmark {
+
+	private String shortValue;
+	private String longValue;
+	private String maliciousValue;
+
+	@Setup
+	public void setup() {
+		shortValue = "ed2a7e2b-4c7c-4e1f-9d2e-3a7f5b1c8e90";
+		final StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < 100; i++) {
+			sb.append("<p>Lorem ipsum dolor sit amet, consectetur adipiscing elit, onion rings = ").append(i)
+					.append("</p>");
+		}
+		longValue = sb.toString();
+		maliciousValue = "<div onclick=\"alert(1)\">text</div><script>eval(document.cookie)</script>" +
+				"<a href=\"javascript:alert(1)\">link</a>";
+	}
+
+	@Benchmark
+	public String shortClean() {
+		return XSSUtils.stripXSS(shortValue);
+	}
+
+	@Benchmark
+	public String longClean() {
+		return XSSUtils.stripXSS(longValue);
+	}
+
+	@Benchmark
+	public String malicious() {
+		return XSSUtils.stripXSS(maliciousValue);
+	}
+
+}
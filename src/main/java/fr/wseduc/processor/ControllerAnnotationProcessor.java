@@ -25,11 +25,20 @@ import javax.annotation.processing.*;
 import javax.lang.model.SourceVersion;
 import javax.lang.model.element.Element;
 import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
 import javax.lang.model.element.TypeElement;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+import javax.lang.model.util.Elements;
+import javax.lang.model.util.Types;
 import javax.tools.Diagnostic.Kind;
 import javax.tools.FileObject;
+import javax.tools.JavaFileObject;
 import javax.tools.StandardLocation;
 import java.io.*;
+import java.nio.file.NoSuchFileException;
 import java.util.*;
 
 @SupportedAnnotationTypes({"fr.wseduc.security.SecuredAction", "fr.wseduc.bus.BusAddress",
@@ -38,9 +47,14 @@ import java.util.*;
 @SupportedSourceVersion(SourceVersion.RELEASE_8)
 public class ControllerAnnotationProcessor extends AbstractProcessor {
 
+	private static final String COMPILED_ROUTES = "fr.wseduc.webutils.http.CompiledRoutes";
+
+	private final Set<String> compiledRoutes = new TreeSet<>();
+
 	@Override
 	public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
 		if (roundEnv.processingOver()) {
+			writeServices();
 			return false;
 		}
 		route(roundEnv);
@@ -141,7 +155,7 @@ public class ControllerAnnotationProcessor extends AbstractProcessor {
 	}
 
 	private void route(RoundEnvironment roundEnv) {
-		final Map<String,Set<String>> routes = new HashMap<>();
+		final Map<String,Map<String,Route>> routes = new HashMap<>();
 
 		for (Element element : roundEnv.getElementsAnnotatedWith(Post.class)) {
 			Post annotation = element.getAnnotation(Post.class);
@@ -149,10 +163,7 @@ public class ControllerAnnotationProcessor extends AbstractProcessor {
 			if(annotation == null || !isMethod(element) || clazz == null) {
 				continue;
 			}
-			Set<String> controllerRoutes = getController(routes, clazz);
-			controllerRoutes.add("{ \"httpMethod\" : \"POST\", \"path\" : \"" +
-					annotation.value() + "\", \"method\" : \"" + element.getSimpleName().toString() +
-					"\", \"regex\" : " + annotation.regex() + "}");
+			addRoute(routes, clazz, new Route("POST", annotation.value(), element, annotation.regex()));
 		}
 
 		for (Element element : roundEnv.getElementsAnnotatedWith(Get.class)) {
@@ -161,10 +172,7 @@ public class ControllerAnnotationProcessor extends AbstractProcessor {
 			if(annotation == null || !isMethod(element) || clazz == null) {
 				continue;
 			}
-			Set<String> controllerRoutes = getController(routes, clazz);
-			controllerRoutes.add("{ \"httpMethod\" : \"GET\", \"path\" : \"" +
-					annotation.value() + "\", \"method\" : \"" + element.getSimpleName().toString() +
-					"\", \"regex\" : " + annotation.regex() + "}");
+			addRoute(routes, clazz, new Route("GET", annotation.value(), element, annotation.regex()));
 		}
 
 		for (Element element : roundEnv.getElementsAnnotatedWith(Put.class)) {
@@ -173,10 +181,7 @@ public class ControllerAnnotationProcessor extends AbstractProcessor {
 			if(annotation == null || !isMethod(element) || clazz == null) {
 				continue;
 			}
-			Set<String> controllerRoutes = getController(routes, clazz);
-			controllerRoutes.add("{ \"httpMethod\" : \"PUT\", \"path\" : \"" +
-					annotation.value() + "\", \"method\" : \"" + element.getSimpleName().toString() +
-					"\", \"regex\" : " + annotation.regex() + "}");
+			addRoute(routes, clazz, new Route("PUT", annotation.value(), element, annotation.regex()));
 		}
 
 		for (Element element : roundEnv.getElementsAnnotatedWith(Delete.class)) {
@@ -185,10 +190,7 @@ public class ControllerAnnotationProcessor extends AbstractProcessor {
 			if(annotation == null || !isMethod(element) || clazz == null) {
 				continue;
 			}
-			Set<String> controllerRoutes = getController(routes, clazz);
-			controllerRoutes.add("{ \"httpMethod\" : \"DELETE\", \"path\" : \"" +
-					annotation.value() + "\", \"method\" : \"" + element.getSimpleName().toString() +
-					"\", \"regex\" : " + annotation.regex() + "}");
+			addRoute(routes, clazz, new Route("DELETE", annotation.value(), element, annotation.regex()));
 		}
 
 		for (Element element : roundEnv.getElementsAnnotatedWith(BusAddress.class)) {
@@ -197,13 +199,226 @@ public class ControllerAnnotationProcessor extends AbstractProcessor {
 			if(annotation == null || !isMethod(element) || clazz == null) {
 				continue;
 			}
-			Set<String> controllerRoutes = getController(routes, clazz);
-			controllerRoutes.add("{ \"httpMethod\" : \"BUS\", \"path\" : \"" +
-					annotation.value() + "\", \"method\" : \"" + element.getSimpleName().toString() +
-					"\", \"local\" : " + annotation.local() + "}");
+			addRoute(routes, clazz, new Route("BUS", annotation.value(), element, annotation.local()));
+		}
+
+		// all the routes of a controller are declared in its own source, so its routes file is rewritten
+		// instead of merged with the previous one, and stays identical to the compiled routes
+		final Map<String,Set<String>> lines = new HashMap<>();
+		for (Map.Entry<String,Map<String,Route>> e : routes.entrySet()) {
+			lines.put(e.getKey(), new LinkedHashSet<>(e.getValue().keySet()));
+		}
+		writeFile("", getPackage(""), lines, false);
+		compiledRoutes(routes);
+	}
+
+	/**
+	 * Routes are keyed, and ordered, by their line in the routes json file : the reverse order of the lines is
+	 * the registration order of the controllers since the first versions of the processor.
+	 */
+	private void addRoute(Map<String,Map<String,Route>> routes, TypeElement clazz, Route route) {
+		Map<String,Route> controllerRoutes = routes.get(clazz.getQualifiedName().toString());
+		if (controllerRoutes == null) {
+			controllerRoutes = new TreeMap<>(Collections.reverseOrder());
+			routes.put(clazz.getQualifiedName().toString(), controllerRoutes);
+		}
+		try {
+			route.value = jsonValue(route.path);
+		} catch (IllegalArgumentException e) {
+			error("Invalid path of route " + clazz.getQualifiedName() + "." + route.method + " : " + e.getMessage());
+			return;
+		}
+		controllerRoutes.put(route.json(), route);
+	}
+
+	/**
+	 * Generate for each controller a {@code CompiledRoutes} class registering the routes in the order of the
+	 * routes json file, with direct calls to the controller methods instead of reflective lookups.
+	 * Methods which can't be called directly (not public, static or with an unexpected signature) are left
+	 * to the reflective binding, so the behaviour stays the same as with the json file.
+	 */
+	private void compiledRoutes(Map<String,Map<String,Route>> routes) {
+		final Elements elements = processingEnv.getElementUtils();
+		final TypeElement compiled = elements.getTypeElement(COMPILED_ROUTES);
+		final TypeElement request = elements.getTypeElement("io.vertx.core.http.HttpServerRequest");
+		final TypeElement message = elements.getTypeElement("io.vertx.core.eventbus.Message");
+		if (compiled == null || request == null || message == null) {
+			return;
+		}
+		for (Map.Entry<String,Map<String,Route>> e : routes.entrySet()) {
+			final TypeElement clazz = elements.getTypeElement(e.getKey());
+			if (clazz == null || !isAccessible(clazz)) {
+				continue;
+			}
+			final String pkg = elements.getPackageOf(clazz).getQualifiedName().toString();
+			final String binaryName = elements.getBinaryName(clazz).toString();
+			final String simpleName = (pkg.isEmpty() ? binaryName : binaryName.substring(pkg.length() + 1))
+					.replace('$', '_') + "_Routes";
+			final String name = pkg.isEmpty() ? simpleName : pkg + "." + simpleName;
+			final StringBuilder sb = new StringBuilder();
+			if (!pkg.isEmpty()) {
+				sb.append("package ").append(pkg).append(";\n\n");
+			}
+			sb.append("public final class ").append(simpleName).append(" implements ")
+					.append(COMPILED_ROUTES).append(" {\n\n")
+					.append("\t@Override\n")
+					.append("\tpublic String controller() {\n")
+					.append("\t\treturn ").append(literal(binaryName)).append(";\n")
+					.append("\t}\n\n")
+					.append("\t@Override\n")
+					.append("\t@SuppressWarnings({\"unchecked\", \"rawtypes\"})\n")
+					.append("\tpublic void register(fr.wseduc.webutils.Controller controller, ")
+					.append(COMPILED_ROUTES).append(".Registry registry) {\n")
+					.append("\t\tfinal ").append(clazz.getQualifiedName()).append(" c = (")
+					.append(clazz.getQualifiedName()).append(") controller;\n");
+			for (Route route : e.getValue().values()) {
+				final boolean bus = "BUS".equals(route.httpMethod);
+				final boolean direct = hasMethod(clazz, route.method, bus ? message : request);
+				if (bus) {
+					sb.append("\t\tregistry.bus(").append(literal(route.value)).append(", ")
+							.append(literal(route.method)).append(", ").append(route.flag).append(", ")
+							.append(direct ? "m -> c." + route.method + "((io.vertx.core.eventbus.Message) m)" : "null");
+				} else {
+					sb.append("\t\tregistry.route(").append(literal(route.httpMethod)).append(", ")
+							.append(literal(route.value)).append(", ").append(route.flag).append(", ")
+							.append(literal(route.method)).append(", ").append(direct ? "c::" + route.method : "null");
+				}
+				sb.append(");\n");
+			}
+			sb.append("\t}\n\n}\n");
+			try {
+				JavaFileObject f = processingEnv.getFiler().createSourceFile(name, clazz);
+				Writer w = new OutputStreamWriter(f.openOutputStream(), "UTF-8");
+				w.write(sb.toString());
+				w.close();
+				compiledRoutes.add(name);
+			} catch (IOException ex) {
+				error("Failed to write compiled routes : " + ex);
+			}
 		}
+	}
 
-		writeFile("", routes);
+	private boolean isAccessible(TypeElement clazz) {
+		for (Element e = clazz; e instanceof TypeElement; e = e.getEnclosingElement()) {
+			if (e.getModifiers().contains(Modifier.PRIVATE)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @return true if the controller has a public instance method with the signature expected by the
+	 * reflective binding : void method(param)
+	 */
+	private boolean hasMethod(TypeElement clazz, String name, TypeElement param) {
+		final Types types = processingEnv.getTypeUtils();
+		final TypeMirror expected = types.erasure(param.asType());
+		for (ExecutableElement m : ElementFilter.methodsIn(processingEnv.getElementUtils().getAllMembers(clazz))) {
+			if (m.getSimpleName().contentEquals(name) && m.getModifiers().contains(Modifier.PUBLIC) &&
+					!m.getModifiers().contains(Modifier.STATIC) && m.getReturnType().getKind() == TypeKind.VOID &&
+					m.getParameters().size() == 1 &&
+					types.isSameType(types.erasure(m.getParameters().get(0).asType()), expected)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static String literal(String s) {
+		return "\"" + s.replace("\\", "\\\\").replace("\"", "\\\"") + "\"";
+	}
+
+	/**
+	 * Decode the content of a json string : the annotation values are written as is in the routes json file,
+	 * so they are json-escaped by the controllers (a regex <code>\\d</code> is written <code>\\\\d</code>).
+	 * @return the value read by the json routes loader
+	 * @throws IllegalArgumentException if the json string is invalid
+	 */
+	private static String jsonValue(String s) {
+		final StringBuilder sb = new StringBuilder(s.length());
+		for (int i = 0; i < s.length(); i++) {
+			final char c = s.charAt(i);
+			if (c == '"' || c < 0x20) {
+				throw new IllegalArgumentException("unescaped character " + (int) c + " at " + i + " in " + s);
+			}
+			if (c != '\\') {
+				sb.append(c);
+				continue;
+			}
+			if (++i == s.length()) {
+				throw new IllegalArgumentException("unterminated escape in " + s);
+			}
+			final char e = s.charAt(i);
+			switch (e) {
+				case '"':
+				case '\\':
+				case '/':
+					sb.append(e);
+					break;
+				case 'b':
+					sb.append('\b');
+					break;
+				case 'f':
+					sb.append('\f');
+					break;
+				case 'n':
+					sb.append('\n');
+					break;
+				case 'r':
+					sb.append('\r');
+					break;
+				case 't':
+					sb.append('\t');
+					break;
+				case 'u':
+					try {
+						sb.append((char) Integer.parseInt(s.substring(i + 1, i + 5), 16));
+					} catch (NumberFormatException | IndexOutOfBoundsException ex) {
+						throw new IllegalArgumentException("invalid unicode escape at " + (i - 1) + " in " + s);
+					}
+					i += 4;
+					break;
+				default:
+					throw new IllegalArgumentException("unrecognized character escape '" + e + "' at " + (i - 1) +
+							" in " + s);
+			}
+		}
+		return sb.toString();
+	}
+
+	private void writeServices() {
+		if (compiledRoutes.isEmpty()) {
+			return;
+		}
+		final Filer filer = processingEnv.getFiler();
+		final String path = "META-INF/services/" + COMPILED_ROUTES;
+		try {
+			FileObject f = filer.getResource(StandardLocation.CLASS_OUTPUT, "", path);
+			BufferedReader r = new BufferedReader(new InputStreamReader(f.openInputStream(), "UTF-8"));
+			String line;
+			while((line = r.readLine()) != null) {
+				if (!line.trim().isEmpty()) {
+					compiledRoutes.add(line.trim());
+				}
+			}
+			r.close();
+		} catch (FileNotFoundException | NoSuchFileException x) {
+			// doesn't exist
+		} catch (IOException ex) {
+			error("Failed to load existing compiled routes : " + ex);
+		}
+		try {
+			processingEnv.getMessager().printMessage(Kind.NOTE,"Writing "+ path);
+			FileObject f = filer.createResource(StandardLocation.CLASS_OUTPUT, "", path);
+			PrintWriter pw = new PrintWriter(new OutputStreamWriter(f.openOutputStream(), "UTF-8"));
+			for (String value : compiledRoutes) {
+				pw.println(value);
+			}
+			pw.close();
+		} catch (IOException ex) {
+			error("Failed to write compiled routes : " + ex);
+		}
 	}
 
 	private Set<String> getController(Map<String, Set<String>> routes, TypeElement clazz) {
@@ -247,22 +462,31 @@ public class ControllerAnnotationProcessor extends AbstractProcessor {
 	}
 
 	protected void writeFile(String prefixFilename, String pkg, Map<String, Set<String>> actions) {
+		writeFile(prefixFilename, pkg, actions, true);
+	}
+
+	/**
+	 * @param merge True to keep the lines of the existing files
+	 */
+	protected void writeFile(String prefixFilename, String pkg, Map<String, Set<String>> actions, boolean merge) {
 		Filer filer = processingEnv.getFiler();
-		for (Map.Entry<String,Set<String>> e : actions.entrySet()) {
-			try {
-				String controller = e.getKey();
-				FileObject f = filer.getResource(StandardLocation.CLASS_OUTPUT, pkg,
-						prefixFilename + controller + ".json");
-				BufferedReader r = new BufferedReader(new InputStreamReader(f.openInputStream(), "UTF-8"));
-				String line;
-				while((line = r.readLine()) != null) {
-					e.getValue().add(line);
+		if (merge) {
+			for (Map.Entry<String,Set<String>> e : actions.entrySet()) {
+				try {
+					String controller = e.getKey();
+					FileObject f = filer.getResource(StandardLocation.CLASS_OUTPUT, pkg,
+							prefixFilename + controller + ".json");
+					BufferedReader r = new BufferedReader(new InputStreamReader(f.openInputStream(), "UTF-8"));
+					String line;
+					while((line = r.readLine()) != null) {
+						e.getValue().add(line);
+					}
+					r.close();
+				} catch (FileNotFoundException x) {
+					// doesn't exist
+				} catch (IOException ex) {
+					error("Failed to load existing secured actions : " + ex);
 				}
-				r.close();
-			} catch (FileNotFoundException x) {
-				// doesn't exist
-			} catch (IOException ex) {
-				error("Failed to load existing secured actions : " + ex);
 			}
 		}
 
@@ -286,6 +510,32 @@ public class ControllerAnnotationProcessor extends AbstractProcessor {
 		return (prefixFilename.isEmpty()) ? "routes" : prefixFilename.replaceAll("\\-", "").toLowerCase();
 	}
 
+	private static final class Route {
+
+		private final String httpMethod;
+		/** annotation value, written as is in the routes json file */
+		private final String path;
+		/** path decoded like the json routes loader does */
+		private String value;
+		private final String method;
+		/** regex flag of the http routes, local flag of the bus addresses */
+		private final boolean flag;
+
+		private Route(String httpMethod, String path, Element element, boolean flag) {
+			this.httpMethod = httpMethod;
+			this.path = path;
+			this.method = element.getSimpleName().toString();
+			this.flag = flag;
+		}
+
+		private String json() {
+			return "{ \"httpMethod\" : \"" + httpMethod + "\", \"path\" : \"" + path +
+					"\", \"method\" : \"" + method + "\", \"" + ("BUS".equals(httpMethod) ? "local" : "regex") +
+					"\" : " + flag + "}";
+		}
+
+	}
+
 	protected boolean isMethod(Element element) {
 		return ((element != null) && ElementKind.METHOD.equals(element.getKind()));
 	}
@@ -24,6 +24,8 @@ import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.ServiceConfigurationError;
+import java.util.ServiceLoader;
 import java.util.Set;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -38,6 +40,7 @@ import io.vertx.core.http.HttpServerRequest;
 import io.vertx.core.json.JsonObject;
 
 import fr.wseduc.webutils.http.Binding;
+import fr.wseduc.webutils.http.CompiledRoutes;
 import fr.wseduc.webutils.http.HttpMethod;
 import fr.wseduc.webutils.http.Renders;
 import fr.wseduc.webutils.request.filter.SecurityHandler;
@@ -85,6 +88,34 @@ public abstract class Controller extends Renders {
 	}
 
 	protected void loadRoutes() {
+		final CompiledRoutes compiledRoutes = compiledRoutes();
+		if (compiledRoutes != null) {
+			compiledRoutes.register(this, new CompiledRoutes.Registry() {
+				@Override
+				public void route(String httpMethod, String path, boolean regex, String method,
+						CompiledRoutes.Action<HttpServerRequest> action) {
+					final Handler<HttpServerRequest> handler = (action != null) ?
+							bindHandler(method, action) : bindHandler(method);
+					Controller.this.route(HttpMethod.valueOf(httpMethod), path, regex, method, handler);
+				}
+
+				@Override
+				public void bus(String address, String method, boolean local,
+						CompiledRoutes.Action<Message<JsonObject>> action) {
+					if (action != null) {
+						registerMethod(address, method, local, action);
+						return;
+					}
+					try {
+						registerMethod(address, method, local);
+					} catch (NoSuchMethodException | IllegalAccessException e) {
+						log.error("Unable to register bus method " + method + " in controller " +
+								Controller.this.getClass().getName(), e);
+					}
+				}
+			});
+			return;
+		}
 		InputStream is = this.getClass().getClassLoader().getResourceAsStream("routes" + File.separator +
 				this.getClass().getName() + ".json");
 		if (is != null) {
@@ -152,50 +183,32 @@ public abstract class Controller extends Renders {
 		}
 	}
 
-	private Handler<HttpServerRequest> execute(final String method) {
+	/**
+	 * Find the route table generated for this controller by the annotation processor.
+	 * @return the route table, or null if the routes must be loaded from the json file
+	 */
+	private CompiledRoutes compiledRoutes() {
 		try {
-			final MethodHandle mh = lookup.bind(this, method,
-					MethodType.methodType(void.class, HttpServerRequest.class));
-			return new XSSHandler() {
-
-				@Override
-				public void filter(final HttpServerRequest request) {
-					accessLogger.log(request, v -> {
-						try {
-							mh.invokeExact(request);
-						} catch (Throwable e) {
-							if (!(e instanceof IllegalStateException) ||
-									!"Response is closed".equals(e.getMessage())) {
-								log.error("Error invoking secured method : " + method, e);
-								request.response().setStatusCode(500).end();
-							}
-						}
-					});
+			for (CompiledRoutes routes : ServiceLoader.load(CompiledRoutes.class, getClass().getClassLoader())) {
+				if (getClass().getName().equals(routes.controller())) {
+					return routes;
 				}
-			};
-		} catch (NoSuchMethodException | IllegalAccessException e) {
-
-			return new Handler<HttpServerRequest>() {
-
-				@Override
-				public void handle(HttpServerRequest request) {
-					log.error("Error mapping method : " + method, e);
-					request.response().setStatusCode(404).end();
-				}
-			};
+			}
+		} catch (ServiceConfigurationError e) {
+			log.warn("Unable to load compiled routes of controller " + getClass().getName(), e);
 		}
+		return null;
 	}
 
-	private Handler<HttpServerRequest> executeSecure(final String method) {
-		try {
-			final MethodHandle mh = lookup.bind(this, method,
-					MethodType.methodType(void.class, HttpServerRequest.class));
-			return new SecurityHandler() {
+	private Handler<HttpServerRequest> execute(final String method,
+			final CompiledRoutes.Action<HttpServerRequest> action) {
+		return new XSSHandler() {
 
-				@Override
-				public void filter(HttpServerRequest request) {
+			@Override
+			public void filter(final HttpServerRequest request) {
+				accessLogger.log(request, v -> {
 					try {
-						mh.invokeExact(request);
+						action.handle(request);
 					} catch (Throwable e) {
 						if (!(e instanceof IllegalStateException) ||
 								!"Response is closed".equals(e.getMessage())) {
@@ -203,31 +216,45 @@ public abstract class Controller extends Renders {
 							request.response().setStatusCode(500).end();
 						}
 					}
-				}
-			};
-		} catch (NoSuchMethodException | IllegalAccessException e) {
+				});
+			}
+		};
+	}
 
-			return new SecurityHandler() {
+	private Handler<HttpServerRequest> executeSecure(final String method,
+			final CompiledRoutes.Action<HttpServerRequest> action) {
+		return new SecurityHandler() {
 
-				@Override
-				public void filter(HttpServerRequest request) {
-					log.error("Error mapping secured method : " + method, e);
-					request.response().setStatusCode(404).end();
+			@Override
+			public void filter(HttpServerRequest request) {
+				try {
+					action.handle(request);
+				} catch (Throwable e) {
+					if (!(e instanceof IllegalStateException) ||
+							!"Response is closed".equals(e.getMessage())) {
+						log.error("Error invoking secured method : " + method, e);
+						request.response().setStatusCode(500).end();
+					}
 				}
-			};
-		}
+			}
+		};
 	}
 
 	public void registerMethod(String address, String method, boolean local)
 			throws NoSuchMethodException, IllegalAccessException {
 		final MethodHandle mh = lookup.bind(this, method,
 				MethodType.methodType(void.class, Message.class));
+		registerMethod(address, method, local, message -> mh.invokeExact(message));
+	}
+
+	private void registerMethod(String address, String method, boolean local,
+			final CompiledRoutes.Action<Message<JsonObject>> action) {
 		Handler<Message<JsonObject>> handler = new Handler<Message<JsonObject>>() {
 
 			@Override
 			public void handle(Message<JsonObject> message) {
 				try {
-					mh.invokeExact(message);
+					action.handle(message);
 				} catch (Throwable e) {
 					log.error(e.getMessage(), e);
 					JsonObject json = new JsonObject().put("status", "error")
@@ -243,14 +270,48 @@ public abstract class Controller extends Renders {
 		}
 	}
 
-	private Handler<HttpServerRequest> bindHandler(String method) {
+	private Handler<HttpServerRequest> bindHandler(final String method) {
+		if (method == null || method.trim().isEmpty()) {
+			throw new NullPointerException();
+		}
+		try {
+			final MethodHandle mh = lookup.bind(this, method,
+					MethodType.methodType(void.class, HttpServerRequest.class));
+			return bindHandler(method, request -> mh.invokeExact(request));
+		} catch (NoSuchMethodException | IllegalAccessException e) {
+			if (isSecured(method)) {
+				return new SecurityHandler() {
+
+					@Override
+					public void filter(HttpServerRequest request) {
+						log.error("Error mapping secured method : " + method, e);
+						request.response().setStatusCode(404).end();
+					}
+				};
+			}
+			return new Handler<HttpServerRequest>() {
+
+				@Override
+				public void handle(HttpServerRequest request) {
+					log.error("Error mapping method : " + method, e);
+					request.response().setStatusCode(404).end();
+				}
+			};
+		}
+	}
+
+	private Handler<HttpServerRequest> bindHandler(String method, CompiledRoutes.Action<HttpServerRequest> action) {
 		if (method == null || method.trim().isEmpty()) {
 			throw new NullPointerException();
 		}
-		if (securedActions.containsKey(this.getClass().getName() + "|" + method)) {
-			return executeSecure(method);
+		if (isSecured(method)) {
+			return executeSecure(method, action);
 		}
-		return execute(method);
+		return execute(method, action);
+	}
+
+	private boolean isSecured(String method) {
+		return securedActions.containsKey(this.getClass().getName() + "|" + method);
 	}
 
 	public Map<String, Set<Binding>> getUriBinding() {
@@ -278,58 +339,76 @@ public abstract class Controller extends Renders {
 	}
 
 	public Controller get(String pattern, String method) {
-		pattern = addPathPrefix(pattern);
-		addPattern(pattern, HttpMethod.GET, method);
-		rm.get(pattern, bindHandler(method));
-		return this;
+		return route(HttpMethod.GET, pattern, false, method, bindHandler(method));
 	}
 
 	public Controller put(String pattern, String method) {
-		pattern = addPathPrefix(pattern);
-		addPattern(pattern, HttpMethod.PUT, method);
-		rm.put(pattern, bindHandler(method));
-		return this;
+		return route(HttpMethod.PUT, pattern, false, method, bindHandler(method));
 	}
 
 	public Controller post(String pattern, String method) {
-		pattern = addPathPrefix(pattern);
-		addPattern(pattern, HttpMethod.POST, method);
-		rm.post(pattern, bindHandler(method));
-		return this;
+		return route(HttpMethod.POST, pattern, false, method, bindHandler(method));
 	}
 
 	public Controller delete(String pattern, String method) {
-		pattern = addPathPrefix(pattern);
-		addPattern(pattern, HttpMethod.DELETE, method);
-		rm.delete(pattern, bindHandler(method));
-		return this;
+		return route(HttpMethod.DELETE, pattern, false, method, bindHandler(method));
 	}
 
 	public Controller getWithRegEx(String regex, String method) {
-		regex = addPathPrefix(regex).replaceAll("\\/", "\\/");
-		addRegEx(regex, HttpMethod.GET, method);
-		rm.getWithRegEx(regex, bindHandler(method));
-		return this;
+		return route(HttpMethod.GET, regex, true, method, bindHandler(method));
 	}
 
 	public Controller putWithRegEx(String regex, String method) {
-		regex = addPathPrefix(regex).replaceAll("\\/", "\\/");
-		addRegEx(regex, HttpMethod.PUT, method);
-		rm.putWithRegEx(regex, bindHandler(method));
-		return this;
+		return route(HttpMethod.PUT, regex, true, method, bindHandler(method));
 	}
 
 	public Controller postWithRegEx(String regex, String method) {
-		regex = addPathPrefix(regex).replaceAll("\\/", "\\/");
-		addRegEx(regex, HttpMethod.POST, method);
-		rm.postWithRegEx(regex, bindHandler(method));
-		return this;
+		return route(HttpMethod.POST, regex, true, method, bindHandler(method));
 	}
 
 	public Controller deleteWithRegEx(String regex, String method) {
-		regex = addPathPrefix(regex).replaceAll("\\/", "\\/");
-		addRegEx(regex, HttpMethod.DELETE, method);
-		rm.deleteWithRegEx(regex, bindHandler(method));
+		return route(HttpMethod.DELETE, regex, true, method, bindHandler(method));
+	}
+
+	private Controller route(HttpMethod httpMethod, String path, boolean regex, String method,
+			Handler<HttpServerRequest> handler) {
+		if (regex) {
+			path = addPathPrefix(path).replaceAll("\\/", "\\/");
+			addRegEx(path, httpMethod, method);
+		} else {
+			path = addPathPrefix(path);
+			addPattern(path, httpMethod, method);
+		}
+		switch (httpMethod) {
+			case GET:
+				if (regex) {
+					rm.getWithRegEx(path, handler);
+				} else {
+					rm.get(path, handler);
+				}
+				break;
+			case PUT:
+				if (regex) {
+					rm.putWithRegEx(path, handler);
+				} else {
+					rm.put(path, handler);
+				}
+				break;
+			case POST:
+				if (regex) {
+					rm.postWithRegEx(path, handler);
+				} else {
+					rm.post(path, handler);
+				}
+				break;
+			case DELETE:
+				if (regex) {
+					rm.deleteWithRegEx(path, handler);
+				} else {
+					rm.delete(path, handler);
+				}
+				break;
+		}
 		return this;
 	}
 
@@ -17,11 +17,21 @@
 package fr.wseduc.webutils;
 
 import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Locale;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 import fr.wseduc.webutils.data.FileResolver;
+import fr.wseduc.webutils.http.EncodedContent;
 import fr.wseduc.webutils.http.Renders;
 import fr.wseduc.webutils.security.SecureHttpServerRequest;
 import io.vertx.core.Vertx;
@@ -35,12 +45,21 @@ import io.vertx.core.logging.LoggerFactory;
 public class I18n {
 
 	private static final Logger log = LoggerFactory.getLogger(I18n.class);
-	private final static String messagesDir = FileResolver.absolutePath("i18n");
 	private final static Locale defaultLocale = Locale.ENGLISH;
 	private final static Locale defaultLocale2 = Locale.FRENCH;
 	public final static String DEFAULT_DOMAIN = "default-domain";
-	private Map<String, Map<Locale, JsonObject>> messagesByDomains = new HashMap<>();
-	private Map<String, Map<Locale, JsonObject>> messagesByThemes = new HashMap<>();
+	// Messages read by the requests. A snapshot is never modified, the loads and additions publish a new one.
+	private volatile Snapshot snapshot = new Snapshot(
+			Collections.<String, Map<Locale, JsonObject>>emptyMap(),
+			Collections.<String, Map<Locale, JsonObject>>emptyMap());
+	// Applied additions, replayed when the i18n directory is reloaded
+	private final List<Object[]> additions = new ArrayList<>();
+	private final AtomicLong version = new AtomicLong();
+	private static final int MAX_FORMATS = 8192;
+	private static final int MAX_NEGOTIATED = 1024;
+	private static final EncodedContent EMPTY = EncodedContent.of("{}".getBytes(StandardCharsets.UTF_8),
+			"application/json");
+	private final ConcurrentMap<String, Message> formats = new ConcurrentHashMap<>();
 
 	private I18n(){}
 
@@ -53,13 +72,20 @@ public class I18n {
 	}
 
 	public void init(Vertx vertx) {
+		reload(vertx);
+	}
+
+	/**
+	 * Read the i18n directory again and publish the new messages, with the keys added by the modules.
+	 * The translations in progress keep using the previous messages.
+	 * @param vertx Vertx instance, used to read the files
+	 */
+	public synchronized void reload(Vertx vertx) {
+		// Resolved on each load, as the base path is set by the verticle configuration
+		final String messagesDir = FileResolver.absolutePath("i18n");
 		try {
 			if (vertx.fileSystem().existsBlocking(messagesDir)) {
-				Map<Locale, JsonObject> messages = messagesByDomains.get(DEFAULT_DOMAIN);
-				if (messages == null) {
-					messages = new HashMap<>();
-					messagesByDomains.put(DEFAULT_DOMAIN, messages);
-				}
+				final Map<Locale, JsonObject> messages = new HashMap<>();
 				for(String path : vertx.fileSystem().readDirBlocking(messagesDir)) {
 					if (vertx.fileSystem().propsBlocking(path).isRegularFile()) {
 						Locale l = Locale.forLanguageTag(new File(path).getName().split("\\.")[0]);
@@ -67,6 +93,16 @@ public class I18n {
 						messages.put(l,jo);
 					}
 				}
+				Snapshot s = new Snapshot(Collections.singletonMap(DEFAULT_DOMAIN, messages),
+						Collections.<String, Map<Locale, JsonObject>>emptyMap());
+				for (Object[] addition : additions) {
+					final Snapshot next = s.add((String) addition[0], (Locale) addition[1],
+							(JsonObject) addition[2], (Boolean) addition[3]);
+					if (next != null) {
+						s = next;
+					}
+				}
+				publish(s);
 			} else {
 				log.warn("I18n directory " + messagesDir + " doesn't exist.");
 			}
@@ -75,6 +111,12 @@ public class I18n {
 		}
 	}
 
+	private void publish(Snapshot s) {
+		snapshot = s;
+		formats.clear();
+		version.incrementAndGet();
+	}
+
 	public String translate(String key, String domain, String acceptLanguage, String... args) {
 		return translate(key, domain, getLocale(acceptLanguage), args);
 	}
@@ -90,44 +132,218 @@ public class I18n {
 		
 	public String translate(String key, String domain, String theme, Locale locale, String... args) {
 		if (key == null) return "";
-		Map<Locale, JsonObject> messages = getMessagesMap(theme != null ? theme : domain, theme != null); // Theme gets precedence over domain, domain is a fallback
+		// Theme gets precedence over domain, domain is a fallback
+		String text = snapshot.table(domain, theme, locale).get(key);
+		if (text == null) {
+			return key;
+		}
+		if (args.length > 0) {
+			text = message(text).format(args);
+		}
+		return text;
+	}
 
-		if (messages == null) {
-			return theme != null ? translate(key, domain, null, locale, args) : key;
+	private Message message(String text) {
+		Message message = formats.get(text);
+		if (message == null) {
+			if (formats.size() >= MAX_FORMATS) {
+				formats.clear();
+			}
+			message = new Message(text);
+			formats.put(text, message);
 		}
-		JsonObject bundle = messages.get(locale) != null ? messages.get(locale) : messages.get(defaultLocale);
-		if (bundle == null) {
-			return theme != null ? translate(key, domain, null, locale, args) : key;
+		return message;
+	}
+
+	/**
+	 * Translation split once into literal parts and <code>{n}</code> placeholders, to substitute the arguments
+	 * in a single pass.
+	 */
+	private static final class Message {
+
+		private final String text;
+		private final String[] literals;
+		private final int[] placeholders;
+
+		private Message(String text) {
+			this.text = text;
+			final List<String> literals = new ArrayList<>();
+			final List<Integer> placeholders = new ArrayList<>();
+			int start = 0;
+			int open = text.indexOf('{');
+			while (open >= 0) {
+				final int close = text.indexOf('}', open + 1);
+				if (close < 0) {
+					break;
+				}
+				final int index = index(text, open + 1, close);
+				if (index >= 0) {
+					literals.add(text.substring(start, open));
+					placeholders.add(index);
+					start = close + 1;
+					open = text.indexOf('{', start);
+				} else {
+					open = text.indexOf('{', open + 1);
+				}
+			}
+			literals.add(text.substring(start));
+			this.literals = literals.toArray(new String[literals.size()]);
+			this.placeholders = new int[placeholders.size()];
+			for (int i = 0; i < this.placeholders.length; i++) {
+				this.placeholders[i] = placeholders.get(i);
+			}
 		}
-		String text = bundle.getString(key);
-		if(text != null)
-		{
-			if (args.length > 0) {
-				try {
-					for (int i = 0; i < args.length; i++) {
-						text = text.replaceAll("\\{" + i + "\\}", args[i]);
-					}
-				} catch (RuntimeException e) {
-					log.error("Error replacing i18n variable", e);
+
+		private static int index(String text, int start, int end) {
+			final int length = end - start;
+			if (length < 1 || length > 9 || (length > 1 && text.charAt(start) == '0')) {
+				return -1;
+			}
+			int index = 0;
+			for (int i = start; i < end; i++) {
+				final char c = text.charAt(i);
+				if (c < '0' || c > '9') {
+					return -1;
 				}
+				index = index * 10 + (c - '0');
 			}
+			return index;
+		}
+
+		/**
+		 * @param args The arguments, an argument missing or null keeps its placeholder
+		 * @return the text with the placeholders replaced
+		 */
+		private String format(String... args) {
+			if (placeholders.length == 0) {
+				return text;
+			}
+			int length = text.length();
+			for (String arg : args) {
+				if (arg != null) {
+					length += arg.length();
+				}
+			}
+			final StringBuilder sb = new StringBuilder(length);
+			sb.append(literals[0]);
+			for (int i = 0; i < placeholders.length; i++) {
+				final int index = placeholders[i];
+				if (index < args.length && args[index] != null) {
+					sb.append(args[index]);
+				} else {
+					sb.append('{').append(index).append('}');
+				}
+				sb.append(literals[i + 1]);
+			}
+			return sb.toString();
 		}
-		else
-			text = theme != null ? translate(key, domain, null, locale, args) : key;
-		return text;
-	}
 
-	private Map<Locale, JsonObject> getMessagesMap(String domain) {
-		return getMessagesMap(domain, false);
 	}
 
-	private Map<Locale, JsonObject> getMessagesMap(String domain, Boolean byTheme) {
-		final Map<String, Map<Locale, JsonObject>> map = byTheme ? messagesByThemes : messagesByDomains;
-		Map<Locale, JsonObject> messages = map.get(domain);
-		if (messages == null) {
-			messages = messagesByDomains.get(DEFAULT_DOMAIN);
+	/**
+	 * Immutable messages, with the translation tables of the (domain, theme, locale) combinations built on demand.
+	 */
+	private static final class Snapshot {
+
+		private static final String NO_THEME = "";
+		private static final String UNKNOWN_THEME = "\u0000";
+
+		private final Map<String, Map<Locale, JsonObject>> domains;
+		private final Map<String, Map<Locale, JsonObject>> themes;
+		private final Set<Locale> locales = new HashSet<>();
+		private final ConcurrentMap<String, ConcurrentMap<String, ConcurrentMap<Locale, Map<String, String>>>> tables =
+				new ConcurrentHashMap<>();
+		private final ConcurrentMap<Identity, EncodedContent> encoded = new ConcurrentHashMap<>();
+		private final ConcurrentMap<String, Locale> negotiated = new ConcurrentHashMap<>();
+
+		private Snapshot(Map<String, Map<Locale, JsonObject>> domains, Map<String, Map<Locale, JsonObject>> themes) {
+			this.domains = domains;
+			this.themes = themes;
+			for (Map<Locale, JsonObject> m : domains.values()) {
+				locales.addAll(m.keySet());
+			}
+			for (Map<Locale, JsonObject> m : themes.values()) {
+				locales.addAll(m.keySet());
+			}
+		}
+
+		private Map<Locale, JsonObject> messages(String domain) {
+			final Map<Locale, JsonObject> messages = (domain != null) ? domains.get(domain) : null;
+			return (messages != null) ? messages : domains.get(DEFAULT_DOMAIN);
+		}
+
+		private Map<Locale, JsonObject> themeMessages(String theme) {
+			final Map<Locale, JsonObject> messages = (theme != null) ? themes.get(theme) : null;
+			return (messages != null) ? messages : domains.get(DEFAULT_DOMAIN);
+		}
+
+		private static JsonObject bundle(Map<Locale, JsonObject> messages, Locale locale) {
+			if (messages == null) {
+				return null;
+			}
+			final JsonObject bundle = (locale != null) ? messages.get(locale) : null;
+			return (bundle != null) ? bundle : messages.get(defaultLocale);
+		}
+
+		/**
+		 * Translation table with the fallbacks resolved : the theme bundle, then the domain bundle, each one
+		 * falling back to the default domain and to the default locale. The unknown domains, themes and locales
+		 * share the table of their fallback.
+		 */
+		private Map<String, String> table(String domain, String theme, Locale locale) {
+			final String d = (domain != null && domains.containsKey(domain)) ? domain : DEFAULT_DOMAIN;
+			final String t = (theme == null) ? NO_THEME : (themes.containsKey(theme) ? theme : UNKNOWN_THEME);
+			final Locale l = (locale != null && locales.contains(locale)) ? locale : defaultLocale;
+			final ConcurrentMap<Locale, Map<String, String>> byLocale = tables
+					.computeIfAbsent(d, k -> new ConcurrentHashMap<>())
+					.computeIfAbsent(t, k -> new ConcurrentHashMap<>());
+			Map<String, String> table = byLocale.get(l);
+			if (table == null) {
+				final Map<String, String> m = new HashMap<>();
+				putAll(m, bundle(messages(d), l));
+				if (theme != null) {
+					putAll(m, bundle(themeMessages(theme), l));
+				}
+				table = Collections.unmodifiableMap(m);
+				byLocale.putIfAbsent(l, table);
+			}
+			return table;
 		}
-		return messages;
+
+		private static void putAll(Map<String, String> table, JsonObject bundle) {
+			if (bundle == null) {
+				return;
+			}
+			for (Map.Entry<String, Object> e : bundle.getMap().entrySet()) {
+				if (e.getValue() instanceof CharSequence) {
+					table.put(e.getKey(), e.getValue().toString());
+				}
+			}
+		}
+
+		/**
+		 * @return a new snapshot with the keys added, or null if the keys can't be added because there are no
+		 * default messages
+		 */
+		private Snapshot add(String domain, Locale locale, JsonObject keys, Boolean byTheme) {
+			boolean inThemes = byTheme;
+			Map<Locale, JsonObject> messages = byTheme ? themes.get(domain) : domains.get(domain);
+			if (messages == null && byTheme) {
+				messages = domains.get(domain);
+				inThemes = messages == null;
+			}
+			if (messages == null) {
+				messages = domains.get(DEFAULT_DOMAIN);
+				if (messages == null) return null;
+			}
+			final Map<Locale, JsonObject> m = new HashMap<>(messages);
+			final JsonObject bundle = m.get(locale);
+			m.put(locale, (bundle == null) ? keys.copy() : bundle.copy().mergeIn(keys));
+			final Map<String, Map<Locale, JsonObject>> map = new HashMap<>(inThemes ? themes : domains);
+			map.put(domain, Collections.unmodifiableMap(m));
+			return inThemes ? new Snapshot(domains, map) : new Snapshot(map, themes);
+		}
+
 	}
 
 	@Deprecated
@@ -137,11 +353,12 @@ public class I18n {
 
 	@Deprecated
 	public JsonObject load(String acceptLanguage, String domain) {
-		Map<Locale, JsonObject> messages = getMessagesMap(domain);
+		final Snapshot s = snapshot;
+		Map<Locale, JsonObject> messages = s.messages(domain);
 		if (messages == null) {
 			return new JsonObject();
 		}
-		Locale l = getLocale(acceptLanguage);
+		Locale l = negotiate(s, acceptLanguage != null ? acceptLanguage : "fr");
 		JsonObject bundle = messages.get(l) != null ? messages.get(l) : messages.get(defaultLocale);
 		if (bundle == null) {
 			bundle = messages.get(defaultLocale2);
@@ -150,15 +367,43 @@ public class I18n {
 	}
 
 	public JsonObject load(HttpServerRequest request) {
+		return load(snapshot, request);
+	}
+
+	/**
+	 * Bundle of the request, encoded once per messages snapshot with its compressed variants and its ETag.
+	 * @param request The request
+	 * @return the encoded bundle, or null if there is no bundle
+	 */
+	public EncodedContent loadEncoded(HttpServerRequest request) {
+		final Snapshot s = snapshot;
+		final JsonObject bundle = load(s, request);
+		if (bundle == null) {
+			return null;
+		}
+		if (bundle.isEmpty()) {
+			// Not keyed by identity : the missing messages are a new object on each load
+			return EMPTY;
+		}
+		final Identity key = new Identity(bundle);
+		EncodedContent encoded = s.encoded.get(key);
+		if (encoded == null) {
+			encoded = EncodedContent.of(bundle.encode().getBytes(StandardCharsets.UTF_8), "application/json");
+			s.encoded.putIfAbsent(key, encoded);
+		}
+		return encoded;
+	}
+
+	private JsonObject load(Snapshot s, HttpServerRequest request) {
 		final String domain = Renders.getHost(request);
 		final String acceptLanguage = I18n.acceptLanguage(request);
 		String themeName = I18n.getTheme(request);
 
-		Map<Locale, JsonObject> messages = themeName != null ? getMessagesMap(themeName, true) : getMessagesMap(domain);
+		Map<Locale, JsonObject> messages = themeName != null ? s.themeMessages(themeName) : s.messages(domain);
 		if (messages == null) {
 			return new JsonObject();
 		}
-		Locale l = getLocale(acceptLanguage);
+		Locale l = negotiate(s, acceptLanguage != null ? acceptLanguage : "fr");
 		JsonObject bundle = messages.get(l) != null ? messages.get(l) : messages.get(defaultLocale);
 		if (bundle == null) {
 			bundle = messages.get(defaultLocale);
@@ -166,6 +411,29 @@ public class I18n {
 		return bundle;
 	}
 
+	/**
+	 * Identity key of the bundles, which are never modified once published.
+	 */
+	private static final class Identity {
+
+		private final Object o;
+
+		private Identity(Object o) {
+			this.o = o;
+		}
+
+		@Override
+		public boolean equals(Object other) {
+			return other instanceof Identity && ((Identity) other).o == o;
+		}
+
+		@Override
+		public int hashCode() {
+			return System.identityHashCode(o);
+		}
+
+	}
+
 	/* Dummy implementation. Just use the first langage option ...
 	 * Header example : "Accept-Language:fr,en-us;q=0.8,fr-fr;q=0.5,en;q=0.3"
 	 */
@@ -173,28 +441,50 @@ public class I18n {
 		if (acceptLanguage == null) {
 			acceptLanguage = "fr";
 		}
+		return negotiate(getInstance().snapshot, acceptLanguage);
+	}
+
+	/*
+	 * RFC 4647 lookup of the language ranges, with their quality, in the loaded locales. The results are
+	 * memoized in the snapshot, as the available locales change with it.
+	 */
+	private static Locale negotiate(Snapshot s, String acceptLanguage) {
+		Locale locale = s.negotiated.get(acceptLanguage);
+		if (locale == null) {
+			locale = lookup(acceptLanguage, s.locales);
+			if (s.negotiated.size() >= MAX_NEGOTIATED) {
+				s.negotiated.clear();
+			}
+			s.negotiated.put(acceptLanguage, locale);
+		}
+		return locale;
+	}
+
+	private static Locale lookup(String acceptLanguage, Set<Locale> locales) {
+		if (!locales.isEmpty()) {
+			try {
+				final Locale locale = Locale.lookup(Locale.LanguageRange.parse(acceptLanguage), locales);
+				if (locale != null) {
+					return locale;
+				}
+			} catch (IllegalArgumentException e) {
+				log.debug("Invalid Accept-Language : " + acceptLanguage);
+			}
+		}
+		// No loaded locale matches : first language, falling back to the default locale in translate
 		String[] langs = acceptLanguage.split(",");
 		return Locale.forLanguageTag(langs[0].split("-")[0]);
 	}
 
 	public static String acceptLanguage(HttpServerRequest request) {
-		final String acceptLanguage = request.headers().get("Accept-Language") != null ?
-				request.headers().get("Accept-Language") : "fr";
 		if (request instanceof SecureHttpServerRequest) {
-			JsonObject session = ((SecureHttpServerRequest) request).getSession();
-			if (session != null && session.getJsonObject("cache") != null &&
-					session.getJsonObject("cache").getJsonObject("preferences") != null &&
-					Utils.isNotEmpty(session.getJsonObject("cache").getJsonObject("preferences").getString("language"))) {
-				try {
-					JsonObject language = new JsonObject(session.getJsonObject("cache").getJsonObject("preferences")
-							.getString("language"));
-					return language.getString(DEFAULT_DOMAIN, acceptLanguage);
-				} catch (DecodeException e) {
-					log.error("Error getting language in cache.", e);
-				}
+			final String language = ((SecureHttpServerRequest) request).getPreferredLanguage();
+			if (language != null) {
+				return language;
 			}
 		}
-		return acceptLanguage;
+		final String acceptLanguage = request.headers().get("Accept-Language");
+		return acceptLanguage != null ? acceptLanguage : "fr";
 	}
 
 	public static String getTheme(HttpServerRequest request)
@@ -223,30 +513,23 @@ public class I18n {
 		add(domain, locale, keys, false);
 	}
 
-	public void add(String domain, Locale locale, JsonObject keys, Boolean byTheme) {
-		Map<Locale, JsonObject> messages = byTheme ?
-				messagesByThemes.getOrDefault(domain, messagesByDomains.get(domain)) : messagesByDomains.get(domain);
-		if (messages == null) {
-			HashMap<Locale, JsonObject> defaultMessages = (HashMap<Locale, JsonObject>)
-					messagesByDomains.get(DEFAULT_DOMAIN);
-			if (defaultMessages == null) return;
-			messages = new HashMap<>();
-			for(Locale l : defaultMessages.keySet()){
-				messages.put(l, defaultMessages.get(l).copy());
-			}
-			final Map<String, Map<Locale, JsonObject>> map = byTheme ? messagesByThemes : messagesByDomains;
-			map.put(domain, messages);
-		}
-		JsonObject m = messages.get(locale);
-		if (m == null) {
-			messages.put(locale, keys);
-		} else {
-			m.mergeIn(keys);
-		}
+	public synchronized void add(String domain, Locale locale, JsonObject keys, Boolean byTheme) {
+		final Snapshot s = snapshot.add(domain, locale, keys, byTheme);
+		if (s == null) return;
+		additions.add(new Object[] {domain, locale, keys.copy(), byTheme});
+		publish(s);
+	}
+
+	/**
+	 * @return a counter incremented each time the messages are loaded or changed, to invalidate the caches
+	 * built from the translations
+	 */
+	public long getVersion() {
+		return version.get();
 	}
 
 	public JsonArray getLanguages(String domain) {
-		final Map<Locale, JsonObject> messages = getMessagesMap(domain);
+		final Map<Locale, JsonObject> messages = snapshot.messages(domain);
 		final JsonArray languages = new JsonArray();
 		if (messages != null) {
 			for (Locale l : messages.keySet()) {
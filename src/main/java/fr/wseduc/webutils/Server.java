@@ -20,9 +20,12 @@ import java.io.IOException;
 import java.util.*;
 
 import fr.wseduc.webutils.data.FileResolver;
+import fr.wseduc.webutils.http.AssetManifest;
 import fr.wseduc.webutils.http.BaseController;
 import fr.wseduc.webutils.http.Binding;
+import fr.wseduc.webutils.http.EncodedContent;
 import fr.wseduc.webutils.http.Renders;
+import fr.wseduc.webutils.http.StaticAssets;
 import fr.wseduc.webutils.logging.Tracer;
 import fr.wseduc.webutils.logging.TracerFactory;
 import fr.wseduc.webutils.request.filter.Filter;
@@ -37,7 +40,10 @@ import io.vertx.core.logging.Logger;
 
 import fr.wseduc.webutils.http.StaticResource;
 import fr.wseduc.webutils.request.CookieHelper;
+import fr.wseduc.webutils.request.RequestUtils;
 import fr.wseduc.webutils.security.SecuredAction;
+import fr.wseduc.webutils.security.XSSUtils;
+import fr.wseduc.webutils.template.TemplateProcessor;
 import io.vertx.core.logging.LoggerFactory;
 import io.vertx.core.shareddata.LocalMap;
 import org.vertx.java.core.http.RouteMatcher;
@@ -54,6 +60,10 @@ public abstract class Server extends AbstractVerticle {
 	protected Map<String, SecuredAction> securedActions;
 	protected Set<Binding> securedUriBinding = new HashSet<>();
 	private LocalMap<String, String> staticRessources;
+	private LocalMap<String, String> staticRessourcesETags;
+	private LocalMap<String, Long> staticRessourcesSizes;
+	private StaticAssets staticAssets;
+	private LocalMap<String, String> assetManifest;
 	private boolean dev;
 	private HttpServer server;
 
@@ -63,18 +73,52 @@ public abstract class Server extends AbstractVerticle {
 		config = config();
 		FileResolver.getInstance().setBasePath(config);
 		rm = new RouteMatcher();
+		rm.lazyParams(config.getBoolean("lazy-route-params", false));
+		rm.cacheSize(config.getInteger("route-cache-size", 0));
+		rm.methodNotAllowed(config.getBoolean("route-method-not-allowed", false));
 		trace = TracerFactory.getTracer(this.getClass().getSimpleName());
 		i18n = I18n.getInstance();
 		i18n.init(vertx);
 		CookieHelper.getInstance().init((String) vertx
 				.sharedData().getLocalMap("server").get("signKey"),
 				(String) vertx.sharedData().getLocalMap("server").get("sameSiteValue"), log);
+		final JsonArray xssSkippedHeaders = config.getJsonArray("xss-skipped-headers");
+		if (xssSkippedHeaders != null) {
+			final List<String> skippedHeaders = new ArrayList<>(xssSkippedHeaders.size());
+			for (Object header : xssSkippedHeaders) {
+				if (header instanceof String) {
+					skippedHeaders.add((String) header);
+				}
+			}
+			XSSUtils.setSkippedHeaders(skippedHeaders);
+		}
+		if (config.containsKey("max-json-body-size")) {
+			RequestUtils.setMaxBodySize(config.getLong("max-json-body-size"));
+		}
 		staticRessources = vertx.sharedData().getLocalMap("staticRessources");
+		staticRessourcesETags = vertx.sharedData().getLocalMap("staticRessourcesETags");
+		staticRessourcesSizes = vertx.sharedData().getLocalMap("staticRessourcesSizes");
 		dev = "dev".equals(config.getString("mode"));
+		if (!dev && config.getBoolean("static-cache", false)) {
+			staticAssets = new StaticAssets(vertx, config.getLong("static-cache-max-file-size", 262144L),
+					config.getLong("static-cache-max-size", 16777216L));
+		}
 
 		log.info("Verticle: " + this.getClass().getSimpleName() + " starts on port: " + config.getInteger("port"));
 
 		final String prefix = getPathPrefix(config);
+		if (!dev && config.getBoolean("asset-manifest", false)) {
+			assetManifest = AssetManifest.map(vertx);
+			AssetManifest.build(vertx, absolutePath("public"), prefix + "/public", ar -> {
+				if (ar.succeeded()) {
+					if (ar.result() > 0) {
+						log.info("Asset manifest of " + prefix + " : " + ar.result() + " files.");
+					}
+				} else {
+					log.error("Error building asset manifest of " + prefix, ar.cause());
+				}
+			});
+		}
 
 		// Serve public static resource like img, css, js. By convention in /public directory
 		rm.getWithRegEx(prefix.replaceAll("\\/", "\\/") + "\\/public\\/.+", request -> {
@@ -86,23 +130,12 @@ public abstract class Server extends AbstractVerticle {
 					}
 				});
 			} else {
-				if (staticRessources.get(request.uri()) != null) {
-					StaticResource.serveRessource(request,
-							path, staticRessources.get(request.uri()), dev);
+				AssetManifest.immutable(assetManifest, request);
+				if (staticAssets != null) {
+					staticAssets.serve(request, path);
 				} else {
-					vertx.fileSystem().props(path, af -> {
-						if (af.succeeded()) {
-							String lastModified = StaticResource.formatDate(af.result().lastModifiedTime());
-							staticRessources.put(request.uri(), lastModified);
-							StaticResource.serveRessource(request, path, lastModified, dev);
-						} else {
-							request.response().sendFile(path, ar -> {
-								if (ar.failed() && !request.response().ended()) {
-									Renders.notFound(request);
-								}
-							});
-						}
-					});
+					StaticResource.serveRessource(vertx, request, path, staticRessources, staticRessourcesETags,
+							staticRessourcesSizes, dev);
 				}
 			}
 		});
@@ -164,8 +197,14 @@ public abstract class Server extends AbstractVerticle {
 	}
 
 	protected void i18nMessages(HttpServerRequest request) {
-
-		Controller.renderJson(request, i18n.load(request));
+		final EncodedContent bundle = i18n.loadEncoded(request);
+		if (bundle == null) {
+			Controller.renderJson(request, (JsonObject) null);
+			return;
+		}
+		request.response().putHeader("Cache-Control", "no-cache, must-revalidate");
+		request.response().putHeader("Expires", "-1");
+		bundle.send(request);
 	}
 
 	/**
@@ -232,6 +271,7 @@ public abstract class Server extends AbstractVerticle {
 			futures.add(f);
 			server.close(f);
 		} 
+		TemplateProcessor.undeploy(deploymentID());
 		final Future<Void> f = Future.future();
 		super.stop(f);
 		CompositeFuture.all(futures).map(e->(Void) null).setHandler(stopFuture);
@@ -0,0 +1,161 @@
+/*
+ * Copyright © WebServices pour l'Éducation, 2014
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package fr.wseduc.webutils.collections;
+
+import io.netty.util.internal.PlatformDependent;
+import io.vertx.core.buffer.Buffer;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Spill storage of {@link PersistantBuffer} in a file mapped in memory by regions of a fixed size. A region is
+ * mapped, and the file grown, when the previous one is full, so appends are plain memory copies. The regions are
+ * unmapped by {@link #release(boolean)}, and not when they are garbage collected.<p>
+ * The file is opened by the first append, so an instance can be created on an event loop. There is a single
+ * writer, but the reads can run on other threads : the reads and the appends share a lock, which the release
+ * holds exclusively, so the regions are only unmapped once no read is in progress. The reads copy the content,
+ * nothing refers to the mapping after the release.
+ */
+class MappedSegments {
+
+	private final String path;
+	private final int regionSize;
+	private final List<MappedByteBuffer> regions = new CopyOnWriteArrayList<>();
+	private final ReadWriteLock lock = new ReentrantReadWriteLock();
+	private FileChannel channel;
+	private volatile long size = 0;
+	private boolean released = false;
+
+	MappedSegments(String path, int regionSize) {
+		this.path = path;
+		this.regionSize = regionSize;
+	}
+
+	/**
+	 * Append a buffer, mapping new regions if needed. Maps and may fault pages, so it must not run on an
+	 * event loop.
+	 */
+	void write(Buffer buffer) throws IOException {
+		lock.readLock().lock();
+		try {
+			if (released) {
+				throw new IOException("Segments of " + path + " released");
+			}
+			if (channel == null) {
+				channel = FileChannel.open(Paths.get(path), StandardOpenOption.CREATE, StandardOpenOption.READ,
+						StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+			}
+			final ByteBuffer src = buffer.getByteBuf().nioBuffer();
+			long s = size;
+			while (src.hasRemaining()) {
+				final int index = (int) (s / regionSize);
+				while (regions.size() <= index) {
+					regions.add(channel.map(FileChannel.MapMode.READ_WRITE, (long) regions.size() * regionSize,
+							regionSize));
+				}
+				final ByteBuffer dst = regions.get(index).duplicate();
+				dst.position((int) (s % regionSize));
+				final int len = Math.min(src.remaining(), dst.remaining());
+				final ByteBuffer part = src.duplicate();
+				part.limit(part.position() + len);
+				dst.put(part);
+				src.position(src.position() + len);
+				s += len;
+			}
+			// published once copied, the reads never see a partial append
+			size = s;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Copy a part of the written content on the heap. The pages are faulted from the file if they were
+	 * evicted.
+	 * @throws IllegalStateException if the segments are released
+	 */
+	Buffer read(long position, int len) {
+		lock.readLock().lock();
+		try {
+			if (released) {
+				throw new IllegalStateException("Segments of " + path + " released");
+			}
+			if (position < 0 || len < 0 || position + len > size) {
+				throw new IndexOutOfBoundsException("Invalid slice " + position + "+" + len +
+						" of segments of size " + size);
+			}
+			final byte[] bytes = new byte[len];
+			long p = position;
+			int offset = 0;
+			while (offset < len) {
+				final ByteBuffer part = regions.get((int) (p / regionSize)).duplicate();
+				part.position((int) (p % regionSize));
+				final int l = Math.min(len - offset, part.remaining());
+				part.get(bytes, offset, l);
+				p += l;
+				offset += l;
+			}
+			return Buffer.buffer(bytes);
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	long size() {
+		return size;
+	}
+
+	/**
+	 * Unmap the regions and close the file, once the reads in progress are done. The following reads and
+	 * appends fail.
+	 * @param truncate True to truncate the file to the written content, so it can still be read
+	 */
+	void release(boolean truncate) throws IOException {
+		lock.writeLock().lock();
+		try {
+			if (released) {
+				return;
+			}
+			released = true;
+			for (MappedByteBuffer region : regions) {
+				PlatformDependent.freeDirectBuffer(region);
+			}
+			regions.clear();
+			if (channel != null) {
+				try {
+					if (truncate) {
+						channel.truncate(size);
+					}
+				} finally {
+					channel.close();
+				}
+			}
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+}
@@ -25,15 +25,29 @@ import io.vertx.core.file.AsyncFile;
 import io.vertx.core.file.OpenOptions;
 import io.vertx.core.logging.Logger;
 import io.vertx.core.logging.LoggerFactory;
+import io.vertx.core.streams.ReadStream;
 
 import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
 import java.util.HashSet;
 import java.util.Set;
 import java.util.UUID;
 
+/**
+ * Buffer spilled to a temporary file when it exceeds a threshold. The content is the persisted segments followed
+ * by the memory tail, and can be streamed or read by slices without materializing it.<p>
+ * In memory-mapped mode, the segments are copied to regions of the file mapped in memory on the worker pool,
+ * and the reads of the persisted content copy them from the mapping, on the event loop : the regions were
+ * written recently and are usually resident, a read only faults pages from the file if they were evicted.
+ * The mapping is released by {@link #clear()} or {@link #close(Handler)} after the reads in progress, and the
+ * slices and chunks already read remain valid.
+ */
 public class PersistantBuffer {
 
 	private static final Logger log = LoggerFactory.getLogger(PersistantBuffer.class);
+	private static final int CHUNK_SIZE = 65536;
 	private Buffer buffer;
 	private final Vertx vertx;
 	private final String filePath;
@@ -46,6 +60,10 @@ public class PersistantBuffer {
 	private Buffer tmp = Buffer.buffer();
 	private Set<Handler<AsyncResult<Buffer>>> waitGet = new HashSet<>();
 	private AsyncFile f;
+	private boolean memoryMapped = false;
+	private int mappedRegionSize = 16 * 1024 * 1024;
+	/** Created and detached on the event loop, appended to and released by the ordered blocking tasks */
+	private MappedSegments segments;
 
 	public PersistantBuffer(Vertx vertx) {
 		this(vertx, Buffer.buffer());
@@ -108,7 +126,23 @@ public class PersistantBuffer {
 			}
 		};
 
-		if (persisted) {
+		lock = true;
+		if (memoryMapped) {
+			persisted = true;
+			final Buffer b = buffer;
+			if (segments == null) {
+				segments = new MappedSegments(filePath, mappedRegionSize);
+			}
+			final MappedSegments s = segments;
+			vertx.executeBlocking(future -> {
+				try {
+					s.write(b);
+					future.complete();
+				} catch (IOException e) {
+					future.fail(e);
+				}
+			}, true, h);
+		} else if (persisted) {
 			if (f != null) {
 				writeFile(h);
 			} else {
@@ -120,6 +154,7 @@ public class PersistantBuffer {
 							f = ar.result();
 							writeFile(h);
 						} else {
+							lock = false;
 							if (handler != null) {
 								handler.handle(new DefaultAsyncResult<Void>(ar.cause()));
 							}
@@ -131,7 +166,6 @@ public class PersistantBuffer {
 				});
 			}
 		} else {
-			lock = true;
 			persisted = true;
 			vertx.fileSystem().writeFile(filePath, buffer, h);
 		}
@@ -148,7 +182,7 @@ public class PersistantBuffer {
 	}
 
 	public void appendBuffer(Buffer b) {
-		length += buffer.length();
+		length += b.length();
 		if (lock) {
 			tmp.appendBuffer(b);
 			return;
@@ -165,6 +199,17 @@ public class PersistantBuffer {
 			waitGet.addAll(handlers);
 			return;
 		}
+		if (segments != null) {
+			readMapped(new Handler<AsyncResult<Buffer>>() {
+				@Override
+				public void handle(AsyncResult<Buffer> ar) {
+					for (Handler<AsyncResult<Buffer>> handler: handlers) {
+						handler.handle(ar);
+					}
+				}
+			});
+			return;
+		}
 		vertx.fileSystem().readFile(filePath, new Handler<AsyncResult<Buffer>>() {
 			@Override
 			public void handle(AsyncResult<Buffer> asyncResult) {
@@ -186,7 +231,9 @@ public class PersistantBuffer {
 			waitGet.add(handler);
 			return;
 		}
-		if (persisted) {
+		if (segments != null) {
+			readMapped(handler);
+		} else if (persisted) {
 			vertx.fileSystem().readFile(filePath, new Handler<AsyncResult<Buffer>>() {
 				@Override
 				public void handle(AsyncResult<Buffer> asyncResult) {
@@ -202,10 +249,89 @@ public class PersistantBuffer {
 		}
 	}
 
+	/**
+	 * Copy the whole content, the persisted part being copied from the mapping by an ordered blocking task, after
+	 * the pending writes.
+	 */
+	private void readMapped(final Handler<AsyncResult<Buffer>> handler) {
+		if (writeLength + buffer.length() > Integer.MAX_VALUE) {
+			handler.handle(new DefaultAsyncResult<Buffer>(new IllegalStateException("Buffer of " +
+					(writeLength + buffer.length()) + " bytes too large to be read at once.")));
+			return;
+		}
+		final MappedSegments s = segments;
+		final int len = (int) writeLength;
+		final Buffer tail = buffer.copy();
+		vertx.executeBlocking(future -> future.complete(s.read(0, len).appendBuffer(tail)), true, handler);
+	}
+
 	public long length() {
 		return length;
 	}
 
+	/**
+	 * @return a stream of the whole content, see {@link #readStream(long, long)}
+	 */
+	public ReadStream<Buffer> readStream() {
+		return readStream(0, length);
+	}
+
+	/**
+	 * Stream a part of the content : the persisted segments are read from the file by chunks, then the memory
+	 * tail is copied, only when the stream has demand. The content appended after the creation of the stream
+	 * can be read if it is in the requested part. The stream fails if the buffer is cleared.
+	 * @param offset The offset of the part
+	 * @param len The length of the part
+	 * @return the stream, which starts when its handler is set
+	 */
+	public ReadStream<Buffer> readStream(long offset, long len) {
+		if (offset < 0 || len < 0 || offset + len > length) {
+			throw new IndexOutOfBoundsException("Invalid slice " + offset + "+" + len + " of buffer of length " + length);
+		}
+		return new SegmentReadStream(offset, offset + len);
+	}
+
+	/**
+	 * Read a part of the content. In memory-mapped mode, a part of the persisted content is copied from the
+	 * mapping.
+	 * @param offset The offset of the part
+	 * @param len The length of the part
+	 * @param handler Receive the part
+	 */
+	public void slice(long offset, int len, final Handler<AsyncResult<Buffer>> handler) {
+		if (segments != null && offset >= 0 && len >= 0 && offset + len <= writeLength) {
+			handler.handle(new DefaultAsyncResult<>(segments.read(offset, len)));
+			return;
+		}
+		final ReadStream<Buffer> stream;
+		try {
+			stream = readStream(offset, len);
+		} catch (IndexOutOfBoundsException e) {
+			handler.handle(new DefaultAsyncResult<Buffer>(e));
+			return;
+		}
+		final Buffer slice = Buffer.buffer(len);
+		stream.exceptionHandler(t -> handler.handle(new DefaultAsyncResult<Buffer>(t)));
+		stream.endHandler(v -> handler.handle(new DefaultAsyncResult<>(slice)));
+		stream.handler(slice::appendBuffer);
+	}
+
+	/**
+	 * Copy a part of the memory tail, which starts at writeLength with the buffer, followed by the content
+	 * appended during a persist.
+	 */
+	private Buffer readMemory(long position, int len) {
+		long p = position - writeLength;
+		if (p < buffer.length()) {
+			return buffer.getBuffer((int) p, (int) Math.min(buffer.length(), p + len));
+		}
+		p -= buffer.length();
+		if (p < tmp.length()) {
+			return tmp.getBuffer((int) p, (int) Math.min(tmp.length(), p + len));
+		}
+		return Buffer.buffer();
+	}
+
 	public void clear() {
 		removeFile();
 		buffer = Buffer.buffer();
@@ -218,7 +344,26 @@ public class PersistantBuffer {
 	}
 
 	private void removeFile() {
-		if (f != null) {
+		if (memoryMapped && persisted) {
+			// detached before the release, which is ordered after the pending writes of the segments
+			final MappedSegments s = segments;
+			segments = null;
+			vertx.executeBlocking(future -> {
+				try {
+					if (s != null) {
+						s.release(false);
+					}
+					Files.deleteIfExists(Paths.get(filePath));
+					future.complete();
+				} catch (IOException e) {
+					future.fail(e);
+				}
+			}, true, ar -> {
+				if (ar.failed()) {
+					log.error("Error removing buffer.", ar.cause());
+				}
+			});
+		} else if (f != null) {
 			f.close(new Handler<AsyncResult<Void>>() {
 				@Override
 				public void handle(AsyncResult<Void> voidAsyncResult) {
@@ -248,8 +393,31 @@ public class PersistantBuffer {
 		}
 	}
 
+	/**
+	 * Release the file handle, or the mapping in memory-mapped mode. The content can still be read, and the
+	 * following persists are written to the file without mapping.
+	 * @param handler Called when the file is closed, can be null
+	 */
 	public void close(final Handler<AsyncResult<Void>> handler) {
-		if (f != null) {
+		if (memoryMapped && persisted) {
+			memoryMapped = false;
+			final MappedSegments s = segments;
+			segments = null;
+			vertx.<Void>executeBlocking(future -> {
+				try {
+					if (s != null) {
+						s.release(true);
+					}
+					future.complete();
+				} catch (IOException e) {
+					future.fail(e);
+				}
+			}, true, ar -> {
+				if (handler != null) {
+					handler.handle(ar);
+				}
+			});
+		} else if (f != null) {
 			f.close(new Handler<AsyncResult<Void>>() {
 				@Override
 				public void handle(AsyncResult<Void> voidAsyncResult) {
@@ -259,6 +427,8 @@ public class PersistantBuffer {
 					}
 				}
 			});
+		} else if (handler != null) {
+			handler.handle(new DefaultAsyncResult<>((Void) null));
 		}
 	}
 
@@ -274,4 +444,187 @@ public class PersistantBuffer {
 		this.persistanceThreshold = persistanceThreshold;
 	}
 
+	public boolean isMemoryMapped() {
+		return memoryMapped;
+	}
+
+	/**
+	 * Store the persisted segments in a file mapped in memory. Must be set before the first persist.
+	 * @param memoryMapped True to map the file
+	 */
+	public void setMemoryMapped(boolean memoryMapped) {
+		this.memoryMapped = memoryMapped;
+	}
+
+	public int getMappedRegionSize() {
+		return mappedRegionSize;
+	}
+
+	/**
+	 * @param mappedRegionSize The size of the regions of the file mapped at once, the file grows by this size
+	 */
+	public void setMappedRegionSize(int mappedRegionSize) {
+		this.mappedRegionSize = mappedRegionSize;
+	}
+
+	private class SegmentReadStream implements ReadStream<Buffer> {
+
+		private final long end;
+		private long position;
+		private long demand = Long.MAX_VALUE;
+		private boolean reading = false;
+		private boolean ended = false;
+		private AsyncFile file;
+		private Handler<Buffer> handler;
+		private Handler<Void> endHandler;
+		private Handler<Throwable> exceptionHandler;
+
+		private SegmentReadStream(long position, long end) {
+			this.position = position;
+			this.end = end;
+		}
+
+		@Override
+		public ReadStream<Buffer> exceptionHandler(Handler<Throwable> handler) {
+			this.exceptionHandler = handler;
+			return this;
+		}
+
+		@Override
+		public ReadStream<Buffer> handler(Handler<Buffer> handler) {
+			this.handler = handler;
+			if (handler != null) {
+				schedule();
+			}
+			return this;
+		}
+
+		@Override
+		public ReadStream<Buffer> pause() {
+			demand = 0;
+			return this;
+		}
+
+		@Override
+		public ReadStream<Buffer> resume() {
+			return fetch(Long.MAX_VALUE);
+		}
+
+		@Override
+		public ReadStream<Buffer> fetch(long amount) {
+			if (amount > 0) {
+				demand += amount;
+				if (demand < 0) {
+					demand = Long.MAX_VALUE;
+				}
+				schedule();
+			}
+			return this;
+		}
+
+		@Override
+		public ReadStream<Buffer> endHandler(Handler<Void> endHandler) {
+			this.endHandler = endHandler;
+			return this;
+		}
+
+		private void schedule() {
+			vertx.runOnContext(v -> read());
+		}
+
+		private void read() {
+			if (reading || ended || handler == null || demand <= 0) {
+				return;
+			}
+			if (position >= end) {
+				ended = true;
+				closeFile();
+				if (endHandler != null) {
+					endHandler.handle(null);
+				}
+				return;
+			}
+			final int len = (int) Math.min(CHUNK_SIZE, end - position);
+			final MappedSegments s = segments;
+			if (position < writeLength && s != null) {
+				final Buffer chunk;
+				try {
+					chunk = s.read(position, (int) Math.min(len, writeLength - position));
+				} catch (IllegalStateException e) {
+					fail(e);
+					return;
+				}
+				emit(chunk);
+			} else if (position < writeLength) {
+				reading = true;
+				readFile((int) Math.min(len, writeLength - position), ar -> {
+					reading = false;
+					if (ar.succeeded()) {
+						emit(ar.result());
+					} else {
+						fail(ar.cause());
+					}
+				});
+			} else {
+				emit(readMemory(position, len));
+			}
+		}
+
+		private void readFile(final int len, final Handler<AsyncResult<Buffer>> h) {
+			if (file != null) {
+				file.read(Buffer.buffer(len), 0, position, len, h);
+				return;
+			}
+			final OpenOptions options = new OpenOptions().setRead(true).setWrite(false).setCreate(false);
+			vertx.fileSystem().open(filePath, options, ar -> {
+				if (ar.succeeded()) {
+					file = ar.result();
+					if (ended) {
+						closeFile();
+					} else {
+						file.read(Buffer.buffer(len), 0, position, len, h);
+					}
+				} else {
+					h.handle(new DefaultAsyncResult<Buffer>(ar.cause()));
+				}
+			});
+		}
+
+		private void emit(Buffer chunk) {
+			if (ended) {
+				return;
+			}
+			if (chunk.length() == 0) {
+				fail(new IllegalStateException("Buffer cleared while reading."));
+				return;
+			}
+			position += chunk.length();
+			if (demand != Long.MAX_VALUE) {
+				demand--;
+			}
+			if (handler != null) {
+				handler.handle(chunk);
+			}
+			schedule();
+		}
+
+		private void fail(Throwable t) {
+			ended = true;
+			closeFile();
+			if (exceptionHandler != null) {
+				exceptionHandler.handle(t);
+			} else {
+				log.error("Error reading buffer.", t);
+			}
+		}
+
+		private void closeFile() {
+			if (file != null) {
+				file.close();
+				file = null;
+			}
+		}
+
+	}
+
 }
@@ -0,0 +1,172 @@
+/*
+ * Copyright © WebServices pour l'Éducation, 2014
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fr.wseduc.webutils.http;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.http.HttpServerRequest;
+import io.vertx.core.logging.Logger;
+import io.vertx.core.logging.LoggerFactory;
+import io.vertx.core.shareddata.LocalMap;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Content hashes of the static resources, shared by all the verticles of a Vert.x instance in a local map keyed
+ * by the url path of the resources. The template lambdas append the hash to the urls, and the resources
+ * requested with the current hash can be cached by the browsers forever.
+ */
+public final class AssetManifest {
+
+	private static final Logger log = LoggerFactory.getLogger(AssetManifest.class);
+	public static final String MAP = "assetManifest";
+	private static final String BUILDS = "assetManifestBuilds";
+	public static final String IMMUTABLE = "public, max-age=31536000, immutable";
+	private static final char[] HEX = "0123456789abcdef".toCharArray();
+	private static final int HASH_LENGTH = 16;
+
+	private AssetManifest() {}
+
+	/**
+	 * @param vertx The Vert.x instance
+	 * @return the shared manifest, url path to content hash
+	 */
+	public static LocalMap<String, String> map(Vertx vertx) {
+		return vertx.sharedData().getLocalMap(MAP);
+	}
+
+	/**
+	 * Hash the files of a directory on the worker pool, and add them to the shared manifest. The directory is
+	 * only hashed once per Vert.x instance, the other verticle instances of the module share the result.
+	 * @param vertx The Vert.x instance
+	 * @param directory The directory
+	 * @param urlPrefix The url path of the directory, like <code>/app/public</code>
+	 * @param handler Receive the number of hashed files, 0 if the directory is already hashed
+	 */
+	public static void build(Vertx vertx, String directory, String urlPrefix, Handler<AsyncResult<Integer>> handler) {
+		final LocalMap<String, String> builds = vertx.sharedData().getLocalMap(BUILDS);
+		if (builds.putIfAbsent(urlPrefix, directory) != null) {
+			handler.handle(Future.succeededFuture(0));
+			return;
+		}
+		final LocalMap<String, String> manifest = map(vertx);
+		vertx.<Integer>executeBlocking(future -> {
+			final Path root = Paths.get(directory);
+			if (!Files.isDirectory(root)) {
+				future.complete(0);
+				return;
+			}
+			final List<Path> files;
+			try (Stream<Path> paths = Files.walk(root)) {
+				files = paths.filter(Files::isRegularFile).collect(Collectors.toList());
+			} catch (IOException e) {
+				future.fail(e);
+				return;
+			}
+			for (Path file : files) {
+				final String hash = hash(file);
+				if (hash != null) {
+					manifest.put(urlPrefix + "/" + root.relativize(file).toString().replace(File.separatorChar, '/'),
+							hash);
+				}
+			}
+			future.complete(files.size());
+		}, false, ar -> {
+			if (ar.failed()) {
+				builds.remove(urlPrefix);
+			}
+			handler.handle(ar);
+		});
+	}
+
+	private static String hash(Path file) {
+		try (InputStream in = Files.newInputStream(file)) {
+			final MessageDigest digest = MessageDigest.getInstance("SHA-256");
+			final byte[] buffer = new byte[65536];
+			int read;
+			while ((read = in.read(buffer)) >= 0) {
+				digest.update(buffer, 0, read);
+			}
+			final byte[] d = digest.digest();
+			final char[] hex = new char[HASH_LENGTH];
+			for (int i = 0; i < HASH_LENGTH / 2; i++) {
+				hex[2 * i] = HEX[(d[i] >> 4) & 0xf];
+				hex[2 * i + 1] = HEX[d[i] & 0xf];
+			}
+			return new String(hex);
+		} catch (IOException e) {
+			log.warn("Error hashing static resource " + file, e);
+			return null;
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * @param manifest The manifest, can be null
+	 * @param path The url path of a resource
+	 * @return the path with the content hash of the resource as <code>v</code> parameter, or the path if the
+	 * resource isn't in the manifest
+	 */
+	public static String versioned(Map<String, String> manifest, String path) {
+		if (manifest == null || path.indexOf('?') >= 0) {
+			return path;
+		}
+		final String hash = manifest.get(path);
+		return (hash != null) ? path + "?v=" + hash : path;
+	}
+
+	/**
+	 * @param manifest The manifest, can be null
+	 * @param request A request of a static resource
+	 * @return true if the resource is requested with its current content hash
+	 */
+	public static boolean isVersioned(Map<String, String> manifest, HttpServerRequest request) {
+		if (manifest == null) {
+			return false;
+		}
+		final String v = request.getParam("v");
+		return v != null && v.equals(manifest.get(request.path()));
+	}
+
+	/**
+	 * Let the browsers cache forever a resource requested with its current content hash.
+	 * @param manifest The manifest, can be null
+	 * @param request A request of a static resource
+	 * @return true if the immutable Cache-Control header was set
+	 */
+	public static boolean immutable(Map<String, String> manifest, HttpServerRequest request) {
+		if (isVersioned(manifest, request)) {
+			request.response().putHeader("Cache-Control", IMMUTABLE);
+			return true;
+		}
+		return false;
+	}
+
+}
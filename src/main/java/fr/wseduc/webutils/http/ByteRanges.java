@@ -0,0 +1,384 @@
+/*
+ * Copyright © WebServices pour l'Éducation, 2014
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fr.wseduc.webutils.http;
+
+import io.vertx.core.Context;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.file.AsyncFile;
+import io.vertx.core.file.OpenOptions;
+import io.vertx.core.http.HttpMethod;
+import io.vertx.core.http.HttpServerRequest;
+import io.vertx.core.http.HttpServerResponse;
+import io.vertx.core.logging.Logger;
+import io.vertx.core.logging.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Byte range requests of RFC 7233. A single range of a file is sent with
+ * {@link HttpServerResponse#sendFile(String, long, long)}. Several ranges are sent in a multipart/byteranges
+ * body : as sendFile ends the response, the parts of a file are read with an {@link AsyncFile} and written
+ * with backpressure.
+ */
+public final class ByteRanges {
+
+	private static final Logger log = LoggerFactory.getLogger(ByteRanges.class);
+	/** Requests with more ranges are answered with the whole content */
+	private static final int MAX_RANGES = 16;
+	private static final int CHUNK_SIZE = 65536;
+
+	private ByteRanges() {}
+
+	/**
+	 * Parse a Range header.
+	 * @param range The Range header value, can be null
+	 * @param length The length of the content
+	 * @return the satisfiable ranges as {first, last} pairs, an empty list if none is satisfiable, or null if
+	 * the header must be ignored
+	 */
+	public static List<long[]> parse(String range, long length) {
+		if (range == null || !range.regionMatches(true, 0, "bytes=", 0, 6)) {
+			return null;
+		}
+		final String[] specs = range.substring(6).split(",");
+		if (specs.length > MAX_RANGES) {
+			return null;
+		}
+		final List<long[]> ranges = new ArrayList<>(specs.length);
+		for (String spec : specs) {
+			spec = spec.trim();
+			final int dash = spec.indexOf('-');
+			if (dash < 0) {
+				return null;
+			}
+			final long first;
+			long last;
+			try {
+				if (dash == 0) {
+					final long suffix = Long.parseLong(spec.substring(1));
+					if (suffix <= 0) {
+						continue;
+					}
+					first = Math.max(0, length - suffix);
+					last = length - 1;
+				} else {
+					first = Long.parseLong(spec.substring(0, dash));
+					last = (dash == spec.length() - 1) ? Long.MAX_VALUE : Long.parseLong(spec.substring(dash + 1));
+				}
+			} catch (NumberFormatException e) {
+				return null;
+			}
+			if (first < 0 || last < first) {
+				return null;
+			}
+			if (first < length) {
+				ranges.add(new long[]{first, Math.min(last, length - 1)});
+			}
+		}
+		return ranges;
+	}
+
+	/**
+	 * Evaluate the If-Range header of a request.
+	 * @param request The request
+	 * @param etag The entity tag of the content, without quotes, can be null
+	 * @param lastModified The Last-Modified header of the content, can be null
+	 * @return true if the Range header must be honoured
+	 */
+	public static boolean ifRange(HttpServerRequest request, String etag, String lastModified) {
+		final String ifRange = request.headers().get("If-Range");
+		if (ifRange == null) {
+			return true;
+		}
+		if (ifRange.startsWith("\"") || ifRange.startsWith("W/")) {
+			return etag != null && ifRange.equals("\"" + etag + "\"");
+		}
+		return ifRange.equals(lastModified);
+	}
+
+	/**
+	 * Send the requested ranges of a file, if the request is a satisfiable range request.
+	 * @param request The request
+	 * @param path The path of the file
+	 * @param length The length of the file
+	 * @param contentType The Content-Type of the file, can be null
+	 * @param etag The entity tag of the file, without quotes, can be null
+	 * @param lastModified The Last-Modified header of the file, can be null
+	 * @return false if the request isn't a range request, and the whole file must be sent
+	 */
+	public static boolean send(HttpServerRequest request, String path, long length, String contentType,
+			String etag, String lastModified) {
+		final List<long[]> ranges = ranges(request, length, etag, lastModified);
+		if (ranges == null) {
+			return false;
+		}
+		final HttpServerResponse response = request.response();
+		if (ranges.isEmpty()) {
+			unsatisfiable(response, length);
+		} else if (ranges.size() == 1) {
+			final long[] r = ranges.get(0);
+			response.setStatusCode(206).putHeader("Content-Range", contentRange(r, length));
+			response.sendFile(path, r[0], r[1] - r[0] + 1, ar -> {
+				if (ar.failed() && !response.ended()) {
+					Renders.notFound(request);
+				}
+			});
+		} else {
+			final Context context = Vertx.currentContext();
+			if (context == null) {
+				return false;
+			}
+			context.owner().fileSystem().open(path, new OpenOptions().setRead(true).setWrite(false)
+					.setCreate(false), ar -> {
+				if (ar.failed()) {
+					Renders.notFound(request);
+					return;
+				}
+				final AsyncFile file = ar.result();
+				new Multipart(request, ranges, length, contentType) {
+					@Override
+					void read(long position, int len, Handler<Buffer> handler) {
+						file.read(Buffer.buffer(len), 0, position, len, r -> {
+							if (r.succeeded()) {
+								handler.handle(r.result());
+							} else {
+								log.error("Error reading " + path, r.cause());
+								response.reset();
+								close();
+							}
+						});
+					}
+
+					@Override
+					void release() {
+						file.close();
+					}
+				}.start();
+			});
+		}
+		return true;
+	}
+
+	/**
+	 * Send the requested ranges of a content, if the request is a satisfiable range request.
+	 * @param request The request
+	 * @param content The content
+	 * @param contentType The Content-Type of the content, can be null
+	 * @param etag The entity tag of the content, without quotes, can be null
+	 * @param lastModified The Last-Modified header of the content, can be null
+	 * @return false if the request isn't a range request, and the whole content must be sent
+	 */
+	public static boolean send(HttpServerRequest request, Buffer content, String contentType,
+			String etag, String lastModified) {
+		final List<long[]> ranges = ranges(request, content.length(), etag, lastModified);
+		if (ranges == null) {
+			return false;
+		}
+		final HttpServerResponse response = request.response();
+		if (ranges.isEmpty()) {
+			unsatisfiable(response, content.length());
+		} else if (ranges.size() == 1) {
+			final long[] r = ranges.get(0);
+			response.setStatusCode(206).putHeader("Content-Range", contentRange(r, content.length()));
+			if (contentType != null) {
+				response.putHeader("Content-Type", contentType);
+			}
+			response.end(content.slice((int) r[0], (int) r[1] + 1));
+		} else {
+			new Multipart(request, ranges, content.length(), contentType) {
+				@Override
+				void read(long position, int len, Handler<Buffer> handler) {
+					handler.handle(content.slice((int) position, (int) position + len));
+				}
+
+				@Override
+				void release() {
+				}
+			}.start();
+		}
+		return true;
+	}
+
+	private static List<long[]> ranges(HttpServerRequest request, long length, String etag,
+			String lastModified) {
+		final String range = request.headers().get("Range");
+		if (range == null || (request.method() != HttpMethod.GET && request.method() != HttpMethod.HEAD) ||
+				!ifRange(request, etag, lastModified)) {
+			return null;
+		}
+		final List<long[]> ranges = parse(range, length);
+		if (ranges != null && ranges.size() > 1) {
+			return coalesce(ranges);
+		}
+		return ranges;
+	}
+
+	/**
+	 * Merge the overlapping and adjacent ranges, so a client can't request the same bytes several times.
+	 */
+	private static List<long[]> coalesce(List<long[]> ranges) {
+		final List<long[]> sorted = new ArrayList<>(ranges);
+		Collections.sort(sorted, (a, b) -> Long.compare(a[0], b[0]));
+		final List<long[]> merged = new ArrayList<>(sorted.size());
+		long[] current = sorted.get(0).clone();
+		for (int i = 1; i < sorted.size(); i++) {
+			final long[] r = sorted.get(i);
+			if (r[0] <= current[1] + 1) {
+				current[1] = Math.max(current[1], r[1]);
+			} else {
+				merged.add(current);
+				current = r.clone();
+			}
+		}
+		merged.add(current);
+		return merged;
+	}
+
+	private static void unsatisfiable(HttpServerResponse response, long length) {
+		response.setStatusCode(416).setStatusMessage("Range Not Satisfiable")
+				.putHeader("Content-Range", "bytes */" + length).end();
+	}
+
+	private static String contentRange(long[] range, long length) {
+		return "bytes " + range[0] + "-" + range[1] + "/" + length;
+	}
+
+	/**
+	 * Writes a multipart/byteranges body, reading the next chunk only when the response write queue isn't
+	 * full. The Content-Length is computed up front.
+	 */
+	private abstract static class Multipart {
+
+		private final HttpServerRequest request;
+		private final HttpServerResponse response;
+		private final List<long[]> ranges;
+		private final Buffer[] headers;
+		private final Buffer end;
+		private int index = 0;
+		private long position;
+		private boolean released = false;
+		private boolean writing = false;
+		private boolean more = false;
+
+		private Multipart(HttpServerRequest request, List<long[]> ranges, long length, String contentType) {
+			this.request = request;
+			this.response = request.response();
+			this.ranges = ranges;
+			final String boundary = UUID.randomUUID().toString().replace("-", "");
+			this.headers = new Buffer[ranges.size()];
+			for (int i = 0; i < headers.length; i++) {
+				headers[i] = Buffer.buffer("\r\n--" + boundary + "\r\n" +
+						(contentType != null ? "Content-Type: " + contentType + "\r\n" : "") +
+						"Content-Range: " + contentRange(ranges.get(i), length) + "\r\n\r\n");
+			}
+			this.end = Buffer.buffer("\r\n--" + boundary + "--\r\n");
+			long contentLength = end.length();
+			for (int i = 0; i < headers.length; i++) {
+				contentLength += headers[i].length() + ranges.get(i)[1] - ranges.get(i)[0] + 1;
+			}
+			response.setStatusCode(206)
+					.putHeader("Content-Type", "multipart/byteranges; boundary=" + boundary)
+					.putHeader("Content-Length", String.valueOf(contentLength));
+		}
+
+		abstract void read(long position, int len, Handler<Buffer> handler);
+
+		/**
+		 * Release the resources used to read the content, called once.
+		 */
+		abstract void release();
+
+		final void close() {
+			if (!released) {
+				released = true;
+				release();
+			}
+		}
+
+		final void start() {
+			if (request.method() == HttpMethod.HEAD) {
+				response.end();
+				close();
+				return;
+			}
+			response.closeHandler(v -> close());
+			response.write(headers[0]);
+			position = ranges.get(0)[0];
+			next();
+		}
+
+		/**
+		 * Write the parts until the write queue is full. The reads of an in-memory content complete
+		 * synchronously : their continuation only flags the loop to go on instead of recursing.
+		 */
+		private void next() {
+			if (writing) {
+				more = true;
+				return;
+			}
+			writing = true;
+			try {
+				do {
+					more = false;
+					step();
+				} while (more);
+			} finally {
+				writing = false;
+			}
+		}
+
+		private void step() {
+			if (response.closed()) {
+				return;
+			}
+			long[] range = ranges.get(index);
+			while (position > range[1]) {
+				if (++index == ranges.size()) {
+					response.drainHandler(null);
+					response.end(end);
+					close();
+					return;
+				}
+				response.write(headers[index]);
+				range = ranges.get(index);
+				position = range[0];
+			}
+			final int len = (int) Math.min(CHUNK_SIZE, range[1] - position + 1);
+			read(position, len, chunk -> {
+				if (response.closed()) {
+					return;
+				}
+				response.write(chunk);
+				position += len;
+				if (response.writeQueueFull()) {
+					response.drainHandler(v -> {
+						response.drainHandler(null);
+						next();
+					});
+				} else {
+					next();
+				}
+			});
+		}
+
+	}
+
+}
@@ -0,0 +1,70 @@
+/*
+ * Copyright © WebServices pour l'Éducation, 2014
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package fr.wseduc.webutils.http;
+
+import fr.wseduc.webutils.Controller;
+import io.vertx.core.eventbus.Message;
+import io.vertx.core.http.HttpServerRequest;
+import io.vertx.core.json.JsonObject;
+
+/**
+ * Route table of a controller, generated by the annotation processor and loaded with a
+ * {@link java.util.ServiceLoader}. It replaces the routes json file and the reflective binding of the
+ * controller methods.
+ */
+public interface CompiledRoutes {
+
+	/**
+	 * @return the qualified name of the controller class
+	 */
+	String controller();
+
+	/**
+	 * Register all the routes of the controller, in the order of the routes json file.
+	 * @param controller The controller instance
+	 * @param registry Receive the routes
+	 */
+	void register(Controller controller, Registry registry);
+
+	interface Registry {
+
+		/**
+		 * @param httpMethod GET, POST, PUT or DELETE
+		 * @param path The pattern or the regex of the route
+		 * @param regex True if the path is a regex
+		 * @param method The controller method name
+		 * @param action Direct call to the controller method, null if it must be bound by name
+		 */
+		void route(String httpMethod, String path, boolean regex, String method, Action<HttpServerRequest> action);
+
+		/**
+		 * @param address The event bus address
+		 * @param method The controller method name
+		 * @param local True to register a local consumer
+		 * @param action Direct call to the controller method, null if it must be bound by name
+		 */
+		void bus(String address, String method, boolean local, Action<Message<JsonObject>> action);
+
+	}
+
+	interface Action<T> {
+
+		void handle(T event) throws Throwable;
+
+	}
+
+}
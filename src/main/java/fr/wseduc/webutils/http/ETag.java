@@ -33,4 +33,33 @@ public class ETag {
 		return false;
 	}
 
+	/**
+	 * Weak comparison of an If-None-Match header with an entity tag : the quotes, the weak indicator and the
+	 * content coding suffix are ignored.
+	 * @param ifNoneMatch The If-None-Match header value, can be null
+	 * @param tag The entity tag, without quotes
+	 * @return true if the header is * or lists the tag
+	 */
+	public static boolean matches(String ifNoneMatch, String tag) {
+		if (ifNoneMatch == null) {
+			return false;
+		}
+		for (String t : ifNoneMatch.split(",")) {
+			t = t.trim();
+			if ("*".equals(t)) {
+				return true;
+			}
+			if (t.startsWith("W/")) {
+				t = t.substring(2);
+			}
+			if (t.length() >= 2 && t.charAt(0) == '"' && t.charAt(t.length() - 1) == '"') {
+				t = t.substring(1, t.length() - 1);
+			}
+			if (t.startsWith(tag) && (t.length() == tag.length() || t.charAt(tag.length()) == '-')) {
+				return true;
+			}
+		}
+		return false;
+	}
+
 }
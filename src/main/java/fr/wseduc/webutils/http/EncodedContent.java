@@ -0,0 +1,172 @@
+/*
+ * Copyright © WebServices pour l'Éducation, 2014
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fr.wseduc.webutils.http;
+
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.http.HttpServerRequest;
+import io.vertx.core.http.HttpServerResponse;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Immutable response body encoded once, with its gzip and deflate variants and a strong ETag computed from
+ * the content. The variant is negotiated with the Accept-Encoding header of each request.
+ */
+public final class EncodedContent {
+
+	private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+	private final String contentType;
+	private final String hash;
+	private final Buffer identity;
+	private final Buffer gzip;
+	private final Buffer deflate;
+
+	private EncodedContent(String contentType, String hash, Buffer identity, Buffer gzip, Buffer deflate) {
+		this.contentType = contentType;
+		this.hash = hash;
+		this.identity = identity;
+		this.gzip = gzip;
+		this.deflate = deflate;
+	}
+
+	/**
+	 * Encode a content. The compressed variants are only kept if they are smaller than the content.
+	 * @param content The content
+	 * @param contentType The Content-Type header of the response
+	 * @return the encoded content
+	 */
+	public static EncodedContent of(byte[] content, String contentType) {
+		final byte[] gzip = compress(content, true);
+		final byte[] deflate = compress(content, false);
+		return new EncodedContent(contentType, hash(content), Buffer.buffer(content),
+				(gzip.length < content.length) ? Buffer.buffer(gzip) : null,
+				(deflate.length < content.length) ? Buffer.buffer(deflate) : null);
+	}
+
+	private static byte[] compress(byte[] content, boolean gzip) {
+		final ByteArrayOutputStream bytes = new ByteArrayOutputStream(content.length / 4 + 64);
+		try (OutputStream out = gzip ? new GZIPOutputStream(bytes) : new DeflaterOutputStream(bytes)) {
+			out.write(content);
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+		return bytes.toByteArray();
+	}
+
+	private static String hash(byte[] content) {
+		try {
+			final byte[] digest = MessageDigest.getInstance("SHA-256").digest(content);
+			final char[] hex = new char[32];
+			for (int i = 0; i < 16; i++) {
+				hex[2 * i] = HEX[(digest[i] >> 4) & 0xf];
+				hex[2 * i + 1] = HEX[digest[i] & 0xf];
+			}
+			return new String(hex);
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * @return the hash of the content, also used in the ETag
+	 */
+	public String getHash() {
+		return hash;
+	}
+
+	public Buffer getContent() {
+		return identity;
+	}
+
+	/**
+	 * Send the content, or a 304 if the If-None-Match header matches the ETag. The caching headers must
+	 * be set by the caller.
+	 * @param request The request
+	 */
+	public void send(HttpServerRequest request) {
+		final HttpServerResponse response = request.response();
+		final String acceptEncoding = request.headers().get("Accept-Encoding");
+		Buffer body = identity;
+		String encoding = null;
+		if (gzip != null && accepts(acceptEncoding, "gzip")) {
+			body = gzip;
+			encoding = "gzip";
+		} else if (deflate != null && accepts(acceptEncoding, "deflate")) {
+			body = deflate;
+			encoding = "deflate";
+		}
+		final String etag = (encoding == null) ? "\"" + hash + "\"" : "\"" + hash + "-" + encoding + "\"";
+		if (gzip != null || deflate != null) {
+			response.putHeader("Vary", "Accept-Encoding");
+		}
+		response.putHeader("ETag", etag);
+		if (ETag.matches(request.headers().get("If-None-Match"), hash)) {
+			response.setStatusCode(304).setStatusMessage("Not Modified").end();
+			return;
+		}
+		response.putHeader("Content-Type", contentType);
+		if (encoding != null) {
+			response.putHeader("Content-Encoding", encoding);
+		}
+		response.end(body);
+	}
+
+	/**
+	 * Content coding negotiation of RFC 7231 section 5.3.4 : an explicit entry of the coding takes precedence
+	 * over the * wildcard, so that "gzip;q=0, *" refuses gzip.
+	 * @param acceptEncoding The Accept-Encoding header value
+	 * @param coding The content coding
+	 * @return true if the coding, or else the wildcard, is listed with a non zero quality
+	 */
+	static boolean accepts(String acceptEncoding, String coding) {
+		if (acceptEncoding == null) {
+			return false;
+		}
+		double wildcard = -1;
+		for (String part : acceptEncoding.split(",")) {
+			final String[] params = part.split(";");
+			final String name = params[0].trim();
+			if (name.equalsIgnoreCase(coding)) {
+				return quality(params) > 0;
+			} else if ("*".equals(name) && wildcard < 0) {
+				wildcard = quality(params);
+			}
+		}
+		return wildcard > 0;
+	}
+
+	private static double quality(String[] params) {
+		for (int i = 1; i < params.length; i++) {
+			final String param = params[i].trim();
+			if (param.length() > 1 && (param.charAt(0) == 'q' || param.charAt(0) == 'Q') && param.charAt(1) == '=') {
+				try {
+					return Double.parseDouble(param.substring(2).trim());
+				} catch (NumberFormatException e) {
+					return 0;
+				}
+			}
+		}
+		return 1;
+	}
+
+}
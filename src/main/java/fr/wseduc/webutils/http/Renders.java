@@ -20,7 +20,13 @@ import java.io.*;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+
+import com.samskivert.mustache.Mustache;
 
 import fr.wseduc.webutils.template.TemplateProcessor;
 import fr.wseduc.webutils.template.lambdas.FormatBirthDateLambda;
@@ -30,6 +36,7 @@ import fr.wseduc.webutils.template.lambdas.StaticLambda;
 import io.vertx.core.Handler;
 import io.vertx.core.Vertx;
 import io.vertx.core.http.HttpServerRequest;
+import io.vertx.core.http.HttpVersion;
 import io.vertx.core.json.JsonArray;
 import io.vertx.core.json.JsonObject;
 import io.vertx.core.logging.Logger;
@@ -51,6 +58,31 @@ public class Renders {
 	protected String staticHost;
 	protected TemplateProcessor templateProcessor;
 	protected static final List<String> allowedHosts = new ArrayList<>();
+	private static final int TEMPLATE_LAMBDAS_CACHE_SIZE = 256;
+	/** Classes which still customize the lambdas by overriding {@link #setLambdaTemplateRequest} */
+	private static final ClassValue<Boolean> legacyLambdas = new ClassValue<Boolean>() {
+		@Override
+		protected Boolean computeValue(Class<?> type) {
+			for (Class<?> c = type; c != Renders.class && c != null; c = c.getSuperclass()) {
+				try {
+					c.getDeclaredMethod("setLambdaTemplateRequest", HttpServerRequest.class);
+					log.warn(c.getName() + " overrides the deprecated setLambdaTemplateRequest, " +
+							"its renders use the lambdas shared by the template processor.");
+					return true;
+				} catch (NoSuchMethodException e) {
+					// not overridden in this class
+				}
+			}
+			return false;
+		}
+	};
+	private final Map<String, Map<String, Mustache.Lambda>> templateLambdas = Collections.synchronizedMap(
+			new LinkedHashMap<String, Map<String, Mustache.Lambda>>(16, 0.75f, true) {
+				@Override
+				protected boolean removeEldestEntry(Map.Entry<String, Map<String, Mustache.Lambda>> eldest) {
+					return size() > TEMPLATE_LAMBDAS_CACHE_SIZE;
+				}
+			});
 
 	public Renders(Vertx vertx, JsonObject config) {
 		this.config = config;
@@ -59,8 +91,7 @@ public class Renders {
 		}
 		this.vertx = vertx;
 		if (vertx != null) {
-			this.templateProcessor = new TemplateProcessor(vertx, "view/", false);
-			this.templateProcessor.setLambda("formatBirthDate", new FormatBirthDateLambda());
+			initTemplateProcessor();
 		}
 	}
 
@@ -76,23 +107,82 @@ public class Renders {
 		this.staticHost = (String) server.get("static-host");
 
 		if (templateProcessor == null && vertx != null) {
-			this.templateProcessor = new TemplateProcessor(vertx, "view/", false);
-			this.templateProcessor.setLambda("formatBirthDate", new FormatBirthDateLambda());
+			initTemplateProcessor();
+		} else if (templateProcessor != null) {
+			precompileTemplates();
+		}
+	}
+
+	private void initTemplateProcessor() {
+		this.templateProcessor = new TemplateProcessor(vertx, "view/", false);
+		this.templateProcessor.setLambda("formatBirthDate", new FormatBirthDateLambda());
+		precompileTemplates();
+	}
+
+	/*
+	 * The templates of the folder are compiled once for all the renders of the verticles. Outside of dev mode they
+	 * are only polled for modifications if template-watch-interval is set.
+	 */
+	private void precompileTemplates() {
+		if (config != null && !"dev".equals(config.getString("mode"))) {
+			this.templateProcessor.precompile(config.getLong("template-watch-interval", 0L));
 		}
 	}
 
+	/**
+	 * @deprecated Mutates the shared template processor, so concurrent renders can use the lambdas of another
+	 * request. Override {@link #templateLambdas(HttpServerRequest)} to customize the lambdas of a render. While a
+	 * subclass overrides this method, it is still called before each of its renders.
+	 */
+	@Deprecated
 	protected void setLambdaTemplateRequest(final HttpServerRequest request)
+	{
+		for (Map.Entry<String, Mustache.Lambda> lambda : templateLambdas(request).entrySet()) {
+			this.templateProcessor.setLambda(lambda.getKey(), lambda.getValue());
+		}
+	}
+
+	/**
+	 * Lambdas of the templates rendered for a request. The lambdas are immutable and shared by the requests with
+	 * the same host, language and theme.
+	 * @param request The request
+	 * @return an unmodifiable map of the lambdas, added to the shared lambdas of the template processor
+	 */
+	protected Map<String, Mustache.Lambda> templateLambdas(final HttpServerRequest request)
 	{
 		String host = Renders.getHost(request);
 		if(host == null) // This can happen for forged requests
 			host = "";
-		String sttcHost = this.staticHost != null ? this.staticHost : host;
-		this.templateProcessor.setLambda("i18n",
-			new I18nLambda(I18n.acceptLanguage(request), host, I18n.getTheme(request)));
-		this.templateProcessor.setLambda("static",
-			new StaticLambda(config.getBoolean("ssl", sttcHost.startsWith("https")), sttcHost, this.pathPrefix + "/public"));
-		this.templateProcessor.setLambda("infra",
-			new InfraLambda(config.getBoolean("ssl", sttcHost.startsWith("https")), sttcHost, "/infra/public", request.headers().get("X-Forwarded-For") == null));
+		final String sttcHost = this.staticHost != null ? this.staticHost : host;
+		final boolean ssl = config.getBoolean("ssl", sttcHost.startsWith("https"));
+		final String language = I18n.acceptLanguage(request);
+		final String theme = I18n.getTheme(request);
+		final boolean defaultPort = request.headers().get("X-Forwarded-For") == null;
+		final String key = ssl + "\n" + defaultPort + "\n" + sttcHost + "\n" + host + "\n" + language + "\n" + theme;
+		Map<String, Mustache.Lambda> lambdas = templateLambdas.get(key);
+		if (lambdas == null) {
+			final Map<String, Mustache.Lambda> l = new HashMap<>();
+			final Map<String, String> manifest = (vertx != null) ? AssetManifest.map(vertx) : null;
+			l.put("i18n", new I18nLambda(language, host, theme));
+			l.put("static", new StaticLambda(ssl, sttcHost, this.pathPrefix + "/public", manifest));
+			l.put("infra", new InfraLambda(ssl, sttcHost, "/infra/public", defaultPort, manifest));
+			lambdas = Collections.unmodifiableMap(l);
+			templateLambdas.put(key, lambdas);
+		}
+		return lambdas;
+	}
+
+	/**
+	 * Lambdas of a render. The subclasses which override the deprecated {@link #setLambdaTemplateRequest} keep
+	 * their former behaviour : it is called before each render, and the render uses the lambdas it set in the
+	 * template processor.
+	 */
+	private Map<String, Mustache.Lambda> renderLambdas(final HttpServerRequest request) {
+		if (legacyLambdas.get(getClass())) {
+			setLambdaTemplateRequest(request);
+			return null;
+		}
+		return templateLambdas(request);
 	}
 
 	public void renderView(HttpServerRequest request) {
@@ -113,6 +203,11 @@ public class Renders {
 
 	public void renderView(final HttpServerRequest request, JsonObject params,
 			String resourceName, Reader r, final int status) {
+		if (config != null && config.getBoolean("template-streaming", false) &&
+				request.version() != HttpVersion.HTTP_1_0) {
+			streamView(request, params, resourceName, r, status);
+			return;
+		}
 		processTemplate(request, params, resourceName, r, new Handler<Writer>() {
 			@Override
 			public void handle(final Writer writer) {
@@ -136,6 +231,39 @@ public class Renders {
 		});
 	}
 
+	/*
+	 * Render the template directly to the response, in UTF-8 chunks. The hooks are executed before the rendering
+	 * because the headers are sent with the first chunk.
+	 */
+	private void streamView(final HttpServerRequest request, final JsonObject params,
+			final String resourceName, final Reader r, final int status) {
+		final Handler<Void> render = new Handler<Void>() {
+			@Override
+			public void handle(Void v) {
+				request.response().putHeader("content-type", "text/html; charset=utf-8");
+				request.response().setStatusCode(status);
+				final ResponseWriter writer = new ResponseWriter(request.response());
+				templateProcessor.processTemplate(genTemplateName(resourceName, request), params, r, true,
+						renderLambdas(request), writer, ar -> {
+							if (ar.failed()) {
+								if (writer.isCommitted()) {
+									log.error("Error streaming view.", ar.cause());
+									request.response().close();
+								} else {
+									log.error(ar.cause().getMessage(), ar.cause());
+									renderError(request);
+								}
+							}
+						});
+			}
+		};
+		if (hookRenderProcess != null) {
+			executeHandlersHookRender(request, render);
+		} else {
+			render.handle(null);
+		}
+	}
+
 	@SuppressWarnings("unchecked")
 	private void executeHandlersHookRender(final HttpServerRequest request, Handler<Void> endHandler) {
 		final Handler<Void>[] handlers = new Handler[hookRenderProcess.size() + 1];
@@ -154,20 +282,20 @@ public class Renders {
 
 	public void processTemplate(HttpServerRequest request, String template, JsonObject params, final Handler<String> handler)
 	{
-		this.setLambdaTemplateRequest(request);
-		this.templateProcessor.escapeHTML(true).processTemplate(this.genTemplateName(template, request), params, handler);
+		this.templateProcessor.processTemplate(this.genTemplateName(template, request), params, true,
+				renderLambdas(request), handler);
 	}
 
 	public void processTemplate(final HttpServerRequest request, JsonObject p, String resourceName, Reader r, final Handler<Writer> handler)
 	{
-		this.setLambdaTemplateRequest(request);
-		this.templateProcessor.escapeHTML(true).processTemplate(this.genTemplateName(resourceName, request), p, r, handler);
+		this.templateProcessor.processTemplate(this.genTemplateName(resourceName, request), p, r, true,
+				renderLambdas(request), handler);
 	}
 
 	public void processTemplate(final HttpServerRequest request, JsonObject p, String resourceName, boolean escapeHTML, final Handler<String> handler)
 	{
-		this.setLambdaTemplateRequest(request);
-		this.templateProcessor.escapeHTML(escapeHTML).processTemplate(this.genTemplateName(resourceName, request), p, handler);
+		this.templateProcessor.processTemplate(this.genTemplateName(resourceName, request), p, escapeHTML,
+				renderLambdas(request), handler);
 	}
 
 	private String genTemplateName(final String resourceName, final HttpServerRequest request)
@@ -256,6 +384,18 @@ public class Renders {
 				new JsonObject().put("error", message).encode());
 	}
 
+	public static void payloadTooLarge(HttpServerRequest request) {
+		request.response().setStatusCode(413).setStatusMessage("Payload Too Large").end();
+	}
+
+	public static void payloadTooLarge(HttpServerRequest request, String message) {
+		request.response().putHeader("content-type", "application/json");
+		request.response().putHeader("Cache-Control", "no-cache, must-revalidate");
+		request.response().putHeader("Expires", "-1");
+		request.response().setStatusCode(413).setStatusMessage("Payload Too Large").end(
+				new JsonObject().put("error", message).encode());
+	}
+
 	public static void notModified(HttpServerRequest request) {
 		notModified(request, null);
 	}
@@ -0,0 +1,327 @@
+/*
+ * Copyright © WebServices pour l'Éducation, 2014
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fr.wseduc.webutils.http;
+
+import io.netty.buffer.Unpooled;
+import io.vertx.core.Context;
+import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.http.HttpServerResponse;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Writer sending the text to an HTTP response in UTF-8 encoded chunks of a fixed size.<p>
+ * The writer is used from a worker thread : the chunks are queued and written by the context of the response,
+ * which waits for the drain of the response when its write queue is full. The queued bytes are bounded, the writing
+ * thread waiting for the drain of the response when the client reads too slowly, and the response is closed when
+ * it isn't drained before a timeout. An event loop thread is never blocked, the chunks written from it are only
+ * queued. A text shorter than one chunk is sent with a Content-Length instead of a chunked response.
+ */
+public class ResponseWriter extends Writer {
+
+	public static final int DEFAULT_CHUNK_SIZE = 8192;
+	public static final long DEFAULT_DRAIN_TIMEOUT = 30000L;
+	public static final long DEFAULT_MAX_PENDING = 4194304L;
+
+	private final HttpServerResponse response;
+	private final Context context;
+	private final CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder()
+			.onMalformedInput(CodingErrorAction.REPLACE)
+			.onUnmappableCharacter(CodingErrorAction.REPLACE);
+	private final CharBuffer chars;
+	private final int maxBytes;
+	private final long maxPending;
+	private final long drainTimeout;
+	private boolean committed = false;
+	private boolean closed = false;
+
+	// shared by the writing thread and the context of the response
+	private final Queue<Buffer> pending = new ConcurrentLinkedQueue<>();
+	private final AtomicLong pendingBytes = new AtomicLong();
+	private final AtomicBoolean scheduled = new AtomicBoolean(false);
+	private final Object backlog = new Object();
+	private volatile Buffer last;
+	private volatile IOException failure;
+
+	// only used by the context of the response
+	private boolean chunked = false;
+	private boolean ended = false;
+	private long drainTimer = -1;
+
+	/**
+	 * Must be created on the context of the response.
+	 */
+	public ResponseWriter(HttpServerResponse response) {
+		this(response, DEFAULT_CHUNK_SIZE, DEFAULT_DRAIN_TIMEOUT);
+	}
+
+	/**
+	 * Must be created on the context of the response.
+	 * @param response The response
+	 * @param chunkSize Number of chars encoded in a chunk
+	 * @param drainTimeout Maximum time to wait for the drain of the response in milliseconds
+	 */
+	public ResponseWriter(HttpServerResponse response, int chunkSize, long drainTimeout) {
+		this(response, Vertx.currentContext(), chunkSize, DEFAULT_MAX_PENDING, drainTimeout);
+	}
+
+	/**
+	 * @param response The response
+	 * @param context The context of the response, writing the chunks
+	 * @param chunkSize Number of chars encoded in a chunk
+	 * @param maxPending Number of bytes waiting for the drain of the response above which the writing thread waits
+	 * @param drainTimeout Maximum time to wait for the drain of the response in milliseconds
+	 */
+	public ResponseWriter(HttpServerResponse response, Context context, int chunkSize, long maxPending,
+			long drainTimeout) {
+		if (context == null) {
+			throw new IllegalStateException("A response writer must be used with the context of the response.");
+		}
+		this.response = response;
+		this.context = context;
+		this.chars = CharBuffer.allocate(chunkSize);
+		this.maxBytes = (int) Math.ceil(chunkSize * (double) encoder.maxBytesPerChar());
+		this.maxPending = maxPending;
+		this.drainTimeout = drainTimeout;
+	}
+
+	/**
+	 * @return true if a chunk has already been sent, so the status and headers can't be changed anymore
+	 */
+	public boolean isCommitted() {
+		return committed;
+	}
+
+	@Override
+	public void write(char[] cbuf, int off, int len) throws IOException {
+		ensureOpen();
+		while (len > 0) {
+			final int n = Math.min(chars.remaining(), len);
+			chars.put(cbuf, off, n);
+			off += n;
+			len -= n;
+			if (!chars.hasRemaining()) {
+				send(encode(false));
+			}
+		}
+	}
+
+	@Override
+	public void write(String str, int off, int len) throws IOException {
+		ensureOpen();
+		while (len > 0) {
+			final int n = Math.min(chars.remaining(), len);
+			chars.put(str, off, off + n);
+			off += n;
+			len -= n;
+			if (!chars.hasRemaining()) {
+				send(encode(false));
+			}
+		}
+	}
+
+	@Override
+	public void write(int c) throws IOException {
+		ensureOpen();
+		chars.put((char) c);
+		if (!chars.hasRemaining()) {
+			send(encode(false));
+		}
+	}
+
+	@Override
+	public void flush() throws IOException {
+		ensureOpen();
+		if (chars.position() > 0) {
+			send(encode(false));
+		}
+	}
+
+	/**
+	 * Send the remaining text and end the response, once the queued chunks are written.
+	 */
+	@Override
+	public void close() throws IOException {
+		if (closed) {
+			return;
+		}
+		final Buffer end = encode(true);
+		closed = true;
+		checkFailure();
+		last = end;
+		schedule();
+	}
+
+	private Buffer encode(boolean endOfInput) throws IOException {
+		chars.flip();
+		final ByteBuffer bytes = ByteBuffer.allocate(maxBytes + (endOfInput ? 4 : 0));
+		CoderResult result = encoder.encode(chars, bytes, endOfInput);
+		if (endOfInput && !result.isError()) {
+			result = encoder.flush(bytes);
+			encoder.reset();
+		}
+		if (result.isError()) {
+			result.throwException();
+		}
+		// an incomplete surrogate pair stays in the buffer until the next chunk
+		chars.compact();
+		return Buffer.buffer(Unpooled.wrappedBuffer(bytes.array(), 0, bytes.position()));
+	}
+
+	private void send(Buffer buffer) throws IOException {
+		checkFailure();
+		if (buffer.length() == 0) {
+			return;
+		}
+		committed = true;
+		pendingBytes.addAndGet(buffer.length());
+		pending.add(buffer);
+		schedule();
+		if (pendingBytes.get() > maxPending && mayBlock()) {
+			awaitBacklog();
+		}
+	}
+
+	/**
+	 * Wait until the queued bytes are back under the limit, or the response failed (closed or drain timeout).
+	 */
+	private void awaitBacklog() throws IOException {
+		synchronized (backlog) {
+			while (pendingBytes.get() > maxPending && failure == null) {
+				try {
+					backlog.wait();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new InterruptedIOException("Interrupted while waiting for the drain of the response");
+				}
+			}
+		}
+		checkFailure();
+	}
+
+	/**
+	 * @return false on an event loop, or on the worker thread running the tasks of the context of the response,
+	 * which would wait for itself
+	 */
+	private boolean mayBlock() {
+		return !Context.isOnEventLoopThread() &&
+				(context.isEventLoopContext() || Vertx.currentContext() != context);
+	}
+
+	private void released() {
+		synchronized (backlog) {
+			backlog.notifyAll();
+		}
+	}
+
+	private void schedule() {
+		if (scheduled.compareAndSet(false, true)) {
+			context.runOnContext(v -> {
+				scheduled.set(false);
+				drain();
+			});
+		}
+	}
+
+	/**
+	 * Write the queued chunks while the write queue of the response isn't full, on the context of the response.
+	 */
+	private void drain() {
+		if (ended || failure != null) {
+			return;
+		}
+		if (response.closed()) {
+			fail(new IOException("Response closed"));
+			return;
+		}
+		// read before the queue : all the chunks are queued when the last buffer is set
+		final Buffer end = last;
+		Buffer chunk;
+		while (!response.writeQueueFull() && (chunk = pending.poll()) != null) {
+			if (!chunked) {
+				response.setChunked(true);
+				chunked = true;
+			}
+			response.write(chunk);
+			pendingBytes.addAndGet(-chunk.length());
+		}
+		released();
+		if (pending.isEmpty()) {
+			cancelDrainTimer();
+			if (end != null) {
+				ended = true;
+				response.end(end);
+			}
+			return;
+		}
+		response.drainHandler(v -> {
+			response.drainHandler(null);
+			cancelDrainTimer();
+			drain();
+		});
+		if (drainTimer < 0) {
+			drainTimer = context.owner().setTimer(drainTimeout, id -> {
+				drainTimer = -1;
+				response.drainHandler(null);
+				fail(new IOException("Response drain timeout"));
+				response.close();
+			});
+		}
+	}
+
+	private void cancelDrainTimer() {
+		if (drainTimer >= 0) {
+			context.owner().cancelTimer(drainTimer);
+			drainTimer = -1;
+		}
+	}
+
+	private void fail(IOException e) {
+		if (failure == null) {
+			failure = e;
+		}
+		pending.clear();
+		pendingBytes.set(0);
+		released();
+	}
+
+	private void checkFailure() throws IOException {
+		final IOException e = failure;
+		if (e != null) {
+			throw new IOException(e.getMessage(), e);
+		}
+	}
+
+	private void ensureOpen() throws IOException {
+		if (closed) {
+			throw new IOException("Writer closed");
+		}
+	}
+
+}
@@ -0,0 +1,291 @@
+/*
+ * Copyright © WebServices pour l'Éducation, 2014
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fr.wseduc.webutils.http;
+
+import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.http.HttpServerRequest;
+import io.vertx.core.http.HttpServerResponse;
+import io.vertx.core.http.impl.MimeMapping;
+import io.vertx.core.logging.Logger;
+import io.vertx.core.logging.LoggerFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Static resources engine. Small files are kept in a LRU cache bounded in bytes, with their gzip and brotli
+ * variants : a <code>.gz</code> or <code>.br</code> sibling file is used when it exists and is not older than
+ * the file, otherwise the gzip variant of a compressible file is computed on the first hit. The variant is
+ * negotiated with the Accept-Encoding header of each request. Larger files are sent with
+ * {@link HttpServerResponse#sendFile(String)}.<p>
+ * Like the Last-Modified cache it replaces, the cache is never revalidated against the file system, the
+ * resources are supposed to be immutable outside of dev mode.
+ */
+public class StaticAssets {
+
+	private static final Logger log = LoggerFactory.getLogger(StaticAssets.class);
+	/** Accounted size of the entries of the files which are not kept in memory */
+	private static final int ENTRY_OVERHEAD = 256;
+	private static final int MIN_COMPRESS_SIZE = 256;
+
+	private final Vertx vertx;
+	private final long maxFileSize;
+	private final long maxSize;
+	private final LinkedHashMap<String, Asset> assets = new LinkedHashMap<>(64, 0.75f, true);
+	private long size = 0;
+	private long hits = 0;
+	private long misses = 0;
+
+	/**
+	 * @param vertx The Vert.x instance, used to read and compress the files on the worker pool
+	 * @param maxFileSize The maximum size in bytes of a file kept in memory
+	 * @param maxSize The maximum size in bytes of the cache
+	 */
+	public StaticAssets(Vertx vertx, long maxFileSize, long maxSize) {
+		this.vertx = vertx;
+		this.maxFileSize = maxFileSize;
+		this.maxSize = maxSize;
+	}
+
+	/**
+	 * Send a static resource, or a 304 if the If-None-Match or If-Modified-Since header matches it.
+	 * @param request The request
+	 * @param path The absolute path of the file
+	 */
+	public void serve(HttpServerRequest request, String path) {
+		final Asset asset = get(path);
+		if (asset != null) {
+			send(request, asset);
+			return;
+		}
+		vertx.<Asset>executeBlocking(future -> {
+			try {
+				future.complete(load(path));
+			} catch (IOException e) {
+				future.fail(e);
+			}
+		}, false, ar -> {
+			if (ar.succeeded() && ar.result() != null) {
+				put(ar.result());
+				send(request, ar.result());
+			} else {
+				if (ar.failed()) {
+					log.error("Error loading static resource " + path, ar.cause());
+				}
+				if (!request.response().ended()) {
+					Renders.notFound(request);
+				}
+			}
+		});
+	}
+
+	private synchronized Asset get(String path) {
+		final Asset asset = assets.get(path);
+		if (asset != null) {
+			hits++;
+		} else {
+			misses++;
+		}
+		return asset;
+	}
+
+	private synchronized void put(Asset asset) {
+		final long weight = asset.weight();
+		if (weight > maxSize) {
+			return;
+		}
+		final Asset old = assets.put(asset.path, asset);
+		if (old != null) {
+			size -= old.weight();
+		}
+		size += weight;
+		for (Iterator<Asset> it = assets.values().iterator(); size > maxSize && it.hasNext(); ) {
+			size -= it.next().weight();
+			it.remove();
+		}
+	}
+
+	public synchronized void clear() {
+		assets.clear();
+		size = 0;
+	}
+
+	public synchronized long getCacheHits() {
+		return hits;
+	}
+
+	public synchronized long getCacheMisses() {
+		return misses;
+	}
+
+	/**
+	 * @return the accounted size in bytes of the cached resources
+	 */
+	public synchronized long getSize() {
+		return size;
+	}
+
+	private Asset load(String path) throws IOException {
+		final Path file = Paths.get(path);
+		final BasicFileAttributes attrs;
+		try {
+			attrs = Files.readAttributes(file, BasicFileAttributes.class);
+		} catch (IOException e) {
+			return null;
+		}
+		if (!attrs.isRegularFile()) {
+			return null;
+		}
+		final long lastModified = attrs.lastModifiedTime().toMillis();
+		final String contentType = contentType(path);
+		if (attrs.size() > maxFileSize) {
+			return new Asset(path, contentType, attrs.size(), lastModified, null, null, null);
+		}
+		final byte[] content = Files.readAllBytes(file);
+		byte[] gzip = sibling(file, ".gz", lastModified);
+		final byte[] br = sibling(file, ".br", lastModified);
+		if (gzip == null && content.length >= MIN_COMPRESS_SIZE && compressible(contentType)) {
+			gzip = gzip(content);
+		}
+		return new Asset(path, contentType, content.length, lastModified, Buffer.buffer(content),
+				(gzip != null && gzip.length < content.length) ? Buffer.buffer(gzip) : null,
+				(br != null && br.length < content.length) ? Buffer.buffer(br) : null);
+	}
+
+	private byte[] sibling(Path file, String extension, long lastModified) throws IOException {
+		final Path sibling = file.resolveSibling(file.getFileName() + extension);
+		try {
+			final BasicFileAttributes attrs = Files.readAttributes(sibling, BasicFileAttributes.class);
+			if (!attrs.isRegularFile() || attrs.size() > maxFileSize ||
+					attrs.lastModifiedTime().toMillis() < lastModified) {
+				return null;
+			}
+		} catch (IOException e) {
+			return null;
+		}
+		return Files.readAllBytes(sibling);
+	}
+
+	private static byte[] gzip(byte[] content) {
+		final ByteArrayOutputStream bytes = new ByteArrayOutputStream(content.length / 4 + 64);
+		try (OutputStream out = new GZIPOutputStream(bytes)) {
+			out.write(content);
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+		return bytes.toByteArray();
+	}
+
+	static String contentType(String path) {
+		final String contentType = MimeMapping.getMimeTypeForFilename(path);
+		if (contentType == null) {
+			return null;
+		}
+		return contentType.startsWith("text") ? contentType + ";charset=UTF-8" : contentType;
+	}
+
+	static boolean compressible(String contentType) {
+		return contentType != null && (contentType.startsWith("text/") ||
+				contentType.startsWith("application/javascript") || contentType.startsWith("application/json") ||
+				contentType.startsWith("application/xml") || contentType.startsWith("image/svg+xml") ||
+				contentType.startsWith("application/x-font-ttf") || contentType.startsWith("font/ttf") ||
+				contentType.startsWith("application/vnd.ms-fontobject"));
+	}
+
+	private void send(HttpServerRequest request, Asset asset) {
+		if (asset.content == null) {
+			StaticResource.serveRessource(request, asset.path, asset.lastModified, asset.etag, asset.size, false);
+			return;
+		}
+		final HttpServerResponse response = request.response();
+		// ranges are only served from the identity content
+		final boolean range = request.headers().contains("Range");
+		final String acceptEncoding = range ? null : request.headers().get("Accept-Encoding");
+		Buffer body = asset.content;
+		String encoding = null;
+		if (asset.br != null && EncodedContent.accepts(acceptEncoding, "br")) {
+			body = asset.br;
+			encoding = "br";
+		} else if (asset.gzip != null && EncodedContent.accepts(acceptEncoding, "gzip")) {
+			body = asset.gzip;
+			encoding = "gzip";
+		}
+		StaticResource.addLastModifiedHeader(response, asset.lastModified);
+		response.putHeader("ETag", (encoding == null) ?
+				"\"" + asset.etag + "\"" : "\"" + asset.etag + "-" + encoding + "\"");
+		response.putHeader("Accept-Ranges", "bytes");
+		if (asset.gzip != null || asset.br != null) {
+			response.putHeader("Vary", "Accept-Encoding");
+		}
+		if (StaticResource.checkNotModified(request, asset.lastModified, asset.etag)) {
+			response.setStatusCode(304).end();
+			return;
+		}
+		if (range && ByteRanges.send(request, asset.content, asset.contentType, asset.etag, asset.lastModified)) {
+			return;
+		}
+		if (encoding != null) {
+			response.putHeader("Content-Encoding", encoding);
+		}
+		if (asset.contentType != null) {
+			response.putHeader("Content-Type", asset.contentType);
+		}
+		response.end(body);
+	}
+
+	private static final class Asset {
+
+		private final String path;
+		private final String contentType;
+		private final String lastModified;
+		private final String etag;
+		private final long size;
+		private final Buffer content;
+		private final Buffer gzip;
+		private final Buffer br;
+
+		private Asset(String path, String contentType, long size, long lastModified,
+				Buffer content, Buffer gzip, Buffer br) {
+			this.path = path;
+			this.contentType = contentType;
+			this.lastModified = StaticResource.formatDate(lastModified);
+			this.etag = StaticResource.etag(size, lastModified);
+			this.size = size;
+			this.content = content;
+			this.gzip = gzip;
+			this.br = br;
+		}
+
+		private long weight() {
+			if (content == null) {
+				return ENTRY_OVERHEAD;
+			}
+			return ENTRY_OVERHEAD + content.length() +
+					(gzip != null ? gzip.length() : 0) + (br != null ? br.length() : 0);
+		}
+
+	}
+
+}
@@ -16,25 +16,32 @@
 
 package fr.wseduc.webutils.http;
 
-import java.text.ParseException;
-import java.text.SimpleDateFormat;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
 import java.util.Date;
 import java.util.Locale;
-import java.util.TimeZone;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
+import io.vertx.core.Vertx;
 import io.vertx.core.http.HttpServerRequest;
 import io.vertx.core.http.HttpServerResponse;
+import io.vertx.core.shareddata.LocalMap;
 
 public class StaticResource {
 
-	private static final SimpleDateFormat format =
-			new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss zzz", Locale.UK);
-	static {
-		format.setTimeZone(TimeZone.getTimeZone("GMT"));
-	}
+	/** IMF-fixdate of RFC 7231, the day of month is always written with two digits */
+	private static final DateTimeFormatter format =
+			DateTimeFormatter.ofPattern("EEE, dd MMM yyyy HH:mm:ss 'GMT'", Locale.US).withZone(ZoneOffset.UTC);
+	private static final int MAX_FORMATTED_DATES = 1024;
+	/** Recently formatted dates, keyed by epoch second */
+	private static final ConcurrentMap<Long, String> formattedDates = new ConcurrentHashMap<>();
 
 	public static void addLastModifiedHeader(HttpServerResponse response, Date resourceLastModified) {
-		response.headers().add("Last-Modified", format.format(resourceLastModified));
+		response.headers().add("Last-Modified", formatDate(resourceLastModified));
 	}
 
 	public static void addLastModifiedHeader(HttpServerResponse response, String resourceLastModified) {
@@ -44,18 +51,44 @@ public class StaticResource {
 	public static boolean checkLastModified(HttpServerRequest request, String resourceLastModified) {
 		String ims = request.headers().get("If-Modified-Since");
 		if (ims != null && resourceLastModified != null) {
-			try {
-				Date imsDate = format.parse(ims);
-				Date rlm = format.parse(resourceLastModified);
-				return imsDate != null && rlm != null &&
-						imsDate.getTime() >= rlm.getTime();
-			} catch (ParseException | NumberFormatException e) {
-				return false;
+			if (ims.equals(resourceLastModified)) {
+				return true;
 			}
+			final long imsTime = parseDate(ims);
+			final long rlm = parseDate(resourceLastModified);
+			return imsTime >= 0 && rlm >= 0 && imsTime >= rlm;
 		}
 		return false;
 	}
 
+	/**
+	 * Check the conditional headers of a request. If-Modified-Since is ignored when the request has an
+	 * If-None-Match header.
+	 * @param request The request
+	 * @param resourceLastModified The formatted last modification date of the resource
+	 * @param etag The entity tag of the resource, without quotes, can be null
+	 * @return true if a 304 must be sent
+	 */
+	public static boolean checkNotModified(HttpServerRequest request, String resourceLastModified, String etag) {
+		if (etag != null) {
+			final String inm = request.headers().get("If-None-Match");
+			if (inm != null) {
+				return ETag.matches(inm, etag);
+			}
+		}
+		return checkLastModified(request, resourceLastModified);
+	}
+
+	/**
+	 * Strong entity tag of a file, derived from its size and its last modification time.
+	 * @param size The size of the file
+	 * @param lastModified The last modification time of the file in milliseconds
+	 * @return the entity tag, without quotes
+	 */
+	public static String etag(long size, long lastModified) {
+		return Long.toHexString(lastModified) + "-" + Long.toHexString(size);
+	}
+
 	public static void serveRessource(HttpServerRequest request, String ressourcePath,
 			String resourceLastModified) {
 		serveRessource(request, ressourcePath, resourceLastModified, false);
@@ -63,13 +96,39 @@ public class StaticResource {
 
 	public static void serveRessource(HttpServerRequest request, String ressourcePath,
 			String resourceLastModified, boolean dev) {
+		serveRessource(request, ressourcePath, resourceLastModified, null, dev);
+	}
+
+	public static void serveRessource(HttpServerRequest request, String ressourcePath,
+			String resourceLastModified, String etag, boolean dev) {
+		serveRessource(request, ressourcePath, resourceLastModified, etag, -1, dev);
+	}
+
+	/**
+	 * Send a file, or a 304 if the conditional headers of the request match it.
+	 * @param request The request
+	 * @param ressourcePath The path of the file
+	 * @param resourceLastModified The formatted last modification date of the file
+	 * @param etag The entity tag of the file, without quotes, can be null
+	 * @param length The size of the file, or -1 if it is unknown and the Range header must be ignored
+	 * @param dev True to disable the caching by the browsers
+	 */
+	public static void serveRessource(HttpServerRequest request, String ressourcePath,
+			String resourceLastModified, String etag, long length, boolean dev) {
 		if (dev) {
 			request.response().headers().add("Cache-Control", "max-age=0, no-cache, must-revalidate");
 		}
 		addLastModifiedHeader(request.response(), resourceLastModified);
-		if (checkLastModified(request, resourceLastModified)) {
+		if (etag != null) {
+			request.response().headers().add("ETag", "\"" + etag + "\"");
+		}
+		if (length >= 0) {
+			request.response().headers().add("Accept-Ranges", "bytes");
+		}
+		if (checkNotModified(request, resourceLastModified, etag)) {
 			request.response().setStatusCode(304).end();
-		} else {
+		} else if (length < 0 || !ByteRanges.send(request, ressourcePath, length,
+				StaticAssets.contentType(ressourcePath), etag, resourceLastModified)) {
 			request.response().sendFile(ressourcePath, ar -> {
 				if (ar.failed() && !request.response().ended()) {
 					Renders.notFound(request);
@@ -78,12 +137,73 @@ public class StaticResource {
 		}
 	}
 
+	/**
+	 * Send a file with its validators and its size, read once and kept in local maps keyed by the uri of the
+	 * request.
+	 * @param vertx The vertx instance reading the properties of the file
+	 * @param request The request
+	 * @param ressourcePath The path of the file
+	 * @param lastModifiedDates The formatted last modification dates of the served files
+	 * @param etags The entity tags of the served files
+	 * @param sizes The sizes of the served files
+	 * @param dev True to disable the caching by the browsers
+	 */
+	public static void serveRessource(Vertx vertx, HttpServerRequest request, String ressourcePath,
+			LocalMap<String, String> lastModifiedDates, LocalMap<String, String> etags, LocalMap<String, Long> sizes,
+			boolean dev) {
+		final String uri = request.uri();
+		final String resourceLastModified = lastModifiedDates.get(uri);
+		final Long length = sizes.get(uri);
+		if (resourceLastModified != null && length != null) {
+			serveRessource(request, ressourcePath, resourceLastModified, etags.get(uri), length, dev);
+			return;
+		}
+		vertx.fileSystem().props(ressourcePath, af -> {
+			if (af.succeeded()) {
+				final String lastModified = formatDate(af.result().lastModifiedTime());
+				final String etag = etag(af.result().size(), af.result().lastModifiedTime());
+				etags.put(uri, etag);
+				sizes.put(uri, af.result().size());
+				lastModifiedDates.put(uri, lastModified);
+				serveRessource(request, ressourcePath, lastModified, etag, af.result().size(), dev);
+			} else {
+				request.response().sendFile(ressourcePath, ar -> {
+					if (ar.failed() && !request.response().ended()) {
+						Renders.notFound(request);
+					}
+				});
+			}
+		});
+	}
+
 	public static String formatDate(long lastModified) {
-		return formatDate(new Date(lastModified));
+		final Long second = Math.floorDiv(lastModified, 1000L);
+		String date = formattedDates.get(second);
+		if (date == null) {
+			date = format.format(Instant.ofEpochSecond(second));
+			if (formattedDates.size() >= MAX_FORMATTED_DATES) {
+				formattedDates.clear();
+			}
+			formattedDates.put(second, date);
+		}
+		return date;
 	}
 
 	public static String formatDate(Date lastModified) {
-		return format.format(lastModified);
+		return formatDate(lastModified.getTime());
+	}
+
+	/**
+	 * Parse a HTTP date in the RFC 1123 format.
+	 * @param date The date
+	 * @return the time in milliseconds, or -1 if the date can't be parsed
+	 */
+	public static long parseDate(String date) {
+		try {
+			return ZonedDateTime.parse(date, DateTimeFormatter.RFC_1123_DATE_TIME).toInstant().toEpochMilli();
+		} catch (DateTimeParseException e) {
+			return -1;
+		}
 	}
 
 }
@@ -26,7 +26,11 @@ import io.vertx.core.json.JsonArray;
 import io.vertx.core.json.JsonObject;
 import io.vertx.core.logging.Logger;
 import io.vertx.core.logging.LoggerFactory;
+import io.vertx.core.parsetools.JsonEvent;
+import io.vertx.core.parsetools.JsonParser;
 
+import java.util.ArrayDeque;
+import java.util.Deque;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -35,6 +39,7 @@ public class RequestUtils {
 	private static final Logger log = LoggerFactory.getLogger(RequestUtils.class);
 	private static final JsonSchemaValidator validator = JsonSchemaValidator.getInstance();
 	private static final Pattern versionPatter = Pattern.compile("version=([0-9]+\\.[0-9]+)");
+	private static volatile long maxBodySize = -1;
 
 	private static void resumeQuietly(final HttpServerRequest request){
 		try{
@@ -83,15 +88,15 @@ public class RequestUtils {
 			public void handle(Buffer event) {
 				try {
 					final JsonObject json = new fr.wseduc.webutils.collections.JsonObject(XSSUtils.stripXSS(event.toString("UTF-8")));
-					validator.validate(schema, json, event1 -> {
+					validator.validateJson(schema, json, event1 -> {
 						if (event1.succeeded()) {
-							if ("ok".equals(event1.result().body().getString("status"))) {
+							if ("ok".equals(event1.result().getString("status"))) {
 								handler.handle(json);
 							} else {
-								log.debug(event1.result().body().getString("message"));
-								log.debug(event1.result().body()
+								log.debug(event1.result().getString("message"));
+								log.debug(event1.result()
 										.getJsonArray("report", new JsonArray()).encodePrettily());
-								Renders.badRequest(request, event1.result().body().getString("error"));
+								Renders.badRequest(request, event1.result().getString("error"));
 							}
 						} else {
 							log.error("Validate async error.", event1.cause());
@@ -107,6 +112,193 @@ public class RequestUtils {
 		resumeQuietly(request);
 	}
 
+	/**
+	 * Set the default maximum size of the bodies parsed with the streaming methods.
+	 * @param maxBodySize The size in bytes, zero or negative for no limit
+	 */
+	public static void setMaxBodySize(long maxBodySize) {
+		RequestUtils.maxBodySize = maxBodySize;
+	}
+
+	public static void streamToJson(final HttpServerRequest request, final Handler<JsonObject> handler) {
+		streamToJson(request, maxBodySize, handler);
+	}
+
+	/**
+	 * Parse a json object body as its chunks arrive, without buffering the whole body. Only the strings (values
+	 * and field names) are sanitized. Responds 413 if the body is larger than maxBodySize and 400 if it isn't
+	 * a json object, the handler isn't called in these cases.
+	 * @param request The request
+	 * @param maxBodySize The maximum body size in bytes, zero or negative for no limit
+	 * @param handler Receive the json object
+	 */
+	public static void streamToJson(final HttpServerRequest request, final long maxBodySize,
+			final Handler<JsonObject> handler) {
+		streamToJson(request, maxBodySize, false, new Handler<Object>() {
+			@Override
+			public void handle(Object json) {
+				handler.handle((JsonObject) json);
+			}
+		});
+	}
+
+	public static void streamToJsonArray(final HttpServerRequest request, final Handler<JsonArray> handler) {
+		streamToJsonArray(request, maxBodySize, handler);
+	}
+
+	/**
+	 * Same as {@link #streamToJson(HttpServerRequest, long, Handler)} for a json array body.
+	 */
+	public static void streamToJsonArray(final HttpServerRequest request, final long maxBodySize,
+			final Handler<JsonArray> handler) {
+		streamToJson(request, maxBodySize, true, new Handler<Object>() {
+			@Override
+			public void handle(Object json) {
+				handler.handle((JsonArray) json);
+			}
+		});
+	}
+
+	private static void streamToJson(final HttpServerRequest request, final long maxBodySize, final boolean array,
+			final Handler<Object> handler) {
+		if (maxBodySize > 0) {
+			final String contentLength = request.headers().get("Content-Length");
+			try {
+				if (contentLength != null && Long.parseLong(contentLength.trim()) > maxBodySize) {
+					Renders.payloadTooLarge(request, "body.too.large");
+					return;
+				}
+			} catch (NumberFormatException e) {
+				Renders.badRequest(request, "invalid.content.length");
+				return;
+			}
+		}
+		final JsonTreeBuilder builder = new JsonTreeBuilder(array);
+		final JsonParser parser = JsonParser.newParser();
+		parser.handler(builder);
+		parser.exceptionHandler(builder::fail);
+		request.handler(new Handler<Buffer>() {
+			private long size = 0;
+
+			@Override
+			public void handle(Buffer chunk) {
+				if (builder.error != null) {
+					return;
+				}
+				size += chunk.length();
+				if (maxBodySize > 0 && size > maxBodySize) {
+					builder.error = new PayloadTooLargeException();
+					Renders.payloadTooLarge(request, "body.too.large");
+					return;
+				}
+				parser.handle(chunk);
+			}
+		});
+		request.endHandler(new Handler<Void>() {
+			@Override
+			public void handle(Void v) {
+				if (builder.error instanceof PayloadTooLargeException) {
+					return;
+				}
+				if (builder.error == null) {
+					parser.end();
+				}
+				if (builder.error == null && builder.root == null) {
+					builder.fail(new IllegalArgumentException(array ? "Expected a json array" : "Expected a json object"));
+				}
+				if (builder.error != null) {
+					log.warn(builder.error.getMessage(), builder.error);
+					Renders.badRequest(request, builder.error.getMessage());
+					return;
+				}
+				handler.handle(builder.root);
+			}
+		});
+		resumeQuietly(request);
+	}
+
+	private static class PayloadTooLargeException extends RuntimeException {
+		private static final long serialVersionUID = 1L;
+
+		private PayloadTooLargeException() {
+			super(null, null, false, false);
+		}
+	}
+
+	/**
+	 * Build the json tree from the parser events, sanitizing the strings. All the objects and arrays of the
+	 * tree are webutils collections, so the nested values have the same defaults as the root.
+	 */
+	private static class JsonTreeBuilder implements Handler<JsonEvent> {
+
+		private final boolean array;
+		private final Deque<Object> stack = new ArrayDeque<>();
+		private Object root;
+		private Throwable error;
+
+		private JsonTreeBuilder(boolean array) {
+			this.array = array;
+		}
+
+		private void fail(Throwable t) {
+			if (error == null) {
+				error = t;
+			}
+		}
+
+		@Override
+		public void handle(JsonEvent event) {
+			if (error != null) {
+				return;
+			}
+			switch (event.type()) {
+				case START_OBJECT:
+					start(event, new fr.wseduc.webutils.collections.JsonObject());
+					break;
+				case START_ARRAY:
+					start(event, new fr.wseduc.webutils.collections.JsonArray());
+					break;
+				case END_OBJECT:
+				case END_ARRAY:
+					final Object value = stack.pop();
+					if (stack.isEmpty()) {
+						root = value;
+					}
+					break;
+				case VALUE:
+					if (stack.isEmpty()) {
+						fail(new IllegalArgumentException(array ? "Expected a json array" : "Expected a json object"));
+						return;
+					}
+					final Object v = event.value();
+					add(event, (v instanceof String) ? XSSUtils.stripXSS((String) v) : v);
+					break;
+			}
+		}
+
+		private void start(JsonEvent event, Object container) {
+			if (stack.isEmpty()) {
+				if (root != null || (array != (container instanceof JsonArray))) {
+					fail(new IllegalArgumentException(array ? "Expected a json array" : "Expected a json object"));
+					return;
+				}
+			} else {
+				add(event, container);
+			}
+			stack.push(container);
+		}
+
+		private void add(JsonEvent event, Object value) {
+			final Object parent = stack.peek();
+			if (parent instanceof JsonObject) {
+				((JsonObject) parent).put(XSSUtils.stripXSS(event.fieldName()), value);
+			} else {
+				((JsonArray) parent).add(value);
+			}
+		}
+
+	}
+
 	public static String acceptVersion(HttpServerRequest request) {
 		final String accept = request.headers().get("Accept");
 		return getAcceptVersion(accept);
@@ -24,6 +24,8 @@ import javax.net.ssl.SSLPeerUnverifiedException;
 import javax.net.ssl.SSLSession;
 import javax.security.cert.X509Certificate;
 
+import fr.wseduc.webutils.I18n;
+import fr.wseduc.webutils.Utils;
 import fr.wseduc.webutils.http.response.BufferHttpResponse;
 import fr.wseduc.webutils.request.HttpServerRequestWithBuffering;
 import fr.wseduc.webutils.request.ProxyHttpRequest;
@@ -31,17 +33,24 @@ import io.vertx.core.Handler;
 import io.vertx.core.MultiMap;
 import io.vertx.core.buffer.Buffer;
 import io.vertx.core.http.*;
+import io.vertx.core.json.DecodeException;
 import io.vertx.core.json.JsonObject;
+import io.vertx.core.logging.Logger;
+import io.vertx.core.logging.LoggerFactory;
 import io.vertx.core.net.NetSocket;
 import io.vertx.core.net.SocketAddress;
 
 public class SecureHttpServerRequest implements HttpServerRequest, HttpServerRequestWithBuffering {
 
+	private static final Logger log = LoggerFactory.getLogger(SecureHttpServerRequest.class);
+
 	private HttpServerRequest request;
 	private JsonObject session;
 	private final Map<String, String> attributes;
 	private Buffer body;
 	private boolean end;
+	private String preferredLanguage;
+	private boolean preferredLanguageLoaded;
 
 	public SecureHttpServerRequest(HttpServerRequest request) {
 		this.request = request;
@@ -296,6 +305,29 @@ public class SecureHttpServerRequest implements HttpServerRequest, HttpServerReq
 
 	public void setSession(JsonObject session) {
 		this.session = session;
+		this.preferredLanguageLoaded = false;
+	}
+
+	/**
+	 * Language of the user preferences in the session, parsed once until the session is changed.
+	 * @return the language of the default domain, or null if the user has no preference
+	 */
+	public String getPreferredLanguage() {
+		if (!preferredLanguageLoaded) {
+			preferredLanguage = null;
+			final JsonObject cache = (session != null) ? session.getJsonObject("cache") : null;
+			final JsonObject preferences = (cache != null) ? cache.getJsonObject("preferences") : null;
+			if (preferences != null && Utils.isNotEmpty(preferences.getString("language"))) {
+				try {
+					preferredLanguage = new JsonObject(preferences.getString("language"))
+							.getString(I18n.DEFAULT_DOMAIN);
+				} catch (DecodeException e) {
+					log.error("Error getting language in cache.", e);
+				}
+			}
+			preferredLanguageLoaded = true;
+		}
+		return preferredLanguage;
 	}
 
 	public void setAttribute(String attr, String value) {
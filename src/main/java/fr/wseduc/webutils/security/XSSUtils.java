@@ -19,13 +19,25 @@ package fr.wseduc.webutils.security;
 import io.vertx.core.MultiMap;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Locale;
+import java.util.Set;
 import java.util.regex.Pattern;
 
 public final class XSSUtils {
 
 	private XSSUtils() {}
 
+	private static final String[] EVENTS = new String[]{"click", "context", "mouse", "dblclick", "key", "abort",
+			"error", "before", "hash", "load", "page", "resize", "scroll", "unload", "blur", "change", "focus", "input",
+			"invalid", "reset", "search", "select", "submit", "drag", "drop", "copy", "cut", "paste", "after", " before",
+			"can", "end", "duration", "emptied", "play", "progress", "seek", "stall", "suspend", "time", "volume",
+			"waiting", "message", "open", "touch", "online", "offline", "popstate", "show", "storage", "toggle", "wheel"};
+
 	private static final Pattern[] patterns = new Pattern[]{
 			Pattern.compile("<script>(.*?)</script>", Pattern.CASE_INSENSITIVE),
 //			Pattern.compile("src[\r\n]*=[\r\n]*\\\'(.*?)\\\'", Pattern.CASE_INSENSITIVE | Pattern.MULTILINE | Pattern.DOTALL),
@@ -37,30 +49,97 @@ public final class XSSUtils {
 			Pattern.compile("expression\\((.*?)\\)", Pattern.CASE_INSENSITIVE | Pattern.MULTILINE | Pattern.DOTALL),
 			Pattern.compile("javascript:", Pattern.CASE_INSENSITIVE),
 			Pattern.compile("vbscript:", Pattern.CASE_INSENSITIVE),
-			Pattern.compile("on(click|context|mouse|dblclick|key|abort|error|before|hash|load|page|" +
-					"resize|scroll|unload|blur|change|focus|input|invalid|reset|search|select|submit|drag|drop|copy|cut|paste|" +
-					"after| before|can|end|duration|emptied|play|progress|seek|stall|suspend|time|volume|waiting|message|open|touch|" +
-					"online|offline|popstate|show|storage|toggle|wheel)(\\s*\\w*\\s*)=",
+			Pattern.compile("on(" + String.join("|", EVENTS) + ")(\\s*\\w*\\s*)=",
 					Pattern.CASE_INSENSITIVE | Pattern.MULTILINE | Pattern.DOTALL),
 	};
 
+	/** Event names indexed by their first character, for the prefilter */
+	private static final String[][] EVENTS_BY_FIRST_CHAR = new String[128][];
+
+	static {
+		for (String event : EVENTS) {
+			final char c = event.charAt(0);
+			final String[] events = EVENTS_BY_FIRST_CHAR[c];
+			final String[] e = (events == null) ? new String[1] : Arrays.copyOf(events, events.length + 1);
+			e[e.length - 1] = event;
+			EVENTS_BY_FIRST_CHAR[c] = e;
+		}
+	}
+
+	private static volatile Set<String> skippedHeaders = Collections.emptySet();
+	private static volatile String[] skippedHeaderPrefixes = new String[0];
+
+	/**
+	 * Set the names of the headers which are never sanitized, because they can't reach a page (Cookie,
+	 * Authorization...). A name ending with '*' is a prefix (Accept-*). Names are case insensitive.
+	 * @param names The names of the skipped headers
+	 */
+	public static void setSkippedHeaders(Collection<String> names) {
+		final Set<String> headers = new HashSet<>();
+		final List<String> prefixes = new ArrayList<>();
+		if (names != null) {
+			for (String name : names) {
+				if (name == null || name.trim().isEmpty()) continue;
+				final String n = name.trim().toLowerCase(Locale.ENGLISH);
+				if (n.endsWith("*")) {
+					prefixes.add(n.substring(0, n.length() - 1));
+				} else {
+					headers.add(n);
+				}
+			}
+		}
+		skippedHeaders = headers;
+		skippedHeaderPrefixes = prefixes.toArray(new String[prefixes.size()]);
+	}
+
+	public static boolean isSkippedHeader(String name) {
+		if (name == null || (skippedHeaders.isEmpty() && skippedHeaderPrefixes.length == 0)) {
+			return false;
+		}
+		if (skippedHeaders.contains(name.toLowerCase(Locale.ENGLISH))) {
+			return true;
+		}
+		for (String prefix : skippedHeaderPrefixes) {
+			if (name.regionMatches(true, 0, prefix, 0, prefix.length())) {
+				return true;
+			}
+		}
+		return false;
+	}
+
 	public static MultiMap safeMultiMap(MultiMap m) {
 		for (String name : m.names()) {
 			List<String> values = m.getAll(name);
-			List<String> safeValues = new ArrayList<>();
 			if (values == null) continue;
-			for (String value: values) {
-				safeValues.add(stripXSS(value));
+			List<String> safeValues = null;
+			for (int i = 0; i < values.size(); i++) {
+				final String value = values.get(i);
+				final String safeValue = stripXSS(value);
+				if (safeValues == null && safeValue != value) {
+					safeValues = new ArrayList<>(values.subList(0, i));
+				}
+				if (safeValues != null) {
+					safeValues.add(safeValue);
+				}
+			}
+			if (safeValues != null) {
+				m.set(name, safeValues);
 			}
-			m.set(name, safeValues);
 		}
 		return m;
 	}
 
+	/**
+	 * Remove the script injections from a value.
+	 * @param value The value to clean
+	 * @return the same instance if nothing suspicious was found, else the cleaned value
+	 */
 	public static String stripXSS(String value) {
-		if (value != null) {
+		if (value != null && isSuspicious(value)) {
 			//value = ESAPI.encoder().canonicalize(value);
-			value = value.replaceAll("\0", "");
+			if (value.indexOf('\0') >= 0) {
+				value = value.replace("\0", "");
+			}
 			for (Pattern scriptPattern : patterns){
 				value = scriptPattern.matcher(value).replaceAll("");
 			}
@@ -68,4 +147,103 @@ public final class XSSUtils {
 		return value;
 	}
 
+	/**
+	 * Single pass check of a value. It returns true if at least one of the patterns matches the value, and may
+	 * return true for some values none of them matches : the patterns must then be applied to know what to strip.
+	 * When it returns false, the patterns would leave the value unchanged.
+	 * @param value The value to check
+	 * @return false if the value is safe
+	 */
+	static boolean isSuspicious(String value) {
+		final int length = value.length();
+		for (int i = 0; i < length; i++) {
+			switch (value.charAt(i)) {
+				case '\0':
+					return true;
+				case '<':
+					if (startsWith(value, i + 1, "script") || startsWith(value, i + 1, "/script>")) {
+						return true;
+					}
+					break;
+				case 'e':
+				case 'E':
+					if (startsWith(value, i + 1, "val(") || startsWith(value, i + 1, "xpression(")) {
+						return true;
+					}
+					break;
+				case 'j':
+				case 'J':
+					if (startsWith(value, i + 1, "avascript:")) {
+						return true;
+					}
+					break;
+				case 'v':
+				case 'V':
+					if (startsWith(value, i + 1, "bscript:")) {
+						return true;
+					}
+					break;
+				case 'o':
+				case 'O':
+					if (i + 2 < length && (value.charAt(i + 1) | 0x20) == 'n' && isEventHandler(value, i + 2)) {
+						return true;
+					}
+					break;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Exact check of the event handler pattern after its "on" prefix : an event name, then
+	 * <code>\s*\w*\s*=</code>. Whitespaces and word characters are disjoint and '=' is neither,
+	 * so skipping them greedily is equivalent to the regex backtracking.
+	 */
+	private static boolean isEventHandler(String value, int start) {
+		final char c = value.charAt(start);
+		final int first = (c >= 'A' && c <= 'Z') ? c | 0x20 : c;
+		if (first >= EVENTS_BY_FIRST_CHAR.length || EVENTS_BY_FIRST_CHAR[first] == null) {
+			return false;
+		}
+		for (String event : EVENTS_BY_FIRST_CHAR[first]) {
+			if (!startsWith(value, start, event)) {
+				continue;
+			}
+			int i = start + event.length();
+			while (i < value.length() && isWhitespace(value.charAt(i))) i++;
+			while (i < value.length() && isWordCharacter(value.charAt(i))) i++;
+			while (i < value.length() && isWhitespace(value.charAt(i))) i++;
+			if (i < value.length() && value.charAt(i) == '=') {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * ASCII case insensitive region match, like the patterns compiled without UNICODE_CASE.
+	 * @param lowerCase The expected text, in lower case
+	 */
+	private static boolean startsWith(String value, int offset, String lowerCase) {
+		if (offset + lowerCase.length() > value.length()) {
+			return false;
+		}
+		for (int i = 0; i < lowerCase.length(); i++) {
+			final char c = value.charAt(offset + i);
+			final char expected = lowerCase.charAt(i);
+			if (c != expected && !(expected >= 'a' && expected <= 'z' && (c | 0x20) == expected)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static boolean isWhitespace(char c) {
+		return c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r';
+	}
+
+	private static boolean isWordCharacter(char c) {
+		return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '_';
+	}
+
 }
@@ -0,0 +1,237 @@
+/*
+ * Copyright © WebServices pour l'Éducation, 2014
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fr.wseduc.webutils.security;
+
+import io.vertx.core.MultiMap;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Sanitized view of a request MultiMap.<p>
+ * Values are stripped with {@link XSSUtils#stripXSS(String)} when they are read and the result is kept for the
+ * lifetime of the view, so a value is only scanned once per request. The underlying MultiMap is never
+ * modified by the sanitization, writes go through to it.<p>
+ * Instances of this class are not thread-safe, like the request they belong to.
+ */
+class XssMultiMap implements MultiMap {
+
+	private final MultiMap delegate;
+	private final boolean headers;
+	private Map<String, String> sanitized;
+
+	XssMultiMap(MultiMap delegate, boolean headers) {
+		this.delegate = delegate;
+		this.headers = headers;
+	}
+
+	private String sanitize(String name, String value) {
+		if (value == null || (headers && XSSUtils.isSkippedHeader(name))) {
+			return value;
+		}
+		if (sanitized == null) {
+			sanitized = new HashMap<>();
+		}
+		String safeValue = sanitized.get(value);
+		if (safeValue == null) {
+			safeValue = XSSUtils.stripXSS(value);
+			sanitized.put(value, safeValue);
+		}
+		return safeValue;
+	}
+
+	private List<String> sanitize(String name, List<String> values) {
+		if (values == null || values.isEmpty()) {
+			return values;
+		}
+		final List<String> safeValues = new ArrayList<>(values.size());
+		for (String value : values) {
+			safeValues.add(sanitize(name, value));
+		}
+		return safeValues;
+	}
+
+	@Override
+	public String get(CharSequence name) {
+		return get(name.toString());
+	}
+
+	@Override
+	public String get(String name) {
+		return sanitize(name, delegate.get(name));
+	}
+
+	@Override
+	public List<String> getAll(String name) {
+		return sanitize(name, delegate.getAll(name));
+	}
+
+	@Override
+	public List<String> getAll(CharSequence name) {
+		return getAll(name.toString());
+	}
+
+	@Override
+	public List<Map.Entry<String, String>> entries() {
+		final List<Map.Entry<String, String>> entries = delegate.entries();
+		final List<Map.Entry<String, String>> safeEntries = new ArrayList<>(entries.size());
+		for (Map.Entry<String, String> e : entries) {
+			safeEntries.add(new AbstractMap.SimpleImmutableEntry<>(e.getKey(), sanitize(e.getKey(), e.getValue())));
+		}
+		return safeEntries;
+	}
+
+	@Override
+	public Iterator<Map.Entry<String, String>> iterator() {
+		return entries().iterator();
+	}
+
+	@Override
+	public boolean contains(String name) {
+		return delegate.contains(name);
+	}
+
+	@Override
+	public boolean contains(CharSequence name) {
+		return delegate.contains(name);
+	}
+
+	@Override
+	public boolean contains(String name, String value, boolean caseInsensitive) {
+		for (String v : getAll(name)) {
+			if (caseInsensitive ? v.equalsIgnoreCase(value) : v.equals(value)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	@Override
+	public boolean contains(CharSequence name, CharSequence value, boolean caseInsensitive) {
+		return contains(name.toString(), value.toString(), caseInsensitive);
+	}
+
+	@Override
+	public boolean isEmpty() {
+		return delegate.isEmpty();
+	}
+
+	@Override
+	public Set<String> names() {
+		return delegate.names();
+	}
+
+	@Override
+	public MultiMap add(String name, String value) {
+		delegate.add(name, value);
+		return this;
+	}
+
+	@Override
+	public MultiMap add(CharSequence name, CharSequence value) {
+		delegate.add(name, value);
+		return this;
+	}
+
+	@Override
+	public MultiMap add(String name, Iterable<String> values) {
+		delegate.add(name, values);
+		return this;
+	}
+
+	@Override
+	public MultiMap add(CharSequence name, Iterable<CharSequence> values) {
+		delegate.add(name, values);
+		return this;
+	}
+
+	@Override
+	public MultiMap addAll(MultiMap map) {
+		delegate.addAll(map);
+		return this;
+	}
+
+	@Override
+	public MultiMap addAll(Map<String, String> headers) {
+		delegate.addAll(headers);
+		return this;
+	}
+
+	@Override
+	public MultiMap set(String name, String value) {
+		delegate.set(name, value);
+		return this;
+	}
+
+	@Override
+	public MultiMap set(CharSequence name, CharSequence value) {
+		delegate.set(name, value);
+		return this;
+	}
+
+	@Override
+	public MultiMap set(String name, Iterable<String> values) {
+		delegate.set(name, values);
+		return this;
+	}
+
+	@Override
+	public MultiMap set(CharSequence name, Iterable<CharSequence> values) {
+		delegate.set(name, values);
+		return this;
+	}
+
+	@Override
+	public MultiMap setAll(MultiMap map) {
+		delegate.setAll(map);
+		return this;
+	}
+
+	@Override
+	public MultiMap setAll(Map<String, String> headers) {
+		delegate.setAll(headers);
+		return this;
+	}
+
+	@Override
+	public MultiMap remove(String name) {
+		delegate.remove(name);
+		return this;
+	}
+
+	@Override
+	public MultiMap remove(CharSequence name) {
+		delegate.remove(name);
+		return this;
+	}
+
+	@Override
+	public MultiMap clear() {
+		delegate.clear();
+		return this;
+	}
+
+	@Override
+	public int size() {
+		return delegate.size();
+	}
+
+}
@@ -19,28 +19,59 @@ package fr.wseduc.webutils.security;
 import io.vertx.core.MultiMap;
 import io.vertx.core.http.HttpServerRequest;
 
-import static fr.wseduc.webutils.security.XSSUtils.safeMultiMap;
-
 
 public class XssSecuredHttpServerRequest extends SecureHttpServerRequest {
 
+	private MultiMap formAttributes;
+	private MultiMap params;
+	private MultiMap headers;
+
 	public XssSecuredHttpServerRequest(HttpServerRequest request) {
 		super(request);
 	}
 
 	@Override
 	public MultiMap formAttributes() {
-		return safeMultiMap(super.formAttributes());
+		if (formAttributes == null) {
+			formAttributes = new XssMultiMap(super.formAttributes(), false);
+		}
+		return formAttributes;
+	}
+
+	@Override
+	public String getFormAttribute(String attributeName) {
+		return formAttributes().get(attributeName);
 	}
 
 	@Override
 	public MultiMap params() {
-		return safeMultiMap(super.params());
+		if (params == null) {
+			params = new XssMultiMap(super.params(), false);
+		}
+		return params;
+	}
+
+	@Override
+	public String getParam(String paramName) {
+		return params().get(paramName);
 	}
 
 	@Override
 	public MultiMap headers() {
-		return safeMultiMap(super.headers());
+		if (headers == null) {
+			headers = new XssMultiMap(super.headers(), true);
+		}
+		return headers;
+	}
+
+	@Override
+	public String getHeader(String headerName) {
+		return headers().get(headerName);
+	}
+
+	@Override
+	public String getHeader(CharSequence headerName) {
+		return headers().get(headerName);
 	}
 
 }
@@ -0,0 +1,100 @@
+/*
+ * Copyright © "Open Digital Education", 2020
+ *
+ * This program is published by "Open Digital Education".
+ * You must indicate the name of the software and the company in any production /contribution
+ * using the software and indicate on the home page of the software industry in question,
+ * "powered by Open Digital Education" with a reference to the website: https://opendigitaleducation.com/.
+ *
+ * This program is free software, licensed under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation, version 3 of the License.
+ *
+ * You can redistribute this application and/or modify it since you respect the terms of the GNU Affero General Public License.
+ * If you modify the source code and then use this modified source code in your creation, you must make available the source code of your modifications.
+ *
+ * You should have received a copy of the GNU Affero General Public License along with the software.
+ * If not, please see : <http://www.gnu.org/licenses/>. Full compliance requires reading the terms of this license and following its directives.
+
+ */
+
+package fr.wseduc.webutils.template;
+
+import java.util.Iterator;
+
+import com.samskivert.mustache.DefaultCollector;
+import com.samskivert.mustache.Mustache;
+import com.samskivert.mustache.Template;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+
+/**
+ * Mustache collector reading the Vert.x JsonObject and JsonArray directly, without converting them to maps
+ * and lists. A JsonObject is a single context, like a map, and a JsonArray is a list of contexts.
+ */
+public class JsonCollector extends DefaultCollector
+{
+  private static final Mustache.VariableFetcher CONTEXT_FETCHER = new Mustache.VariableFetcher()
+  {
+    @Override
+    public Object get(Object ctx, String name)
+    {
+      return ((TemplateContext) ctx).fetch(name);
+    }
+  };
+
+  private static final Mustache.VariableFetcher JSON_OBJECT_FETCHER = new Mustache.VariableFetcher()
+  {
+    @Override
+    public Object get(Object ctx, String name)
+    {
+      final JsonObject json = (JsonObject) ctx;
+      final Object value = json.getValue(name);
+      return (value != null || json.containsKey(name)) ? value : Template.NO_FETCHER_FOUND;
+    }
+  };
+
+  private static final Mustache.VariableFetcher JSON_ARRAY_FETCHER = new Mustache.VariableFetcher()
+  {
+    @Override
+    public Object get(Object ctx, String name)
+    {
+      final JsonArray json = (JsonArray) ctx;
+      final int index = Integer.parseInt(name);
+      return (index < json.size()) ? json.getValue(index) : Template.NO_FETCHER_FOUND;
+    }
+  };
+
+  @Override
+  public Iterator<?> toIterator(Object value)
+  {
+    if (value instanceof JsonObject)
+      return null;
+    if (value instanceof JsonArray)
+      return ((JsonArray) value).iterator();
+    return super.toIterator(value);
+  }
+
+  @Override
+  public Mustache.VariableFetcher createFetcher(Object ctx, String name)
+  {
+    if (ctx instanceof TemplateContext)
+      return CONTEXT_FETCHER;
+    if (ctx instanceof JsonObject)
+      return JSON_OBJECT_FETCHER;
+    if (ctx instanceof JsonArray && isIndex(name))
+      return JSON_ARRAY_FETCHER;
+    return super.createFetcher(ctx, name);
+  }
+
+  private static boolean isIndex(String name)
+  {
+    if (name.isEmpty() || name.length() > 9)
+      return false;
+    for (int i = 0; i < name.length(); i++)
+    {
+      if (!Character.isDigit(name.charAt(i)))
+        return false;
+    }
+    return true;
+  }
+}
@@ -0,0 +1,87 @@
+/*
+ * Copyright © "Open Digital Education", 2020
+ *
+ * This program is published by "Open Digital Education".
+ * You must indicate the name of the software and the company in any production /contribution
+ * using the software and indicate on the home page of the software industry in question,
+ * "powered by Open Digital Education" with a reference to the website: https://opendigitaleducation.com/.
+ *
+ * This program is free software, licensed under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation, version 3 of the License.
+ *
+ * You can redistribute this application and/or modify it since you respect the terms of the GNU Affero General Public License.
+ * If you modify the source code and then use this modified source code in your creation, you must make available the source code of your modifications.
+ *
+ * You should have received a copy of the GNU Affero General Public License along with the software.
+ * If not, please see : <http://www.gnu.org/licenses/>. Full compliance requires reading the terms of this license and following its directives.
+
+ */
+
+package fr.wseduc.webutils.template;
+
+import java.util.AbstractMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import com.samskivert.mustache.Mustache;
+import com.samskivert.mustache.Template;
+import io.vertx.core.json.JsonObject;
+
+/**
+ * Root context of a render : the lambdas of the render, then the shared lambdas, then the template params.
+ * Nothing is copied, the values are looked up in each layer by {@link JsonCollector}.<p>
+ * It is also a read-only map, for the lambdas reading their context as a map.
+ */
+final class TemplateContext extends AbstractMap<String, Object>
+{
+  private final JsonObject params;
+  private final Map<String, Mustache.Lambda> sharedLambdas;
+  private final Map<String, Mustache.Lambda> lambdas;
+
+  TemplateContext(JsonObject params, Map<String, Mustache.Lambda> sharedLambdas, Map<String, Mustache.Lambda> lambdas)
+  {
+    this.params = params;
+    this.sharedLambdas = sharedLambdas;
+    this.lambdas = lambdas;
+  }
+
+  Object fetch(String name)
+  {
+    Object value = (lambdas != null) ? lambdas.get(name) : null;
+    if (value == null)
+      value = sharedLambdas.get(name);
+    if (value == null)
+    {
+      value = params.getValue(name);
+      if (value == null && !params.containsKey(name))
+        return Template.NO_FETCHER_FOUND;
+    }
+    return value;
+  }
+
+  @Override
+  public Object get(Object key)
+  {
+    final Object value = (key instanceof String) ? fetch((String) key) : null;
+    return (value == Template.NO_FETCHER_FOUND) ? null : value;
+  }
+
+  @Override
+  public boolean containsKey(Object key)
+  {
+    return (key instanceof String) && fetch((String) key) != Template.NO_FETCHER_FOUND;
+  }
+
+  @Override
+  public Set<Entry<String, Object>> entrySet()
+  {
+    final Map<String, Object> merged = new LinkedHashMap<String, Object>();
+    for (String name : params.fieldNames())
+      merged.put(name, params.getValue(name));
+    merged.putAll(sharedLambdas);
+    if (lambdas != null)
+      merged.putAll(lambdas);
+    return merged.entrySet();
+  }
+}
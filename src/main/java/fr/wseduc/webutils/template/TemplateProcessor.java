@@ -19,17 +19,32 @@
 
 package fr.wseduc.webutils.template;
 
+import java.io.IOException;
 import java.io.Writer;
 import java.io.StringWriter;
 import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
 
 import com.samskivert.mustache.Mustache;
 import com.samskivert.mustache.Template;
-import fr.wseduc.webutils.collections.JsonUtils;
 import io.vertx.core.AsyncResult;
+import io.vertx.core.Context;
+import io.vertx.core.Future;
 import io.vertx.core.Handler;
 import io.vertx.core.Vertx;
 import io.vertx.core.buffer.Buffer;
@@ -46,16 +61,31 @@ public class TemplateProcessor
   private Vertx vertx;
   private String templateFolder;
 
-  private Mustache.Compiler compiler = Mustache.compiler().defaultValue("");
+  private volatile boolean escapeHTML = true;
   private Map<String, Mustache.Lambda> templateLambdas = new ConcurrentHashMap<String, Mustache.Lambda>();
 
-  private final ConcurrentMap<String, Template> cache = new ConcurrentHashMap<String, Template>();
-  private boolean useCache = false;
+  private static final String ESCAPED = "escaped:";
+  private static final String RAW = "raw:";
+
+  // Compiled templates, shared with the other processors of the folder once precompiled
+  private volatile Templates templates;
+  private volatile boolean useCache = false;
+
+  private final AtomicBoolean precompiled = new AtomicBoolean(false);
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+
+  // Precompiled templates by absolute folder, and the precompiled templates used by deployments
+  private static final Map<String, Templates> sharedTemplates = new HashMap<String, Templates>();
+  private static final Set<Templates> acquiredTemplates = new HashSet<Templates>();
 
   public TemplateProcessor(Vertx vertx, String templateFolder)
   {
     this.vertx = vertx;
     this.templateFolder = templateFolder.endsWith("/") ? templateFolder : templateFolder + "/";
+    // Compilers are immutable, both escaping modes are prepared once so that rendering never mutates them
+    this.templates = new Templates(this.templateFolder, compiler().defaultValue("").escapeHTML(true),
+        compiler().defaultValue("").escapeHTML(false), true);
   }
 
   public TemplateProcessor(Vertx vertx, String templateFolder, boolean useCache)
@@ -78,15 +108,25 @@ public class TemplateProcessor
     return this;
   }
 
+  /**
+   * Set the value of the missing variables. The processor then has its own cache, which is not shared with the
+   * other processors of the folder.
+   */
   public TemplateProcessor defaultValue(String defaultValue)
   {
-    this.compiler = this.compiler.defaultValue(defaultValue);
+    final Templates t = this.templates;
+    this.templates = new Templates(this.templateFolder, t.escapingCompiler.defaultValue(defaultValue),
+        t.rawCompiler.defaultValue(defaultValue), false);
     return this;
   }
 
+  /**
+   * Set the escaping mode of the processTemplate methods without escaping argument.
+   * Prefer the methods taking the escaping mode when the processor is shared between concurrent renders.
+   */
   public TemplateProcessor escapeHTML(boolean enableHTMLEscaping)
   {
-    this.compiler = this.compiler.escapeHTML(enableHTMLEscaping);
+    this.escapeHTML = enableHTMLEscaping;
     return this;
   }
 
@@ -99,14 +139,127 @@ public class TemplateProcessor
 
   public void clearCache()
   {
-    this.cache.clear();
+    this.templates.clear();
+  }
+
+  /**
+   * Production mode : enable the cache and compile all the templates of the folder and its sub folders in a
+   * worker. The folder is then polled and the modified templates are compiled again and swapped in the cache,
+   * so the renders in progress keep the previous version.<p>
+   * The compiled templates and the polling are shared by all the processors of the folder, until the last
+   * verticle using them is undeployed, see {@link #undeploy(String)}.
+   * @param watchInterval Interval between two modification checks in milliseconds, zero or negative to disable
+   *                      the polling
+   */
+  public TemplateProcessor precompile(final long watchInterval)
+  {
+    if (!this.precompiled.compareAndSet(false, true))
+      return this;
+    this.enableCache(true);
+    final String folder = absolutePath(this.templateFolder);
+    Templates t = this.templates;
+    if (t.shareable)
+    {
+      synchronized (sharedTemplates)
+      {
+        final Templates shared = sharedTemplates.get(folder);
+        if (shared != null)
+          t = shared;
+        else
+          sharedTemplates.put(folder, t);
+      }
+      this.templates = t;
+    }
+    synchronized (acquiredTemplates)
+    {
+      acquiredTemplates.add(t);
+    }
+    t.acquire(this.vertx, folder, watchInterval);
+    return this;
+  }
+
+  /**
+   * Release the precompiled templates used by a verticle. The polling of a folder stops when its last verticle
+   * is undeployed.
+   * @param deploymentID The deployment id of the verticle
+   */
+  public static void undeploy(String deploymentID)
+  {
+    final List<Templates> released = new ArrayList<Templates>();
+    synchronized (acquiredTemplates)
+    {
+      for (Iterator<Templates> it = acquiredTemplates.iterator(); it.hasNext(); )
+      {
+        final Templates t = it.next();
+        if (t.release(deploymentID))
+        {
+          it.remove();
+          released.add(t);
+        }
+      }
+    }
+    synchronized (sharedTemplates)
+    {
+      sharedTemplates.values().removeAll(released);
+    }
+  }
+
+  public long getCacheHits()
+  {
+    return this.hits.get();
+  }
+
+  public long getCacheMisses()
+  {
+    return this.misses.get();
+  }
+
+  /**
+   * @return the number of templates compilations, including those of the other processors sharing the
+   * precompiled templates
+   */
+  public long getCompilations()
+  {
+    return this.templates.compilations.get();
+  }
+
+  /**
+   * @return the cumulated templates compilation time in nanoseconds
+   */
+  public long getCompileTime()
+  {
+    return this.templates.compileTime.get();
+  }
+
+  /**
+   * @return a compiler reading the Vert.x json values of the context directly
+   */
+  public static Mustache.Compiler compiler()
+  {
+    return Mustache.compiler().withCollector(new JsonCollector());
   }
 
   // ============================================= TEMPLATE PROCESSING ============================================
 
   public void processTemplate(String resourceName, JsonObject params, final Handler<String> handler)
   {
-    processTemplate(resourceName, params, null, new Handler<Writer>()
+    processTemplate(resourceName, params, this.escapeHTML, null, handler);
+  }
+
+  public void processTemplate(String resourceName, JsonObject params, Reader r, final Handler<Writer> handler)
+  {
+    processTemplate(resourceName, params, r, this.escapeHTML, null, handler);
+  }
+
+  /**
+   * Render a template with lambdas specific to this render, without mutating the processor.
+   * @param escapeHTML Escape the variables values
+   * @param lambdas Lambdas added to the context, overriding the shared ones. It can be null
+   */
+  public void processTemplate(String resourceName, JsonObject params, boolean escapeHTML,
+      Map<String, Mustache.Lambda> lambdas, final Handler<String> handler)
+  {
+    processTemplate(resourceName, params, null, escapeHTML, lambdas, new Handler<Writer>()
     {
       @Override
       public void handle(Writer w)
@@ -119,13 +272,17 @@ public class TemplateProcessor
     });
   }
 
-  public void processTemplate(String resourceName, JsonObject params, Reader r, final Handler<Writer> handler)
+  /**
+   * Render a template with lambdas specific to this render, without mutating the processor.
+   * @param escapeHTML Escape the variables values
+   * @param lambdas Lambdas added to the context, overriding the shared ones. It can be null
+   */
+  public void processTemplate(String resourceName, JsonObject params, Reader r, boolean escapeHTML,
+      Map<String, Mustache.Lambda> lambdas, final Handler<Writer> handler)
   {
-    final JsonObject ctxParams = (params == null) ? new JsonObject() : params.copy();
-    final Map<String, Object> ctx = JsonUtils.convertMap(ctxParams);
-    this.applyLambdas(ctx);
+    final Map<String, Object> ctx = context(params, lambdas);
 
-    getTemplate(resourceName, r, new Handler<Template>()
+    getTemplate(resourceName, r, escapeHTML, new Handler<Template>()
     {
       @Override
       public void handle(Template t)
@@ -150,26 +307,72 @@ public class TemplateProcessor
     });
   }
 
-  private void getTemplate(String resourceName, Reader r, final Handler<Template> handler)
+  /**
+   * Render a template into a writer in a worker thread, so a large output doesn't hold the event loop. The
+   * params are copied before, the caller can modify them while the template is rendered. The writer is closed
+   * when the template has been rendered.
+   * @param escapeHTML Escape the variables values
+   * @param lambdas Lambdas added to the context, overriding the shared ones. It can be null
+   * @param out The writer
+   * @param handler Called when the writer is closed, or with the error
+   */
+  public void processTemplate(String resourceName, JsonObject params, Reader r, boolean escapeHTML,
+      Map<String, Mustache.Lambda> lambdas, final Writer out, final Handler<AsyncResult<Void>> handler)
+  {
+    final Map<String, Object> ctx = context((params != null) ? params.copy() : null, lambdas);
+
+    getTemplate(resourceName, r, escapeHTML, new Handler<Template>()
+    {
+      @Override
+      public void handle(final Template t)
+      {
+        if (t == null)
+        {
+          handler.handle(Future.failedFuture("Template " + resourceName + " not found."));
+          return;
+        }
+        vertx.<Void>executeBlocking(future ->
+        {
+          try
+          {
+            t.execute(ctx, out);
+            out.close();
+            future.complete();
+          }
+          catch (Exception e)
+          {
+            future.fail(e);
+          }
+        }, false, handler);
+      }
+    });
+  }
+
+  private void getTemplate(String resourceName, Reader r, boolean escapeHTML, final Handler<Template> handler)
   {
+    final Templates t = this.templates;
+    final Mustache.Compiler compiler = escapeHTML ? t.escapingCompiler : t.rawCompiler;
     String path;
     if (resourceName != null && r != null && !resourceName.trim().isEmpty()) // Pourquoi a-t-on besoin que resourceName soit valide si r est déjà non-nul ?!
     {
-      handler.handle(compiler.compile(r));
+      handler.handle(t.compile(compiler, r));
       return;
     }
     else
       path = this.templateFolder + resourceName;
 
     final String p = absolutePath(path);
+    final String cacheKey = (escapeHTML ? ESCAPED : RAW) + p;
     if (this.useCache == true)
     {
-      Template cacheEntry = cache.get(p);
+      Template cacheEntry = t.cache.get(cacheKey);
       if(cacheEntry != null)
       {
+        hits.incrementAndGet();
         handler.handle(cacheEntry);
         return;
       }
+      misses.incrementAndGet();
     }
 
     this.vertx.fileSystem().readFile(p, new Handler<AsyncResult<Buffer>>()
@@ -179,10 +382,10 @@ public class TemplateProcessor
       {
         if (ar.succeeded())
         {
-          Template template = compiler.compile(ar.result().toString("UTF-8"));
+          Template template = t.compile(compiler, ar.result().toString("UTF-8"));
 
           if(useCache == true)
-            cache.put(p, template);
+            t.cache.put(cacheKey, template);
 
           handler.handle(template);
         }
@@ -194,11 +397,230 @@ public class TemplateProcessor
 
   // ================================================ PRIVATE UTILS ===============================================
 
-  private void applyLambdas(Map<String, Object> context)
+  private Map<String, Object> context(JsonObject params, Map<String, Mustache.Lambda> lambdas)
+  {
+    return new TemplateContext((params == null) ? new JsonObject() : params, this.templateLambdas, lambdas);
+  }
+
+  private static String deploymentID(Context context)
+  {
+    return (context.deploymentID() != null) ? context.deploymentID() : "";
+  }
+
+  /**
+   * Compiled templates of a folder, with the compilers used to compile them. The precompiled templates are
+   * polled by a timer of one of the verticles using them, moved to another verticle when it is undeployed.
+   */
+  private static final class Templates
   {
-    for(Map.Entry<String, Mustache.Lambda> entry : this.templateLambdas.entrySet())
+    private final String templateFolder;
+    private final Mustache.Compiler escapingCompiler;
+    private final Mustache.Compiler rawCompiler;
+    // only the templates compiled with the default compilers can be shared
+    private final boolean shareable;
+    private final ConcurrentMap<String, Template> cache = new ConcurrentHashMap<String, Template>();
+    private final ConcurrentMap<String, Long> lastModified = new ConcurrentHashMap<String, Long>();
+    private final AtomicBoolean scanning = new AtomicBoolean(false);
+    private final AtomicLong compilations = new AtomicLong();
+    private final AtomicLong compileTime = new AtomicLong();
+
+    // guarded by this
+    private Vertx vertx;
+    private String folder;
+    private final Map<String, Context> users = new HashMap<String, Context>();
+    private long watchInterval = 0;
+    private long timerId = -1;
+    private String timerOwner;
+    private long timerGeneration = 0;
+
+    private Templates(String templateFolder, Mustache.Compiler escapingCompiler, Mustache.Compiler rawCompiler,
+        boolean shareable)
+    {
+      this.templateFolder = templateFolder;
+      this.escapingCompiler = escapingCompiler;
+      this.rawCompiler = rawCompiler;
+      this.shareable = shareable;
+    }
+
+    private void clear()
+    {
+      this.cache.clear();
+      this.lastModified.clear();
+    }
+
+    private synchronized void acquire(Vertx vertx, final String folder, long watchInterval)
+    {
+      final Context context = vertx.getOrCreateContext();
+      if (!this.users.containsKey(deploymentID(context)))
+        this.users.put(deploymentID(context), context);
+      if (this.vertx == null)
+      {
+        this.vertx = vertx;
+        this.folder = folder;
+        scan(new Handler<Void>()
+        {
+          @Override
+          public void handle(Void v)
+          {
+            log.info("Templates of " + folder + " precompiled : " + lastModified.size() + " files in " +
+                (compileTime.get() / 1000000) + " ms.");
+          }
+        });
+      }
+      if (watchInterval > 0 && this.watchInterval <= 0)
+      {
+        this.watchInterval = watchInterval;
+        watch(context);
+      }
+    }
+
+    /**
+     * @return true if no verticle uses the templates anymore
+     */
+    private synchronized boolean release(String deploymentID)
+    {
+      if (this.users.remove(deploymentID) == null)
+        return false;
+      if (this.users.isEmpty())
+      {
+        unwatch();
+        this.watchInterval = 0;
+        return true;
+      }
+      if (this.watchInterval > 0 && deploymentID.equals(this.timerOwner))
+      {
+        // the timers of a verticle are cancelled when it is undeployed
+        unwatch();
+        watch(this.users.values().iterator().next());
+      }
+      return false;
+    }
+
+    private void watch(Context context)
+    {
+      final long generation = ++this.timerGeneration;
+      this.timerOwner = deploymentID(context);
+      context.runOnContext(new Handler<Void>()
+      {
+        @Override
+        public void handle(Void v)
+        {
+          synchronized (Templates.this)
+          {
+            if (generation != timerGeneration)
+              return;
+            timerId = vertx.setPeriodic(watchInterval, new Handler<Long>()
+            {
+              @Override
+              public void handle(Long id)
+              {
+                scan(null);
+              }
+            });
+          }
+        }
+      });
+    }
+
+    private void unwatch()
+    {
+      this.timerGeneration++;
+      this.timerOwner = null;
+      if (this.timerId >= 0)
+      {
+        this.vertx.cancelTimer(this.timerId);
+        this.timerId = -1;
+      }
+    }
+
+    private Template compile(Mustache.Compiler compiler, Object source)
+    {
+      final long start = System.nanoTime();
+      try
+      {
+        return (source instanceof Reader) ? compiler.compile((Reader) source) : compiler.compile((String) source);
+      }
+      finally
+      {
+        compileTime.addAndGet(System.nanoTime() - start);
+        compilations.incrementAndGet();
+      }
+    }
+
+    private void scan(final Handler<Void> handler)
+    {
+      if (!this.scanning.compareAndSet(false, true))
+        return;
+      final String folder = this.folder;
+      this.vertx.executeBlocking(future ->
+      {
+        try
+        {
+          scanFolder(folder);
+        }
+        finally
+        {
+          scanning.set(false);
+        }
+        future.complete();
+      }, false, ar ->
+      {
+        if (ar.failed())
+          log.error("Error scanning templates of " + folder, ar.cause());
+        if (handler != null)
+          handler.handle(null);
+      });
+    }
+
+    private void scanFolder(String folder)
     {
-      context.put(entry.getKey(), entry.getValue());
+      final Path root = Paths.get(folder);
+      if (!Files.isDirectory(root))
+        return;
+      final Set<String> files = new HashSet<String>();
+      try (Stream<Path> paths = Files.walk(root))
+      {
+        paths.filter(Files::isRegularFile).forEach(path ->
+        {
+          // same key as the one computed by getTemplate from the resource name
+          final String p = absolutePath(this.templateFolder + root.relativize(path).toString().replace('\\', '/'));
+          files.add(p);
+          try
+          {
+            final long mtime = Files.getLastModifiedTime(path).toMillis();
+            final Long previous = lastModified.get(p);
+            if (previous != null && previous == mtime)
+              return;
+            lastModified.put(p, mtime);
+            final String content = new String(Files.readAllBytes(path), StandardCharsets.UTF_8);
+            cache.put(ESCAPED + p, compile(escapingCompiler, content));
+            if (cache.containsKey(RAW + p))
+              cache.put(RAW + p, compile(rawCompiler, content));
+            if (previous != null)
+              log.info("Template " + p + " compiled again.");
+          }
+          catch (IOException | RuntimeException e)
+          {
+            cache.remove(ESCAPED + p);
+            cache.remove(RAW + p);
+            log.warn("Template " + p + " can't be precompiled : " + e.getMessage());
+          }
+        });
+      }
+      catch (IOException e)
+      {
+        log.error("Error listing templates of " + folder, e);
+        return;
+      }
+      for (String p : lastModified.keySet())
+      {
+        if (!files.contains(p))
+        {
+          lastModified.remove(p);
+          cache.remove(ESCAPED + p);
+          cache.remove(RAW + p);
+        }
+      }
     }
   }
 }
\ No newline at end of file
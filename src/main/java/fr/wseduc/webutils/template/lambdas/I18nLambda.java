@@ -22,14 +22,24 @@ package fr.wseduc.webutils.template.lambdas;
 import java.io.Writer;
 import java.util.Locale;
 import java.io.IOException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import com.samskivert.mustache.Mustache;
 import com.samskivert.mustache.Template;
 
 import fr.wseduc.webutils.I18n;
+import fr.wseduc.webutils.template.TemplateProcessor;
 
 public class I18nLambda implements Mustache.Lambda
 {
+  private static final Mustache.Compiler COMPILER = TemplateProcessor.compiler();
+  private static final int MAX_TEMPLATES = 4096;
+  // Compiled translations, shared by all the lambdas. Keyed by translated text so that the domains, themes
+  // and locales sharing a translation share the template.
+  private static final ConcurrentMap<String, Template> templates = new ConcurrentHashMap<String, Template>();
+  private static volatile long templatesVersion = -1;
+
   private final I18n i18n;
 
   private final String host;
@@ -65,7 +75,27 @@ public class I18nLambda implements Mustache.Lambda
       text = i18n.translate(key, host, theme, locale);
 
     // This will handle translation units with embedded mustache templates
-    Mustache.compiler().compile(text).execute(frag.context(), out);
+    if (text.indexOf("{{") < 0)
+      out.write(text);
+    else
+      frag.executeTemplate(template(text), out);
     //out.write(text);
   }
-}
\ No newline at end of file
+
+  private Template template(String text)
+  {
+    final long version = i18n.getVersion();
+    if (version != templatesVersion || templates.size() >= MAX_TEMPLATES)
+    {
+      templates.clear();
+      templatesVersion = version;
+    }
+    Template template = templates.get(text);
+    if (template == null)
+    {
+      template = COMPILER.compile(text);
+      templates.put(text, template);
+    }
+    return template;
+  }
+}
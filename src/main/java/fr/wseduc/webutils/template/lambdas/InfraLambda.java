@@ -21,23 +21,36 @@ package fr.wseduc.webutils.template.lambdas;
 
 import java.io.Writer;
 import java.io.IOException;
+import java.util.Map;
 
 import com.samskivert.mustache.Mustache;
 import com.samskivert.mustache.Template;
+import fr.wseduc.webutils.http.AssetManifest;
 
 public class InfraLambda implements Mustache.Lambda
 {
   private boolean https;
   private String host;
   private String rootFolderPath;
+  private Map<String, String> manifest;
   private boolean useDefaultPort;
 
   public InfraLambda(boolean https, String host, String rootFolderPath, boolean useDefaultPort)
+  {
+    this(https, host, rootFolderPath, useDefaultPort, null);
+  }
+
+  /**
+   * @param manifest The content hashes of the static resources, appended to their urls, can be null
+   */
+  public InfraLambda(boolean https, String host, String rootFolderPath, boolean useDefaultPort,
+      Map<String, String> manifest)
   {
     this.https = https;
     this.host = host;
     this.rootFolderPath = rootFolderPath;
     this.useDefaultPort = useDefaultPort;
+    this.manifest = manifest;
   }
 
   @Override
@@ -55,7 +68,7 @@ public class InfraLambda implements Mustache.Lambda
     }
     return protocol
         + staticHost
-        + (this.rootFolderPath.startsWith("/") ? this.rootFolderPath : "/" + this.rootFolderPath)
-        + "/" + path;
+        + AssetManifest.versioned(this.manifest,
+            (this.rootFolderPath.startsWith("/") ? this.rootFolderPath : "/" + this.rootFolderPath) + "/" + path);
   }
 }
\ No newline at end of file
@@ -21,21 +21,33 @@ package fr.wseduc.webutils.template.lambdas;
 
 import java.io.Writer;
 import java.io.IOException;
+import java.util.Map;
 
 import com.samskivert.mustache.Mustache;
 import com.samskivert.mustache.Template;
+import fr.wseduc.webutils.http.AssetManifest;
 
 public class StaticLambda implements Mustache.Lambda
 {
   private boolean https;
   private String host;
   private String rootFolderPath;
+  private Map<String, String> manifest;
 
   public StaticLambda(boolean https, String host, String rootFolderPath)
+  {
+    this(https, host, rootFolderPath, null);
+  }
+
+  /**
+   * @param manifest The content hashes of the static resources, appended to their urls, can be null
+   */
+  public StaticLambda(boolean https, String host, String rootFolderPath, Map<String, String> manifest)
   {
     this.https = https;
     this.host = host;
     this.rootFolderPath = rootFolderPath;
+    this.manifest = manifest;
   }
 
   @Override
@@ -49,7 +61,7 @@ public class StaticLambda implements Mustache.Lambda
     String protocol = this.https ? "https://" : "http://";
     return protocol
         + this.host
-        + (this.rootFolderPath.startsWith("/") ? this.rootFolderPath : "/" + this.rootFolderPath)
-        + "/" + path;
+        + AssetManifest.versioned(this.manifest,
+            (this.rootFolderPath.startsWith("/") ? this.rootFolderPath : "/" + this.rootFolderPath) + "/" + path);
   }
 }
\ No newline at end of file
@@ -0,0 +1,601 @@
+/*
+ * Copyright © WebServices pour l'Éducation, 2014
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fr.wseduc.webutils.validation;
+
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URLDecoder;
+import java.io.UnsupportedEncodingException;
+import java.time.OffsetDateTime;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * JSON Schema compiled into a tree of checks, to validate documents in process.<p>
+ * Supports the validation keywords of draft 04 (and const) with local references (<code>#/definitions/...</code>).
+ * Remote references throw an {@link IllegalArgumentException} at compile time. Unknown keywords and formats are
+ * ignored, like the specification requires.<p>
+ * A compiled schema is immutable and can be shared between threads.
+ */
+final class JsonSchema {
+
+	private static final Pattern EMAIL = Pattern.compile("^[^@\\s]+@[^@\\s]+$");
+	private static final Pattern IPV4 = Pattern.compile("^((25[0-5]|2[0-4]\\d|1\\d\\d|[1-9]?\\d)\\.){3}" +
+			"(25[0-5]|2[0-4]\\d|1\\d\\d|[1-9]?\\d)$");
+
+	private final JsonObject root;
+	private final Map<String, Node> nodes = new HashMap<>();
+	private final Node node;
+
+	private JsonSchema(JsonObject root) {
+		this.root = root;
+		this.node = compile(root, "");
+	}
+
+	/**
+	 * @param schema The json schema
+	 * @return the compiled schema
+	 * @throws IllegalArgumentException if the schema is invalid or uses a remote reference
+	 */
+	static JsonSchema compile(JsonObject schema) {
+		return new JsonSchema(schema.copy());
+	}
+
+	/**
+	 * @param instance The document to validate
+	 * @return the validation errors, empty if the document is valid
+	 */
+	JsonArray validate(Object instance) {
+		final JsonArray report = new JsonArray();
+		node.validate(instance, "", report);
+		return report;
+	}
+
+	private interface Check {
+		void validate(Object value, String pointer, JsonArray report);
+	}
+
+	private static final class Node implements Check {
+
+		private final String pointer;
+		private Check[] checks = new Check[0];
+
+		private Node(String pointer) {
+			this.pointer = pointer;
+		}
+
+		@Override
+		public void validate(Object value, String instancePointer, JsonArray report) {
+			for (Check check : checks) {
+				check.validate(value, instancePointer, report);
+			}
+		}
+
+		private boolean isValid(Object value, String instancePointer) {
+			final JsonArray report = new JsonArray();
+			validate(value, instancePointer, report);
+			return report.isEmpty();
+		}
+
+		private void error(JsonArray report, String instancePointer, String keyword, String message) {
+			report.add(new JsonObject()
+					.put("level", "error")
+					.put("schema", new JsonObject().put("pointer", pointer))
+					.put("instance", new JsonObject().put("pointer", instancePointer))
+					.put("domain", "validation")
+					.put("keyword", keyword)
+					.put("message", message));
+		}
+
+	}
+
+	private Node compile(Object schema, String pointer) {
+		Node node = nodes.get(pointer);
+		if (node != null) {
+			return node;
+		}
+		if (!(schema instanceof JsonObject)) {
+			throw new IllegalArgumentException("Invalid schema at " + pointer);
+		}
+		final JsonObject s = (JsonObject) schema;
+		node = new Node(pointer);
+		nodes.put(pointer, node);
+		final List<Check> checks = new ArrayList<>();
+		if (s.getValue("$ref") != null) {
+			checks.add(reference(s.getString("$ref")));
+		} else {
+			type(s, node, checks);
+			values(s, node, checks);
+			strings(s, node, checks);
+			numbers(s, node, checks);
+			objects(s, pointer, node, checks);
+			arrays(s, pointer, node, checks);
+			combinations(s, pointer, node, checks);
+		}
+		node.checks = checks.toArray(new Check[checks.size()]);
+		return node;
+	}
+
+	private Check reference(String ref) {
+		if (!ref.startsWith("#")) {
+			throw new IllegalArgumentException("Unsupported remote reference : " + ref);
+		}
+		String pointer = ref.substring(1);
+		try {
+			pointer = URLDecoder.decode(pointer.replace("+", "%2B"), "UTF-8");
+		} catch (UnsupportedEncodingException e) {
+			throw new IllegalArgumentException(e);
+		}
+		Object target = root;
+		if (!pointer.isEmpty()) {
+			for (String token : pointer.substring(1).split("/", -1)) {
+				token = token.replace("~1", "/").replace("~0", "~");
+				if (target instanceof JsonObject) {
+					target = ((JsonObject) target).getValue(token);
+				} else if (target instanceof JsonArray) {
+					try {
+						target = ((JsonArray) target).getValue(Integer.parseInt(token));
+					} catch (NumberFormatException | IndexOutOfBoundsException e) {
+						target = null;
+					}
+				} else {
+					target = null;
+				}
+			}
+		}
+		if (target == null) {
+			throw new IllegalArgumentException("Unresolved reference : " + ref);
+		}
+		return compile(target, pointer);
+	}
+
+	private void type(JsonObject s, final Node node, List<Check> checks) {
+		final Object type = s.getValue("type");
+		if (type == null) {
+			return;
+		}
+		final Set<String> types = new HashSet<>();
+		if (type instanceof JsonArray) {
+			for (Object t : (JsonArray) type) {
+				types.add((String) t);
+			}
+		} else {
+			types.add((String) type);
+		}
+		final String expected = String.join(", ", types);
+		checks.add((value, pointer, report) -> {
+			final String t = typeOf(value);
+			if (!types.contains(t) && !("integer".equals(t) && types.contains("number"))) {
+				node.error(report, pointer, "type", "instance type (" + t + ") does not match any allowed " +
+						"primitive type (allowed: [" + expected + "])");
+			}
+		});
+	}
+
+	private void values(JsonObject s, final Node node, List<Check> checks) {
+		final JsonArray values = s.getJsonArray("enum");
+		if (values != null) {
+			checks.add((value, pointer, report) -> {
+				for (Object v : values) {
+					if (jsonEquals(v, value)) {
+						return;
+					}
+				}
+				node.error(report, pointer, "enum", "instance value not found in enum");
+			});
+		}
+		if (s.containsKey("const")) {
+			final Object constant = s.getValue("const");
+			checks.add((value, pointer, report) -> {
+				if (!jsonEquals(constant, value)) {
+					node.error(report, pointer, "const", "instance value is not the constant");
+				}
+			});
+		}
+	}
+
+	private void strings(JsonObject s, final Node node, List<Check> checks) {
+		final Integer minLength = s.getInteger("minLength");
+		final Integer maxLength = s.getInteger("maxLength");
+		if (minLength != null || maxLength != null) {
+			checks.add((value, pointer, report) -> {
+				if (!(value instanceof String)) return;
+				final String v = (String) value;
+				final int length = v.codePointCount(0, v.length());
+				if (minLength != null && length < minLength) {
+					node.error(report, pointer, "minLength", "string is too short (" + length +
+							" chars), minimum " + minLength);
+				}
+				if (maxLength != null && length > maxLength) {
+					node.error(report, pointer, "maxLength", "string is too long (" + length +
+							" chars), maximum " + maxLength);
+				}
+			});
+		}
+		final String regex = s.getString("pattern");
+		if (regex != null) {
+			final Pattern pattern = Pattern.compile(regex);
+			checks.add((value, pointer, report) -> {
+				if (value instanceof String && !pattern.matcher((String) value).find()) {
+					node.error(report, pointer, "pattern", "string does not match pattern " + regex);
+				}
+			});
+		}
+		final String format = s.getString("format");
+		if (format != null) {
+			checks.add((value, pointer, report) -> {
+				if (value instanceof String && !isValidFormat(format, (String) value)) {
+					node.error(report, pointer, "format", "string is not a valid " + format);
+				}
+			});
+		}
+	}
+
+	private void numbers(JsonObject s, final Node node, List<Check> checks) {
+		final BigDecimal minimum = decimal(s.getValue("minimum"));
+		final BigDecimal maximum = decimal(s.getValue("maximum"));
+		final Object exclusiveMin = s.getValue("exclusiveMinimum");
+		final Object exclusiveMax = s.getValue("exclusiveMaximum");
+		final BigDecimal min = (exclusiveMin instanceof Number) ? decimal(exclusiveMin) : minimum;
+		final BigDecimal max = (exclusiveMax instanceof Number) ? decimal(exclusiveMax) : maximum;
+		final boolean excludeMin = (exclusiveMin instanceof Number) || Boolean.TRUE.equals(exclusiveMin);
+		final boolean excludeMax = (exclusiveMax instanceof Number) || Boolean.TRUE.equals(exclusiveMax);
+		final BigDecimal multipleOf = decimal(s.getValue("multipleOf"));
+		if (min == null && max == null && multipleOf == null) {
+			return;
+		}
+		checks.add((value, pointer, report) -> {
+			if (!(value instanceof Number)) return;
+			final BigDecimal v = decimal(value);
+			if (min != null && (excludeMin ? v.compareTo(min) <= 0 : v.compareTo(min) < 0)) {
+				node.error(report, pointer, excludeMin ? "exclusiveMinimum" : "minimum",
+						"numeric instance is lower than the required minimum (minimum: " + min + ", found: " + v + ")");
+			}
+			if (max != null && (excludeMax ? v.compareTo(max) >= 0 : v.compareTo(max) > 0)) {
+				node.error(report, pointer, excludeMax ? "exclusiveMaximum" : "maximum",
+						"numeric instance is greater than the required maximum (maximum: " + max + ", found: " + v + ")");
+			}
+			if (multipleOf != null && v.remainder(multipleOf).signum() != 0) {
+				node.error(report, pointer, "multipleOf", "remainder of division is not zero (" + v + " / " +
+						multipleOf + ")");
+			}
+		});
+	}
+
+	private void objects(JsonObject s, String schemaPointer, final Node node, List<Check> checks) {
+		final Map<String, Node> properties = new HashMap<>();
+		final JsonObject p = s.getJsonObject("properties");
+		if (p != null) {
+			for (String name : p.fieldNames()) {
+				properties.put(name, compile(p.getValue(name), schemaPointer + "/properties/" + escape(name)));
+			}
+		}
+		final Map<Pattern, Node> patternProperties = new HashMap<>();
+		final JsonObject pp = s.getJsonObject("patternProperties");
+		if (pp != null) {
+			for (String regex : pp.fieldNames()) {
+				patternProperties.put(Pattern.compile(regex),
+						compile(pp.getValue(regex), schemaPointer + "/patternProperties/" + escape(regex)));
+			}
+		}
+		final Object additional = s.getValue("additionalProperties");
+		final boolean noAdditional = Boolean.FALSE.equals(additional);
+		final Node additionalProperties = (additional instanceof JsonObject) ?
+				compile(additional, schemaPointer + "/additionalProperties") : null;
+		final JsonArray required = s.getJsonArray("required");
+		final Integer minProperties = s.getInteger("minProperties");
+		final Integer maxProperties = s.getInteger("maxProperties");
+		final Map<String, Object> dependencies = new HashMap<>();
+		final JsonObject d = s.getJsonObject("dependencies");
+		if (d != null) {
+			for (String name : d.fieldNames()) {
+				final Object dependency = d.getValue(name);
+				dependencies.put(name, (dependency instanceof JsonArray) ? dependency :
+						compile(dependency, schemaPointer + "/dependencies/" + escape(name)));
+			}
+		}
+		if (properties.isEmpty() && patternProperties.isEmpty() && !noAdditional && additionalProperties == null &&
+				required == null && minProperties == null && maxProperties == null && dependencies.isEmpty()) {
+			return;
+		}
+		checks.add((value, pointer, report) -> {
+			if (!(value instanceof JsonObject)) return;
+			final JsonObject o = (JsonObject) value;
+			if (required != null) {
+				for (Object name : required) {
+					if (!o.containsKey((String) name)) {
+						node.error(report, pointer, "required", "object has missing required property (\"" +
+								name + "\")");
+					}
+				}
+			}
+			if (minProperties != null && o.size() < minProperties) {
+				node.error(report, pointer, "minProperties", "object has too few properties (found " + o.size() +
+						", minimum " + minProperties + ")");
+			}
+			if (maxProperties != null && o.size() > maxProperties) {
+				node.error(report, pointer, "maxProperties", "object has too many properties (found " + o.size() +
+						", maximum " + maxProperties + ")");
+			}
+			for (String name : o.fieldNames()) {
+				final Object v = o.getValue(name);
+				final String childPointer = pointer + "/" + escape(name);
+				boolean matched = false;
+				final Node property = properties.get(name);
+				if (property != null) {
+					matched = true;
+					property.validate(v, childPointer, report);
+				}
+				for (Map.Entry<Pattern, Node> e : patternProperties.entrySet()) {
+					if (e.getKey().matcher(name).find()) {
+						matched = true;
+						e.getValue().validate(v, childPointer, report);
+					}
+				}
+				if (!matched) {
+					if (noAdditional) {
+						node.error(report, pointer, "additionalProperties", "object instance has properties " +
+								"which are not allowed by the schema: [\"" + name + "\"]");
+					} else if (additionalProperties != null) {
+						additionalProperties.validate(v, childPointer, report);
+					}
+				}
+				final Object dependency = dependencies.get(name);
+				if (dependency instanceof JsonArray) {
+					for (Object dependent : (JsonArray) dependency) {
+						if (!o.containsKey((String) dependent)) {
+							node.error(report, pointer, "dependencies", "property \"" + name +
+									"\" requires property \"" + dependent + "\"");
+						}
+					}
+				} else if (dependency != null) {
+					((Node) dependency).validate(o, pointer, report);
+				}
+			}
+		});
+	}
+
+	private void arrays(JsonObject s, String schemaPointer, final Node node, List<Check> checks) {
+		final Object items = s.getValue("items");
+		final Node itemsNode = (items instanceof JsonObject) ? compile(items, schemaPointer + "/items") : null;
+		final Node[] tuple;
+		if (items instanceof JsonArray) {
+			final JsonArray a = (JsonArray) items;
+			tuple = new Node[a.size()];
+			for (int i = 0; i < tuple.length; i++) {
+				tuple[i] = compile(a.getValue(i), schemaPointer + "/items/" + i);
+			}
+		} else {
+			tuple = null;
+		}
+		final Object additional = s.getValue("additionalItems");
+		final boolean noAdditional = tuple != null && Boolean.FALSE.equals(additional);
+		final Node additionalItems = (tuple != null && additional instanceof JsonObject) ?
+				compile(additional, schemaPointer + "/additionalItems") : null;
+		final Integer minItems = s.getInteger("minItems");
+		final Integer maxItems = s.getInteger("maxItems");
+		final boolean uniqueItems = Boolean.TRUE.equals(s.getValue("uniqueItems"));
+		if (itemsNode == null && tuple == null && minItems == null && maxItems == null && !uniqueItems) {
+			return;
+		}
+		checks.add((value, pointer, report) -> {
+			if (!(value instanceof JsonArray)) return;
+			final JsonArray a = (JsonArray) value;
+			if (minItems != null && a.size() < minItems) {
+				node.error(report, pointer, "minItems", "array is too short: must have at least " + minItems +
+						" elements but instance has " + a.size() + " elements");
+			}
+			if (maxItems != null && a.size() > maxItems) {
+				node.error(report, pointer, "maxItems", "array is too long: must have at most " + maxItems +
+						" elements but instance has " + a.size() + " elements");
+			}
+			for (int i = 0; i < a.size(); i++) {
+				final Object item = a.getValue(i);
+				if (itemsNode != null) {
+					itemsNode.validate(item, pointer + "/" + i, report);
+				} else if (tuple != null && i < tuple.length) {
+					tuple[i].validate(item, pointer + "/" + i, report);
+				} else if (noAdditional) {
+					node.error(report, pointer, "additionalItems", "array has too many elements (maximum " +
+							tuple.length + ")");
+					break;
+				} else if (additionalItems != null) {
+					additionalItems.validate(item, pointer + "/" + i, report);
+				}
+				if (uniqueItems) {
+					for (int j = 0; j < i; j++) {
+						if (jsonEquals(a.getValue(j), item)) {
+							node.error(report, pointer, "uniqueItems", "array must not contain duplicate elements");
+							break;
+						}
+					}
+				}
+			}
+		});
+	}
+
+	private void combinations(JsonObject s, String schemaPointer, final Node node, List<Check> checks) {
+		final Node[] allOf = nodes(s.getJsonArray("allOf"), schemaPointer + "/allOf/");
+		if (allOf != null) {
+			checks.add((value, pointer, report) -> {
+				for (Node n : allOf) {
+					n.validate(value, pointer, report);
+				}
+			});
+		}
+		final Node[] anyOf = nodes(s.getJsonArray("anyOf"), schemaPointer + "/anyOf/");
+		if (anyOf != null) {
+			checks.add((value, pointer, report) -> {
+				for (Node n : anyOf) {
+					if (n.isValid(value, pointer)) {
+						return;
+					}
+				}
+				node.error(report, pointer, "anyOf", "instance failed to match at least one required schema " +
+						"among " + anyOf.length);
+			});
+		}
+		final Node[] oneOf = nodes(s.getJsonArray("oneOf"), schemaPointer + "/oneOf/");
+		if (oneOf != null) {
+			checks.add((value, pointer, report) -> {
+				int matched = 0;
+				for (Node n : oneOf) {
+					if (n.isValid(value, pointer)) {
+						matched++;
+					}
+				}
+				if (matched != 1) {
+					node.error(report, pointer, "oneOf", "instance failed to match exactly one schema (matched " +
+							matched + " out of " + oneOf.length + ")");
+				}
+			});
+		}
+		if (s.getValue("not") != null) {
+			final Node not = compile(s.getValue("not"), schemaPointer + "/not");
+			checks.add((value, pointer, report) -> {
+				if (not.isValid(value, pointer)) {
+					node.error(report, pointer, "not", "instance matched a schema which it should not");
+				}
+			});
+		}
+	}
+
+	private Node[] nodes(JsonArray schemas, String pointerPrefix) {
+		if (schemas == null) {
+			return null;
+		}
+		final Node[] n = new Node[schemas.size()];
+		for (int i = 0; i < n.length; i++) {
+			n[i] = compile(schemas.getValue(i), pointerPrefix + i);
+		}
+		return n;
+	}
+
+	private static String escape(String token) {
+		return token.replace("~", "~0").replace("/", "~1");
+	}
+
+	private static String typeOf(Object value) {
+		if (value == null) {
+			return "null";
+		} else if (value instanceof Boolean) {
+			return "boolean";
+		} else if (value instanceof String) {
+			return "string";
+		} else if (value instanceof Integer || value instanceof Long || value instanceof Short ||
+				value instanceof Byte || value instanceof BigInteger) {
+			return "integer";
+		} else if (value instanceof Number) {
+			return "number";
+		} else if (value instanceof JsonObject) {
+			return "object";
+		} else if (value instanceof JsonArray) {
+			return "array";
+		}
+		return value.getClass().getSimpleName();
+	}
+
+	private static BigDecimal decimal(Object value) {
+		if (value instanceof BigDecimal) {
+			return (BigDecimal) value;
+		} else if (value instanceof BigInteger) {
+			return new BigDecimal((BigInteger) value);
+		} else if (value instanceof Integer || value instanceof Long || value instanceof Short ||
+				value instanceof Byte) {
+			return BigDecimal.valueOf(((Number) value).longValue());
+		} else if (value instanceof Number) {
+			return new BigDecimal(value.toString());
+		}
+		return null;
+	}
+
+	private static boolean jsonEquals(Object a, Object b) {
+		if (a instanceof Number && b instanceof Number) {
+			return decimal(a).compareTo(decimal(b)) == 0;
+		}
+		if (a instanceof JsonObject && b instanceof JsonObject) {
+			final JsonObject o1 = (JsonObject) a;
+			final JsonObject o2 = (JsonObject) b;
+			if (!o1.fieldNames().equals(o2.fieldNames())) {
+				return false;
+			}
+			for (String name : o1.fieldNames()) {
+				if (!jsonEquals(o1.getValue(name), o2.getValue(name))) {
+					return false;
+				}
+			}
+			return true;
+		}
+		if (a instanceof JsonArray && b instanceof JsonArray) {
+			final JsonArray a1 = (JsonArray) a;
+			final JsonArray a2 = (JsonArray) b;
+			if (a1.size() != a2.size()) {
+				return false;
+			}
+			for (int i = 0; i < a1.size(); i++) {
+				if (!jsonEquals(a1.getValue(i), a2.getValue(i))) {
+					return false;
+				}
+			}
+			return true;
+		}
+		return (a == null) ? b == null : a.equals(b);
+	}
+
+	private static boolean isValidFormat(String format, String value) {
+		switch (format) {
+			case "date-time":
+				try {
+					OffsetDateTime.parse(value);
+					return true;
+				} catch (DateTimeParseException e) {
+					return false;
+				}
+			case "email":
+				return EMAIL.matcher(value).matches();
+			case "ipv4":
+				return IPV4.matcher(value).matches();
+			case "uri":
+				try {
+					return new URI(value).isAbsolute();
+				} catch (URISyntaxException e) {
+					return false;
+				}
+			case "regex":
+				try {
+					Pattern.compile(value);
+					return true;
+				} catch (PatternSyntaxException e) {
+					return false;
+				}
+			default:
+				return true;
+		}
+	}
+
+}
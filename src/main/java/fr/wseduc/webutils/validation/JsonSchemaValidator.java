@@ -16,6 +16,7 @@
 
 package fr.wseduc.webutils.validation;
 
+import fr.wseduc.webutils.DefaultAsyncResult;
 import fr.wseduc.webutils.data.FileResolver;
 import io.vertx.core.AsyncResult;
 import io.vertx.core.Handler;
@@ -25,12 +26,15 @@ import io.vertx.core.eventbus.DeliveryOptions;
 import io.vertx.core.eventbus.EventBus;
 import io.vertx.core.eventbus.Message;
 import io.vertx.core.file.FileSystem;
+import io.vertx.core.json.JsonArray;
 import io.vertx.core.json.JsonObject;
 import io.vertx.core.logging.Logger;
 import io.vertx.core.logging.LoggerFactory;
 
 import java.io.File;
 import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 
 public class JsonSchemaValidator {
@@ -38,6 +42,7 @@ public class JsonSchemaValidator {
 	private static final String JSONSCHEMA_PATH = FileResolver.absolutePath("jsonschema");
 	private String address;
 	private EventBus eb;
+	private final ConcurrentMap<String, JsonSchema> schemas = new ConcurrentHashMap<>();
 	private static final Logger log = LoggerFactory.getLogger(JsonSchemaValidator.class);
 
 	private JsonSchemaValidator() {}
@@ -78,12 +83,15 @@ public class JsonSchemaValidator {
 									@Override
 									public void handle(AsyncResult<Buffer> event) {
 										if (event.succeeded()) {
-											JsonObject j = new JsonObject()
-													.put("action","addSchema")
-													.put("key", key)
-													.put("jsonSchema",
-															new JsonObject(event.result().toString()));
-											eb.publish(address, j);
+											final JsonObject jsonSchema = new JsonObject(event.result().toString());
+											addSchema(key, jsonSchema);
+											if (eb != null && address != null) {
+												JsonObject j = new JsonObject()
+														.put("action","addSchema")
+														.put("key", key)
+														.put("jsonSchema", jsonSchema);
+												eb.publish(address, j);
+											}
 										} else {
 											log.error("Error loading json schema : " + path, event.cause());
 										}
@@ -99,6 +107,70 @@ public class JsonSchemaValidator {
 		});
 	}
 
+	/**
+	 * Compile a schema to validate the documents in process with {@link #validateJson(String, JsonObject, Handler)}.
+	 * If the schema can't be compiled (remote reference...), the validation is delegated to the validator
+	 * module on the event bus.
+	 * @param key The schema key
+	 * @param jsonSchema The json schema
+	 * @return true if the schema has been compiled
+	 */
+	public boolean addSchema(String key, JsonObject jsonSchema) {
+		try {
+			schemas.put(key, JsonSchema.compile(jsonSchema));
+			return true;
+		} catch (RuntimeException e) {
+			schemas.remove(key);
+			if (eb != null && address != null) {
+				log.warn("Json schema " + key + " can't be compiled, it will be validated by " + address +
+						" : " + e.getMessage());
+			} else {
+				log.warn("Json schema " + key + " can't be compiled and no validator address is configured, " +
+						"the documents validated against it will be rejected : " + e.getMessage());
+			}
+			return false;
+		}
+	}
+
+	/**
+	 * Validate a document against a schema. Compiled schemas are validated in the calling thread, the other ones
+	 * are sent to the validator module.
+	 * @param schema The schema key
+	 * @param json The document
+	 * @param handler Receive the validation reply : <code>status</code> ok or error, with the error
+	 *                <code>message</code> and <code>report</code>
+	 */
+	public void validateJson(String schema, JsonObject json, Handler<AsyncResult<JsonObject>> handler) {
+		final JsonSchema jsonSchema = schemas.get(schema);
+		if (jsonSchema != null) {
+			handler.handle(new DefaultAsyncResult<>(reply(jsonSchema.validate(json))));
+		} else if (eb != null && address != null) {
+			validate(schema, json, event -> {
+				if (event.succeeded()) {
+					handler.handle(new DefaultAsyncResult<>(event.result().body()));
+				} else {
+					handler.handle(new DefaultAsyncResult<>(event.cause()));
+				}
+			});
+		} else {
+			handler.handle(new DefaultAsyncResult<>(new IllegalArgumentException("Unknown json schema : " + schema)));
+		}
+	}
+
+	private static JsonObject reply(JsonArray report) {
+		if (report.isEmpty()) {
+			return new JsonObject().put("status", "ok");
+		}
+		final JsonObject first = report.getJsonObject(0);
+		final String error = first.getString("message") + " (" +
+				first.getJsonObject("instance").getString("pointer") + ")";
+		return new JsonObject()
+				.put("status", "error")
+				.put("message", "Invalid json : " + error)
+				.put("error", error)
+				.put("report", report);
+	}
+
 	public void validate(String schema, JsonObject json, Handler<AsyncResult<Message<JsonObject>>> handler) {
 		JsonObject j = new JsonObject()
 				.put("action", "validate")
@@ -0,0 +1,298 @@
+/*
+ * Copyright (c) 2011-2013 The original author or authors
+ * ------------------------------------------------------
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Apache License v2.0 which accompanies this distribution.
+ *
+ *     The Eclipse Public License is available at
+ *     http://www.eclipse.org/legal/epl-v10.html
+ *
+ *     The Apache License v2.0 is available at
+ *     http://www.opensource.org/licenses/apache2.0.php
+ *
+ * You may elect to redistribute this code under either of these licenses.
+ */
+
+package org.vertx.java.core.http;
+
+import io.vertx.core.MultiMap;
+import io.vertx.core.http.HttpServerRequest;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Read view of the request params followed by the params extracted from the path.<p>
+ * Path params are only kept as offsets in the path until they are read. The view behaves like the request params
+ * after an <code>addAll</code> of the path params : query params come first and take precedence in {@link #get(String)}.
+ * The first modification copies the path params into the request params and the view then only delegates to them.
+ */
+class PathParams implements MultiMap {
+
+	private final HttpServerRequest request;
+	private final String path;
+	private final String[] names;
+	private final int[] captures;
+	private final String[] values;
+	private MultiMap params;
+	private boolean merged = false;
+
+	PathParams(HttpServerRequest request, String path, String[] names, int[] captures) {
+		this.request = request;
+		this.path = path;
+		this.names = names;
+		this.captures = captures;
+		this.values = new String[names.length];
+	}
+
+	private MultiMap params() {
+		if (params == null) {
+			params = request.params();
+		}
+		return params;
+	}
+
+	private String value(int i) {
+		if (values[i] == null && captures[2 * i] >= 0) {
+			values[i] = path.substring(captures[2 * i], captures[2 * i + 1]);
+		}
+		return values[i];
+	}
+
+	private boolean captured(int i) {
+		return captures[2 * i] >= 0;
+	}
+
+	private MultiMap merge() {
+		final MultiMap p = params();
+		if (!merged) {
+			merged = true;
+			for (int i = 0; i < names.length; i++) {
+				if (captured(i)) {
+					p.add(names[i], value(i));
+				}
+			}
+		}
+		return p;
+	}
+
+	@Override
+	public String get(CharSequence name) {
+		return get(name.toString());
+	}
+
+	@Override
+	public String get(String name) {
+		final String value = params().get(name);
+		if (value != null || merged) {
+			return value;
+		}
+		for (int i = 0; i < names.length; i++) {
+			if (captured(i) && names[i].equalsIgnoreCase(name)) {
+				return value(i);
+			}
+		}
+		return null;
+	}
+
+	@Override
+	public List<String> getAll(String name) {
+		final List<String> all = params().getAll(name);
+		if (merged) {
+			return all;
+		}
+		final List<String> result = new ArrayList<>(all);
+		for (int i = 0; i < names.length; i++) {
+			if (captured(i) && names[i].equalsIgnoreCase(name)) {
+				result.add(value(i));
+			}
+		}
+		return result;
+	}
+
+	@Override
+	public List<String> getAll(CharSequence name) {
+		return getAll(name.toString());
+	}
+
+	@Override
+	public List<Map.Entry<String, String>> entries() {
+		final List<Map.Entry<String, String>> entries = params().entries();
+		if (merged) {
+			return entries;
+		}
+		final List<Map.Entry<String, String>> result = new ArrayList<>(entries);
+		for (int i = 0; i < names.length; i++) {
+			if (captured(i)) {
+				result.add(new AbstractMap.SimpleImmutableEntry<>(names[i], value(i)));
+			}
+		}
+		return result;
+	}
+
+	@Override
+	public Iterator<Map.Entry<String, String>> iterator() {
+		return merged ? params().iterator() : entries().iterator();
+	}
+
+	@Override
+	public boolean contains(String name) {
+		if (params().contains(name)) {
+			return true;
+		}
+		if (!merged) {
+			for (int i = 0; i < names.length; i++) {
+				if (captured(i) && names[i].equalsIgnoreCase(name)) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	@Override
+	public boolean contains(CharSequence name) {
+		return contains(name.toString());
+	}
+
+	@Override
+	public boolean isEmpty() {
+		if (!params().isEmpty()) {
+			return false;
+		}
+		if (!merged) {
+			for (int i = 0; i < names.length; i++) {
+				if (captured(i)) {
+					return false;
+				}
+			}
+		}
+		return true;
+	}
+
+	@Override
+	public Set<String> names() {
+		if (merged) {
+			return params().names();
+		}
+		final Set<String> n = new TreeSet<>(String.CASE_INSENSITIVE_ORDER);
+		n.addAll(params().names());
+		for (int i = 0; i < names.length; i++) {
+			if (captured(i)) {
+				n.add(names[i]);
+			}
+		}
+		return n;
+	}
+
+	@Override
+	public int size() {
+		return merged ? params().size() : names().size();
+	}
+
+	@Override
+	public MultiMap add(String name, String value) {
+		merge().add(name, value);
+		return this;
+	}
+
+	@Override
+	public MultiMap add(CharSequence name, CharSequence value) {
+		merge().add(name, value);
+		return this;
+	}
+
+	@Override
+	public MultiMap add(String name, Iterable<String> values) {
+		merge().add(name, values);
+		return this;
+	}
+
+	@Override
+	public MultiMap add(CharSequence name, Iterable<CharSequence> values) {
+		merge().add(name, values);
+		return this;
+	}
+
+	@Override
+	public MultiMap addAll(MultiMap map) {
+		merge().addAll(map);
+		return this;
+	}
+
+	@Override
+	public MultiMap addAll(Map<String, String> headers) {
+		merge().addAll(headers);
+		return this;
+	}
+
+	@Override
+	public MultiMap set(String name, String value) {
+		merge().set(name, value);
+		return this;
+	}
+
+	@Override
+	public MultiMap set(CharSequence name, CharSequence value) {
+		merge().set(name, value);
+		return this;
+	}
+
+	@Override
+	public MultiMap set(String name, Iterable<String> values) {
+		merge().set(name, values);
+		return this;
+	}
+
+	@Override
+	public MultiMap set(CharSequence name, Iterable<CharSequence> values) {
+		merge().set(name, values);
+		return this;
+	}
+
+	@Override
+	public MultiMap setAll(MultiMap map) {
+		merge().setAll(map);
+		return this;
+	}
+
+	@Override
+	public MultiMap setAll(Map<String, String> headers) {
+		merge().setAll(headers);
+		return this;
+	}
+
+	@Override
+	public MultiMap remove(String name) {
+		merge().remove(name);
+		return this;
+	}
+
+	@Override
+	public MultiMap remove(CharSequence name) {
+		merge().remove(name);
+		return this;
+	}
+
+	@Override
+	public MultiMap clear() {
+		merge().clear();
+		return this;
+	}
+
+	@Override
+	public String toString() {
+		final StringBuilder sb = new StringBuilder();
+		for (Map.Entry<String, String> entry : this) {
+			sb.append(entry.getKey()).append(": ").append(entry.getValue()).append('\n');
+		}
+		return sb.toString();
+	}
+
+}
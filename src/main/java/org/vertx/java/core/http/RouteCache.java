@@ -0,0 +1,74 @@
+/*
+ * Copyright (c) 2011-2013 The original author or authors
+ * ------------------------------------------------------
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Apache License v2.0 which accompanies this distribution.
+ *
+ *     The Eclipse Public License is available at
+ *     http://www.eclipse.org/legal/epl-v10.html
+ *
+ *     The Apache License v2.0 is available at
+ *     http://www.opensource.org/licenses/apache2.0.php
+ *
+ * You may elect to redistribute this code under either of these licenses.
+ */
+
+package org.vertx.java.core.http;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Bounded LRU cache of the routes resolved by {@link RouteMatcher}, keyed by path and verb.<p>
+ * Only successful resolutions are cached, so unknown paths can't evict the hot ones.
+ */
+class RouteCache {
+
+	private final LinkedHashMap<String, RouteMatcher.ResolvedRoute[]> routes;
+	private final int methods;
+	private long hits = 0;
+	private long misses = 0;
+
+	RouteCache(final int maxSize, int methods) {
+		this.methods = methods;
+		this.routes = new LinkedHashMap<String, RouteMatcher.ResolvedRoute[]>(16, 0.75f, true) {
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, RouteMatcher.ResolvedRoute[]> eldest) {
+				return size() > maxSize;
+			}
+		};
+	}
+
+	synchronized RouteMatcher.ResolvedRoute get(int method, String path) {
+		final RouteMatcher.ResolvedRoute[] resolved = routes.get(path);
+		if (resolved != null && resolved[method] != null) {
+			hits++;
+			return resolved[method];
+		}
+		misses++;
+		return null;
+	}
+
+	synchronized void put(int method, String path, RouteMatcher.ResolvedRoute route) {
+		RouteMatcher.ResolvedRoute[] resolved = routes.get(path);
+		if (resolved == null) {
+			resolved = new RouteMatcher.ResolvedRoute[methods];
+			routes.put(path, resolved);
+		}
+		resolved[method] = route;
+	}
+
+	synchronized void clear() {
+		routes.clear();
+	}
+
+	synchronized long hits() {
+		return hits;
+	}
+
+	synchronized long misses() {
+		return misses;
+	}
+
+}
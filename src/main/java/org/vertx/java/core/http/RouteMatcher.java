@@ -17,8 +17,10 @@
 package org.vertx.java.core.http;
 
 import io.vertx.core.Handler;
+import io.vertx.core.http.HttpMethod;
 import io.vertx.core.http.HttpServerRequest;
 
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
@@ -41,56 +43,41 @@ import java.util.regex.Pattern;
  * parameters do not have a name, so they are put into the HTTP request with names of param0, param1, param2 etc.<p>
  * Multiple matches can be specified for each HTTP verb. In the case there are more than one matching patterns for
  * a particular request, the first matching one will be used.<p>
+ * Simple patterns only made of literal and parameter segments are indexed in a segment tree, so their lookup
+ * doesn't depend on the number of registered routes. Other patterns and regular expressions are evaluated in
+ * registration order.<p>
+ * All the verbs share the same index. When enabled with {@link #methodNotAllowed(boolean)}, a path matching a route
+ * of another verb only gets a 405 response with an <code>Allow</code> header instead of the no match handler.
+ * HEAD requests are handled by the GET handlers when no HEAD handler matches.<p>
  * Instances of this class are not thread-safe<p>
  *
  * @author <a href="http://tfox.org">Tim Fox</a>
  */
 public class RouteMatcher implements Handler<HttpServerRequest> {
 
-	private final List<PatternBinding> getBindings = new CopyOnWriteArrayList<>();
-	private final List<PatternBinding> putBindings = new CopyOnWriteArrayList<>();
-	private final List<PatternBinding> postBindings = new CopyOnWriteArrayList<>();
-	private final List<PatternBinding> deleteBindings = new CopyOnWriteArrayList<>();
-	private final List<PatternBinding> optionsBindings = new CopyOnWriteArrayList<>();
-	private final List<PatternBinding> headBindings = new CopyOnWriteArrayList<>();
-	private final List<PatternBinding> traceBindings = new CopyOnWriteArrayList<>();
-	private final List<PatternBinding> connectBindings = new CopyOnWriteArrayList<>();
-	private final List<PatternBinding> patchBindings = new CopyOnWriteArrayList<>();
+	private static final int METHODS = HttpMethod.values().length;
+	private static final int GET = HttpMethod.GET.ordinal();
+	private static final int HEAD = HttpMethod.HEAD.ordinal();
+
+	private final RouteTrie trie = new RouteTrie();
+	private final Map<String, RegexRoute> regexRoutes = new HashMap<>();
+	private final List<RegexRoute> regexes = new CopyOnWriteArrayList<>();
+	private final List<List<RegexRoute>> regexesByMethod = new ArrayList<>(METHODS);
 	private Handler<HttpServerRequest> noMatchHandler;
+	private boolean methodNotAllowed = false;
+	private int bindingsCount = 0;
+	private boolean lazyParams = false;
+	private RouteCache cache;
+
+	public RouteMatcher() {
+		for (int i = 0; i < METHODS; i++) {
+			regexesByMethod.add(new CopyOnWriteArrayList<>());
+		}
+	}
 
 	@Override
 	public void handle(HttpServerRequest request) {
-		switch (request.method().name()) {
-			case "GET":
-				route(request, getBindings);
-				break;
-			case "PUT":
-				route(request, putBindings);
-				break;
-			case "POST":
-				route(request, postBindings);
-				break;
-			case "DELETE":
-				route(request, deleteBindings);
-				break;
-			case "OPTIONS":
-				route(request, optionsBindings);
-				break;
-			case "HEAD":
-				route(request, headBindings);
-				break;
-			case "TRACE":
-				route(request, traceBindings);
-				break;
-			case "PATCH":
-				route(request, patchBindings);
-				break;
-			case "CONNECT":
-				route(request, connectBindings);
-				break;
-			default:
-				notFound(request);
-		}
+		route(request, request.method().ordinal());
 	}
 
 	/**
@@ -99,7 +86,7 @@ public class RouteMatcher implements Handler<HttpServerRequest> {
 	 * @param handler The handler to call
 	 */
 	public RouteMatcher get(String pattern, Handler<HttpServerRequest> handler) {
-		addPattern(pattern, handler, getBindings);
+		addPattern(pattern, handler, HttpMethod.GET);
 		return this;
 	}
 
@@ -109,7 +96,7 @@ public class RouteMatcher implements Handler<HttpServerRequest> {
 	 * @param handler The handler to call
 	 */
 	public RouteMatcher put(String pattern, Handler<HttpServerRequest> handler) {
-		addPattern(pattern, handler, putBindings);
+		addPattern(pattern, handler, HttpMethod.PUT);
 		return this;
 	}
 
@@ -119,7 +106,7 @@ public class RouteMatcher implements Handler<HttpServerRequest> {
 	 * @param handler The handler to call
 	 */
 	public RouteMatcher post(String pattern, Handler<HttpServerRequest> handler) {
-		addPattern(pattern, handler, postBindings);
+		addPattern(pattern, handler, HttpMethod.POST);
 		return this;
 	}
 
@@ -129,7 +116,7 @@ public class RouteMatcher implements Handler<HttpServerRequest> {
 	 * @param handler The handler to call
 	 */
 	public RouteMatcher delete(String pattern, Handler<HttpServerRequest> handler) {
-		addPattern(pattern, handler, deleteBindings);
+		addPattern(pattern, handler, HttpMethod.DELETE);
 		return this;
 	}
 
@@ -139,7 +126,7 @@ public class RouteMatcher implements Handler<HttpServerRequest> {
 	 * @param handler The handler to call
 	 */
 	public RouteMatcher options(String pattern, Handler<HttpServerRequest> handler) {
-		addPattern(pattern, handler, optionsBindings);
+		addPattern(pattern, handler, HttpMethod.OPTIONS);
 		return this;
 	}
 
@@ -149,7 +136,7 @@ public class RouteMatcher implements Handler<HttpServerRequest> {
 	 * @param handler The handler to call
 	 */
 	public RouteMatcher head(String pattern, Handler<HttpServerRequest> handler) {
-		addPattern(pattern, handler, headBindings);
+		addPattern(pattern, handler, HttpMethod.HEAD);
 		return this;
 	}
 
@@ -159,7 +146,7 @@ public class RouteMatcher implements Handler<HttpServerRequest> {
 	 * @param handler The handler to call
 	 */
 	public RouteMatcher trace(String pattern, Handler<HttpServerRequest> handler) {
-		addPattern(pattern, handler, traceBindings);
+		addPattern(pattern, handler, HttpMethod.TRACE);
 		return this;
 	}
 
@@ -169,7 +156,7 @@ public class RouteMatcher implements Handler<HttpServerRequest> {
 	 * @param handler The handler to call
 	 */
 	public RouteMatcher connect(String pattern, Handler<HttpServerRequest> handler) {
-		addPattern(pattern, handler, connectBindings);
+		addPattern(pattern, handler, HttpMethod.CONNECT);
 		return this;
 	}
 
@@ -179,7 +166,7 @@ public class RouteMatcher implements Handler<HttpServerRequest> {
 	 * @param handler The handler to call
 	 */
 	public RouteMatcher patch(String pattern, Handler<HttpServerRequest> handler) {
-		addPattern(pattern, handler, patchBindings);
+		addPattern(pattern, handler, HttpMethod.PATCH);
 		return this;
 	}
 
@@ -189,15 +176,15 @@ public class RouteMatcher implements Handler<HttpServerRequest> {
 	 * @param handler The handler to call
 	 */
 	public RouteMatcher all(String pattern, Handler<HttpServerRequest> handler) {
-		addPattern(pattern, handler, getBindings);
-		addPattern(pattern, handler, putBindings);
-		addPattern(pattern, handler, postBindings);
-		addPattern(pattern, handler, deleteBindings);
-		addPattern(pattern, handler, optionsBindings);
-		addPattern(pattern, handler, headBindings);
-		addPattern(pattern, handler, traceBindings);
-		addPattern(pattern, handler, connectBindings);
-		addPattern(pattern, handler, patchBindings);
+		addPattern(pattern, handler, HttpMethod.GET);
+		addPattern(pattern, handler, HttpMethod.PUT);
+		addPattern(pattern, handler, HttpMethod.POST);
+		addPattern(pattern, handler, HttpMethod.DELETE);
+		addPattern(pattern, handler, HttpMethod.OPTIONS);
+		addPattern(pattern, handler, HttpMethod.HEAD);
+		addPattern(pattern, handler, HttpMethod.TRACE);
+		addPattern(pattern, handler, HttpMethod.CONNECT);
+		addPattern(pattern, handler, HttpMethod.PATCH);
 		return this;
 	}
 
@@ -207,7 +194,7 @@ public class RouteMatcher implements Handler<HttpServerRequest> {
 	 * @param handler The handler to call
 	 */
 	public RouteMatcher getWithRegEx(String regex, Handler<HttpServerRequest> handler) {
-		addRegEx(regex, handler, getBindings);
+		addRegEx(regex, handler, HttpMethod.GET);
 		return this;
 	}
 
@@ -217,7 +204,7 @@ public class RouteMatcher implements Handler<HttpServerRequest> {
 	 * @param handler The handler to call
 	 */
 	public RouteMatcher putWithRegEx(String regex, Handler<HttpServerRequest> handler) {
-		addRegEx(regex, handler, putBindings);
+		addRegEx(regex, handler, HttpMethod.PUT);
 		return this;
 	}
 
@@ -227,7 +214,7 @@ public class RouteMatcher implements Handler<HttpServerRequest> {
 	 * @param handler The handler to call
 	 */
 	public RouteMatcher postWithRegEx(String regex, Handler<HttpServerRequest> handler) {
-		addRegEx(regex, handler, postBindings);
+		addRegEx(regex, handler, HttpMethod.POST);
 		return this;
 	}
 
@@ -237,7 +224,7 @@ public class RouteMatcher implements Handler<HttpServerRequest> {
 	 * @param handler The handler to call
 	 */
 	public RouteMatcher deleteWithRegEx(String regex, Handler<HttpServerRequest> handler) {
-		addRegEx(regex, handler, deleteBindings);
+		addRegEx(regex, handler, HttpMethod.DELETE);
 		return this;
 	}
 
@@ -247,7 +234,7 @@ public class RouteMatcher implements Handler<HttpServerRequest> {
 	 * @param handler The handler to call
 	 */
 	public RouteMatcher optionsWithRegEx(String regex, Handler<HttpServerRequest> handler) {
-		addRegEx(regex, handler, optionsBindings);
+		addRegEx(regex, handler, HttpMethod.OPTIONS);
 		return this;
 	}
 
@@ -257,7 +244,7 @@ public class RouteMatcher implements Handler<HttpServerRequest> {
 	 * @param handler The handler to call
 	 */
 	public RouteMatcher headWithRegEx(String regex, Handler<HttpServerRequest> handler) {
-		addRegEx(regex, handler, headBindings);
+		addRegEx(regex, handler, HttpMethod.HEAD);
 		return this;
 	}
 
@@ -267,7 +254,7 @@ public class RouteMatcher implements Handler<HttpServerRequest> {
 	 * @param handler The handler to call
 	 */
 	public RouteMatcher traceWithRegEx(String regex, Handler<HttpServerRequest> handler) {
-		addRegEx(regex, handler, traceBindings);
+		addRegEx(regex, handler, HttpMethod.TRACE);
 		return this;
 	}
 
@@ -277,7 +264,7 @@ public class RouteMatcher implements Handler<HttpServerRequest> {
 	 * @param handler The handler to call
 	 */
 	public RouteMatcher connectWithRegEx(String regex, Handler<HttpServerRequest> handler) {
-		addRegEx(regex, handler, connectBindings);
+		addRegEx(regex, handler, HttpMethod.CONNECT);
 		return this;
 	}
 
@@ -287,7 +274,7 @@ public class RouteMatcher implements Handler<HttpServerRequest> {
 	 * @param handler The handler to call
 	 */
 	public RouteMatcher patchWithRegEx(String regex, Handler<HttpServerRequest> handler) {
-		addRegEx(regex, handler, patchBindings);
+		addRegEx(regex, handler, HttpMethod.PATCH);
 		return this;
 	}
 
@@ -297,15 +284,15 @@ public class RouteMatcher implements Handler<HttpServerRequest> {
 	 * @param handler The handler to call
 	 */
 	public RouteMatcher allWithRegEx(String regex, Handler<HttpServerRequest> handler) {
-		addRegEx(regex, handler, getBindings);
-		addRegEx(regex, handler, putBindings);
-		addRegEx(regex, handler, postBindings);
-		addRegEx(regex, handler, deleteBindings);
-		addRegEx(regex, handler, optionsBindings);
-		addRegEx(regex, handler, headBindings);
-		addRegEx(regex, handler, traceBindings);
-		addRegEx(regex, handler, connectBindings);
-		addRegEx(regex, handler, patchBindings);
+		addRegEx(regex, handler, HttpMethod.GET);
+		addRegEx(regex, handler, HttpMethod.PUT);
+		addRegEx(regex, handler, HttpMethod.POST);
+		addRegEx(regex, handler, HttpMethod.DELETE);
+		addRegEx(regex, handler, HttpMethod.OPTIONS);
+		addRegEx(regex, handler, HttpMethod.HEAD);
+		addRegEx(regex, handler, HttpMethod.TRACE);
+		addRegEx(regex, handler, HttpMethod.CONNECT);
+		addRegEx(regex, handler, HttpMethod.PATCH);
 		return this;
 	}
 
@@ -318,12 +305,66 @@ public class RouteMatcher implements Handler<HttpServerRequest> {
 		return this;
 	}
 
+	/**
+	 * Answer 405 with an <code>Allow</code> header, instead of calling the no match handler, when the path only
+	 * matches routes of other verbs. Default behaviour is to call the no match handler.
+	 */
+	public RouteMatcher methodNotAllowed(boolean methodNotAllowed) {
+		this.methodNotAllowed = methodNotAllowed;
+		return this;
+	}
+
+	/**
+	 * Expose the params extracted from the path through a view of the request params instead of adding them to
+	 * the request params. Values are only built when read and the handler receives a wrapper of the request.
+	 * Default behaviour is to add the extracted params to the request params.
+	 */
+	public RouteMatcher lazyParams(boolean lazyParams) {
+		this.lazyParams = lazyParams;
+		return this;
+	}
+
+	/**
+	 * Cache the routes resolved for the most recently requested paths, so repeated requests on the same path skip
+	 * the index lookup and the regex evaluations. The cache is cleared when a binding is added.
+	 * @param size The maximum number of cached paths, 0 disables the cache (default)
+	 */
+	public RouteMatcher cacheSize(int size) {
+		this.cache = (size > 0) ? new RouteCache(size, METHODS) : null;
+		return this;
+	}
+
+	/**
+	 * @return the number of requests resolved from the cache
+	 */
+	public long getCacheHits() {
+		final RouteCache c = cache;
+		return (c != null) ? c.hits() : 0;
+	}
+
+	/**
+	 * @return the number of requests which had to be resolved from the routes index while the cache is enabled
+	 */
+	public long getCacheMisses() {
+		final RouteCache c = cache;
+		return (c != null) ? c.misses() : 0;
+	}
+
+	private void clearCache() {
+		final RouteCache c = cache;
+		if (c != null) {
+			c.clear();
+		}
+	}
+
 
-	private static void addPattern(String input, Handler<HttpServerRequest> handler, List<PatternBinding> bindings) {
+	private void addPattern(String input, Handler<HttpServerRequest> handler, HttpMethod method) {
 		// We need to search for any :<token name> tokens in the String and replace them with named capture groups
+		clearCache();
 		Matcher m =  Pattern.compile(":([A-Za-z][A-Za-z0-9_]*)").matcher(input);
 		StringBuffer sb = new StringBuffer();
 		Set<String> groups = new HashSet<>();
+		List<String> orderedGroups = new ArrayList<>();
 		while (m.find()) {
 			String group = m.group().substring(1);
 			if (groups.contains(group)) {
@@ -331,40 +372,153 @@ public class RouteMatcher implements Handler<HttpServerRequest> {
 			}
 			m.appendReplacement(sb, "(?<$1>[^\\/]+)");
 			groups.add(group);
+			orderedGroups.add(group);
 		}
 		m.appendTail(sb);
 		String regex = sb.toString();
-		PatternBinding binding = new PatternBinding(Pattern.compile(regex), groups, handler);
-		bindings.add(binding);
+		PatternBinding binding = new PatternBinding(Pattern.compile(regex), groups,
+				orderedGroups.toArray(new String[orderedGroups.size()]), handler, bindingsCount++);
+		// Simple patterns made of literal and :param segments don't need their regex to be evaluated
+		String[] segments = RouteTrie.segments(input);
+		if (segments != null) {
+			trie.insert(segments, method.ordinal(), binding);
+		} else {
+			addRegexRoute("named:" + regex, binding, method.ordinal());
+		}
 	}
 
-	private static void addRegEx(String input, Handler<HttpServerRequest> handler, List<PatternBinding> bindings) {
-		PatternBinding binding = new PatternBinding(Pattern.compile(input), null, handler);
-		bindings.add(binding);
+	private void addRegEx(String input, Handler<HttpServerRequest> handler, HttpMethod method) {
+		clearCache();
+		Pattern pattern = Pattern.compile(input);
+		String[] names = new String[pattern.matcher("").groupCount()];
+		for (int i = 0; i < names.length; i++) {
+			names[i] = "param" + i;
+		}
+		PatternBinding binding = new PatternBinding(pattern, null, names, handler, bindingsCount++);
+		addRegexRoute("regex:" + input, binding, method.ordinal());
 	}
 
-	private void route(HttpServerRequest request, List<PatternBinding> bindings) {
-		for (PatternBinding binding: bindings) {
-			Matcher m = binding.pattern.matcher(request.path());
+	private void addRegexRoute(String key, PatternBinding binding, int method) {
+		RegexRoute route = regexRoutes.get(key);
+		if (route == null) {
+			route = new RegexRoute(binding.pattern);
+			regexRoutes.put(key, route);
+			regexes.add(route);
+		}
+		// A later binding with the same pattern and verb can never be selected
+		if (route.bindings[method] == null) {
+			route.bindings[method] = binding;
+			route.methods |= 1 << method;
+			regexesByMethod.get(method).add(route);
+		}
+	}
+
+	private void route(HttpServerRequest request, int method) {
+		final String path = request.path();
+		final RouteCache cache = this.cache;
+		if (cache != null) {
+			final ResolvedRoute cached = cache.get(method, path);
+			if (cached != null) {
+				dispatch(request, cached.binding, path, cached.captures);
+				return;
+			}
+		}
+		final RouteTrie.Lookup indexed = trie.lookup(path, method);
+		ResolvedRoute resolved = resolve(path, method, indexed);
+		// HEAD requests are served by GET handlers when no HEAD handler matches
+		if (resolved == null && method == HEAD) {
+			resolved = resolve(path, GET, trie.lookup(path, GET));
+		}
+		if (resolved != null) {
+			if (cache != null) {
+				cache.put(method, path, resolved);
+			}
+			dispatch(request, resolved.binding, path, resolved.captures);
+			return;
+		}
+		if (!methodNotAllowed) {
+			notFound(request);
+			return;
+		}
+		int allowed = indexed.allowed;
+		for (RegexRoute route : regexes) {
+			// Regexes bound to the requested verb have already been evaluated
+			if (route.bindings[method] == null && (allowed & route.methods) != route.methods &&
+					route.pattern.matcher(path).matches()) {
+				allowed |= route.methods;
+			}
+		}
+		if (allowed != 0) {
+			methodNotAllowed(request, allowed);
+		} else {
+			notFound(request);
+		}
+	}
+
+	private ResolvedRoute resolve(String path, int method, RouteTrie.Lookup indexed) {
+		final int maxOrder = (indexed.best != null) ? indexed.best.order : Integer.MAX_VALUE;
+		// Bindings which can't be indexed are evaluated only if they have been registered before the indexed match
+		for (RegexRoute route : regexesByMethod.get(method)) {
+			final PatternBinding binding = route.bindings[method];
+			if (binding.order > maxOrder) {
+				break;
+			}
+			Matcher m = binding.pattern.matcher(path);
 			if (m.matches()) {
-				Map<String, String> params = new HashMap<>(m.groupCount());
-				if (binding.paramNames != null) {
-					// Named params
-					for (String param: binding.paramNames) {
-						params.put(param, m.group(param));
-					}
-				} else {
-					// Un-named params
-					for (int i = 0; i < m.groupCount(); i++) {
-						params.put("param" + i, m.group(i + 1));
+				final String[] names = binding.captureNames;
+				final int[] groups = new int[2 * names.length];
+				for (int i = 0; i < names.length; i++) {
+					if (binding.paramNames != null) {
+						// Named params
+						groups[2 * i] = m.start(names[i]);
+						groups[2 * i + 1] = m.end(names[i]);
+					} else {
+						// Un-named params
+						groups[2 * i] = m.start(i + 1);
+						groups[2 * i + 1] = m.end(i + 1);
 					}
 				}
-				request.params().addAll(params);
-				binding.handler.handle(request);
-				return;
+				return new ResolvedRoute(binding, groups);
 			}
 		}
-		notFound(request);
+		if (indexed.best != null) {
+			return new ResolvedRoute(indexed.best, indexed.captures);
+		}
+		return null;
+	}
+
+	private void dispatch(HttpServerRequest request, PatternBinding binding, String path, int[] captures) {
+		final String[] names = binding.captureNames;
+		if (lazyParams) {
+			if (names.length > 0) {
+				request = new RoutedHttpServerRequest(request, new PathParams(request, path, names, captures));
+			}
+		} else {
+			for (int i = 0; i < names.length; i++) {
+				if (captures[2 * i] >= 0) {
+					request.params().add(names[i], path.substring(captures[2 * i], captures[2 * i + 1]));
+				}
+			}
+		}
+		binding.handler.handle(request);
+	}
+
+	private void methodNotAllowed(HttpServerRequest request, int allowed) {
+		if ((allowed & (1 << GET)) != 0) {
+			allowed |= 1 << HEAD;
+		}
+		final StringBuilder allow = new StringBuilder();
+		for (HttpMethod method : HttpMethod.values()) {
+			if ((allowed & (1 << method.ordinal())) != 0) {
+				if (allow.length() > 0) {
+					allow.append(", ");
+				}
+				allow.append(method.name());
+			}
+		}
+		request.response().putHeader("Allow", allow.toString());
+		request.response().setStatusCode(405);
+		request.response().end();
 	}
 
 	private void notFound(HttpServerRequest request) {
@@ -377,15 +531,40 @@ public class RouteMatcher implements Handler<HttpServerRequest> {
 		}
 	}
 
-	private static class PatternBinding {
+	static class ResolvedRoute {
+		final PatternBinding binding;
+		final int[] captures;
+
+		private ResolvedRoute(PatternBinding binding, int[] captures) {
+			this.binding = binding;
+			this.captures = captures;
+		}
+	}
+
+	private static class RegexRoute {
+		final Pattern pattern;
+		final PatternBinding[] bindings = new PatternBinding[METHODS];
+		int methods;
+
+		private RegexRoute(Pattern pattern) {
+			this.pattern = pattern;
+		}
+	}
+
+	static class PatternBinding {
 		final Pattern pattern;
 		final Handler<HttpServerRequest> handler;
 		final Set<String> paramNames;
+		final String[] captureNames;
+		final int order;
 
-		private PatternBinding(Pattern pattern, Set<String> paramNames, Handler<HttpServerRequest> handler) {
+		private PatternBinding(Pattern pattern, Set<String> paramNames, String[] captureNames,
+				Handler<HttpServerRequest> handler, int order) {
 			this.pattern = pattern;
 			this.paramNames = paramNames;
+			this.captureNames = captureNames;
 			this.handler = handler;
+			this.order = order;
 		}
 	}
 
@@ -0,0 +1,236 @@
+/*
+ * Copyright (c) 2011-2013 The original author or authors
+ * ------------------------------------------------------
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Apache License v2.0 which accompanies this distribution.
+ *
+ *     The Eclipse Public License is available at
+ *     http://www.eclipse.org/legal/epl-v10.html
+ *
+ *     The Apache License v2.0 is available at
+ *     http://www.opensource.org/licenses/apache2.0.php
+ *
+ * You may elect to redistribute this code under either of these licenses.
+ */
+
+package org.vertx.java.core.http;
+
+import io.vertx.core.http.HttpMethod;
+
+import java.util.regex.Pattern;
+
+/**
+ * Segment tree indexing the simple patterns registered with {@link RouteMatcher}.<p>
+ * A pattern is split on '/' and every segment must be either a literal or a single <code>:name</code>
+ * token. Lookup walks the request path segment by segment, so its cost depends on the path depth and not
+ * on the number of registered routes. When several bindings match the same path, the one registered first
+ * wins, exactly like the sequential regex scan.<p>
+ * Instances of this class are not thread-safe
+ */
+class RouteTrie {
+
+	private static final Pattern PARAM = Pattern.compile(":[A-Za-z][A-Za-z0-9_]*");
+	private static final String REGEX_META = "\\.[]{}()*+?^$|:";
+
+	private final Node root = new Node(null, 0);
+
+	/**
+	 * Split a simple pattern into segments.
+	 * @param pattern The simple pattern
+	 * @return the segments, or null if the pattern can't be indexed and must be matched with its regex
+	 */
+	static String[] segments(String pattern) {
+		final String[] segments = pattern.split("/", -1);
+		for (String segment : segments) {
+			if (PARAM.matcher(segment).matches()) {
+				continue;
+			}
+			for (int i = 0; i < segment.length(); i++) {
+				if (REGEX_META.indexOf(segment.charAt(i)) >= 0) {
+					return null;
+				}
+			}
+		}
+		return segments;
+	}
+
+	static boolean isParam(String segment) {
+		return !segment.isEmpty() && segment.charAt(0) == ':';
+	}
+
+	/**
+	 * Index a binding. Only the first binding registered on a given path shape and verb can ever be selected,
+	 * so later ones are ignored.
+	 * @param segments The pattern segments returned by {@link #segments(String)}
+	 * @param method The ordinal of the HTTP verb
+	 * @param binding The binding
+	 */
+	void insert(String[] segments, int method, RouteMatcher.PatternBinding binding) {
+		Node node = root;
+		for (String segment : segments) {
+			if (isParam(segment)) {
+				if (node.param == null) {
+					node.param = new Node(null, 0);
+				}
+				node = node.param;
+			} else {
+				node = node.literal(segment);
+			}
+		}
+		if (node.bindings == null) {
+			node.bindings = new RouteMatcher.PatternBinding[HttpMethod.values().length];
+		}
+		if (node.bindings[method] == null) {
+			node.bindings[method] = binding;
+			node.methods |= 1 << method;
+		}
+	}
+
+	/**
+	 * Find the first registered binding of a verb matching the path.
+	 * @param path The request path
+	 * @param method The ordinal of the HTTP verb
+	 * @return the lookup result, with the verbs having a binding matching the path
+	 */
+	Lookup lookup(String path, int method) {
+		final Lookup l = new Lookup(path, method);
+		l.walk(root, 0, 0);
+		return l;
+	}
+
+	private static int maxCaptures(String path) {
+		int count = 2;
+		for (int i = 0; i < path.length(); i++) {
+			if (path.charAt(i) == '/') {
+				count += 2;
+			}
+		}
+		return count;
+	}
+
+	static final class Lookup {
+
+		private final String path;
+		private final int method;
+		private final int[] stack;
+		/** Start and end offsets in the path of the params of the best binding */
+		final int[] captures;
+		RouteMatcher.PatternBinding best;
+		/** Bit set of the verbs ordinals having a binding matching the path */
+		int allowed;
+
+		private Lookup(String path, int method) {
+			this.path = path;
+			this.method = method;
+			this.stack = new int[maxCaptures(path)];
+			this.captures = new int[stack.length];
+		}
+
+		private void walk(Node node, int start, int depth) {
+			int end = path.indexOf('/', start);
+			final boolean last = end < 0;
+			if (last) {
+				end = path.length();
+			}
+			final Node literal = node.findLiteral(path, start, end);
+			if (literal != null) {
+				next(literal, end, last, depth);
+			}
+			if (node.param != null && end > start) {
+				stack[depth] = start;
+				stack[depth + 1] = end;
+				next(node.param, end, last, depth + 2);
+			}
+		}
+
+		private void next(Node node, int end, boolean last, int depth) {
+			if (last) {
+				if (node.bindings == null) {
+					return;
+				}
+				allowed |= node.methods;
+				final RouteMatcher.PatternBinding binding = node.bindings[method];
+				if (binding != null && (best == null || binding.order < best.order)) {
+					best = binding;
+					System.arraycopy(stack, 0, captures, 0, depth);
+				}
+			} else {
+				walk(node, end + 1, depth);
+			}
+		}
+
+	}
+
+	private static final class Node {
+
+		private final String segment;
+		private final int hash;
+		private Node[] literals;
+		private int literalCount;
+		private Node param;
+		private RouteMatcher.PatternBinding[] bindings;
+		private int methods;
+
+		private Node(String segment, int hash) {
+			this.segment = segment;
+			this.hash = hash;
+		}
+
+		private Node literal(String segment) {
+			final int hash = segment.hashCode();
+			Node node = findLiteral(segment, 0, segment.length());
+			if (node == null) {
+				if (literals == null || (literalCount + 1) * 2 > literals.length) {
+					resize();
+				}
+				node = new Node(segment, hash);
+				put(literals, node);
+				literalCount++;
+			}
+			return node;
+		}
+
+		private void resize() {
+			final Node[] old = literals;
+			literals = new Node[old == null ? 4 : old.length * 2];
+			if (old != null) {
+				for (Node n : old) {
+					if (n != null) {
+						put(literals, n);
+					}
+				}
+			}
+		}
+
+		private static void put(Node[] table, Node node) {
+			final int mask = table.length - 1;
+			int i = node.hash & mask;
+			while (table[i] != null) {
+				i = (i + 1) & mask;
+			}
+			table[i] = node;
+		}
+
+		private Node findLiteral(String s, int start, int end) {
+			if (literals == null) {
+				return null;
+			}
+			int hash = 0;
+			for (int i = start; i < end; i++) {
+				hash = 31 * hash + s.charAt(i);
+			}
+			final int len = end - start;
+			final int mask = literals.length - 1;
+			for (int i = hash & mask; literals[i] != null; i = (i + 1) & mask) {
+				final Node n = literals[i];
+				if (n.hash == hash && n.segment.length() == len && s.regionMatches(start, n.segment, 0, len)) {
+					return n;
+				}
+			}
+			return null;
+		}
+
+	}
+
+}
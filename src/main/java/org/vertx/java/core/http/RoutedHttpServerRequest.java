@@ -0,0 +1,46 @@
+/*
+ * Copyright (c) 2011-2013 The original author or authors
+ * ------------------------------------------------------
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Apache License v2.0 which accompanies this distribution.
+ *
+ *     The Eclipse Public License is available at
+ *     http://www.eclipse.org/legal/epl-v10.html
+ *
+ *     The Apache License v2.0 is available at
+ *     http://www.opensource.org/licenses/apache2.0.php
+ *
+ * You may elect to redistribute this code under either of these licenses.
+ */
+
+package org.vertx.java.core.http;
+
+import fr.wseduc.webutils.security.WrappedHttpServerRequest;
+import io.vertx.core.MultiMap;
+import io.vertx.core.http.HttpServerRequest;
+
+/**
+ * Request handed to the route handler when {@link RouteMatcher#lazyParams(boolean)} is enabled.
+ * Its params expose the values extracted from the path without copying them in the request params.
+ */
+class RoutedHttpServerRequest extends WrappedHttpServerRequest {
+
+	private final PathParams params;
+
+	RoutedHttpServerRequest(HttpServerRequest request, PathParams params) {
+		super(request);
+		this.params = params;
+	}
+
+	@Override
+	public MultiMap params() {
+		return params;
+	}
+
+	@Override
+	public String getParam(String paramName) {
+		return params.get(paramName);
+	}
+
+}
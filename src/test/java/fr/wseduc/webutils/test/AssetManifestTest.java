@@ -0,0 +1,172 @@
+/*
+ * Copyright © WebServices pour l'Éducation, 2014
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package fr.wseduc.webutils.test;
+
+import fr.wseduc.webutils.http.AssetManifest;
+import io.vertx.core.AsyncResult;
+import io.vertx.core.MultiMap;
+import io.vertx.core.Vertx;
+import io.vertx.core.http.HttpServerRequest;
+import io.vertx.core.http.HttpServerResponse;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class AssetManifestTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+	private Vertx vertx;
+
+	@Before
+	public void setUp() {
+		vertx = Vertx.vertx();
+	}
+
+	@After
+	public void tearDown() {
+		vertx.close();
+	}
+
+	private int build(File directory) throws Exception {
+		return build(directory, "/app/public");
+	}
+
+	private int build(File directory, String urlPrefix) throws Exception {
+		final CompletableFuture<AsyncResult<Integer>> result = new CompletableFuture<>();
+		AssetManifest.build(vertx, directory.getAbsolutePath(), urlPrefix, result::complete);
+		final AsyncResult<Integer> ar = result.get(10, TimeUnit.SECONDS);
+		assertTrue(ar.succeeded());
+		return ar.result();
+	}
+
+	private File publicDir() throws Exception {
+		final File dir = folder.newFolder("public");
+		assertTrue(new File(dir, "js").mkdir());
+		assertTrue(new File(dir, "css").mkdir());
+		Files.write(new File(dir, "js/app.js").toPath(), "console.log('app');".getBytes(StandardCharsets.UTF_8));
+		Files.write(new File(dir, "css/theme.css").toPath(), "body {}".getBytes(StandardCharsets.UTF_8));
+		return dir;
+	}
+
+	private static String sha256(String content) throws Exception {
+		final byte[] d = MessageDigest.getInstance("SHA-256").digest(content.getBytes(StandardCharsets.UTF_8));
+		final StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < 8; i++) {
+			sb.append(String.format("%02x", d[i] & 0xff));
+		}
+		return sb.toString();
+	}
+
+	private static HttpServerRequest request(String path, String v, MultiMap responseHeaders) {
+		final HttpServerResponse response = (HttpServerResponse) Proxy.newProxyInstance(
+				AssetManifestTest.class.getClassLoader(), new Class<?>[]{HttpServerResponse.class},
+				(proxy, m, args) -> {
+					if ("putHeader".equals(m.getName())) {
+						responseHeaders.set(args[0].toString(), args[1].toString());
+					}
+					return m.getReturnType() == HttpServerResponse.class ? proxy : null;
+				});
+		return (HttpServerRequest) Proxy.newProxyInstance(AssetManifestTest.class.getClassLoader(),
+				new Class<?>[]{HttpServerRequest.class}, (proxy, m, args) -> {
+					switch (m.getName()) {
+						case "path":
+							return path;
+						case "getParam":
+							return "v".equals(args[0]) ? v : null;
+						case "response":
+							return response;
+						default:
+							return null;
+					}
+				});
+	}
+
+	@Test
+	public void fingerprintResolution() throws Exception {
+		assertEquals(2, build(publicDir()));
+		final Map<String, String> manifest = AssetManifest.map(vertx);
+		assertEquals(2, manifest.size());
+		assertEquals("/app/public/js/app.js?v=" + sha256("console.log('app');"),
+				AssetManifest.versioned(manifest, "/app/public/js/app.js"));
+		assertEquals("/app/public/css/theme.css?v=" + sha256("body {}"),
+				AssetManifest.versioned(manifest, "/app/public/css/theme.css"));
+	}
+
+	@Test
+	public void directoryIsHashedOnce() throws Exception {
+		final File dir = publicDir();
+		assertEquals(2, build(dir));
+		final String versioned = AssetManifest.versioned(AssetManifest.map(vertx), "/app/public/js/app.js");
+		Files.write(new File(dir, "js/app.js").toPath(), "changed".getBytes(StandardCharsets.UTF_8));
+		assertEquals(0, build(dir));
+		assertEquals(versioned, AssetManifest.versioned(AssetManifest.map(vertx), "/app/public/js/app.js"));
+	}
+
+	@Test
+	public void unknownPathsAreNotVersioned() throws Exception {
+		assertEquals(0, build(new File(folder.getRoot(), "missing"), "/other/public"));
+		assertEquals(2, build(publicDir()));
+		final Map<String, String> manifest = AssetManifest.map(vertx);
+		assertSame("/app/public/js/unknown.js", AssetManifest.versioned(manifest, "/app/public/js/unknown.js"));
+		assertSame("/app/public/js/app.js?v=1", AssetManifest.versioned(manifest, "/app/public/js/app.js?v=1"));
+		assertSame("/app/public/js/app.js", AssetManifest.versioned(null, "/app/public/js/app.js"));
+	}
+
+	@Test
+	public void immutableHeaders() throws Exception {
+		build(publicDir());
+		final Map<String, String> manifest = AssetManifest.map(vertx);
+		final String hash = sha256("console.log('app');");
+
+		final MultiMap current = MultiMap.caseInsensitiveMultiMap();
+		assertTrue(AssetManifest.immutable(manifest, request("/app/public/js/app.js", hash, current)));
+		assertEquals("public, max-age=31536000, immutable", current.get("Cache-Control"));
+
+		final String[][] notVersioned = {
+				{"/app/public/js/app.js", null},
+				{"/app/public/js/app.js", "0123456789abcdef"},
+				{"/app/public/js/unknown.js", hash},
+		};
+		for (String[] r : notVersioned) {
+			final MultiMap headers = MultiMap.caseInsensitiveMultiMap();
+			assertFalse(r[0] + " " + r[1], AssetManifest.immutable(manifest, request(r[0], r[1], headers)));
+			assertNull(headers.get("Cache-Control"));
+		}
+		final MultiMap disabled = MultiMap.caseInsensitiveMultiMap();
+		assertFalse(AssetManifest.immutable(null, request("/app/public/js/app.js", hash, disabled)));
+		assertNull(disabled.get("Cache-Control"));
+	}
+
+}
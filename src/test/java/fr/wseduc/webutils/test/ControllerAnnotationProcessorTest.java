@@ -0,0 +1,230 @@
+/*
+ * Copyright © WebServices pour l'Éducation, 2014
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package fr.wseduc.webutils.test;
+
+import fr.wseduc.processor.ControllerAnnotationProcessor;
+import fr.wseduc.webutils.http.CompiledRoutes;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.eventbus.EventBus;
+import io.vertx.core.http.HttpServerRequest;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.vertx.java.core.http.RouteMatcher;
+
+import javax.tools.Diagnostic;
+import javax.tools.DiagnosticCollector;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.ToolProvider;
+import java.io.File;
+import java.lang.reflect.Proxy;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ControllerAnnotationProcessorTest {
+
+	private static final String SOURCE =
+			"package sample;\n" +
+			"\n" +
+			"import fr.wseduc.bus.BusAddress;\n" +
+			"import fr.wseduc.rs.*;\n" +
+			"import io.vertx.core.Vertx;\n" +
+			"import io.vertx.core.eventbus.Message;\n" +
+			"import io.vertx.core.http.HttpServerRequest;\n" +
+			"import io.vertx.core.json.JsonObject;\n" +
+			"import org.vertx.java.core.http.RouteMatcher;\n" +
+			"\n" +
+			"public class SampleController extends fr.wseduc.webutils.Controller {\n" +
+			"\n" +
+			"\tpublic SampleController(Vertx vertx, RouteMatcher rm) {\n" +
+			"\t\tsuper(null, null, null, new java.util.HashMap<>());\n" +
+			"\t\tthis.pathPrefix = \"\";\n" +
+			"\t\tthis.vertx = vertx;\n" +
+			"\t\tthis.rm = rm;\n" +
+			"\t\tloadRoutes();\n" +
+			"\t}\n" +
+			"\n" +
+			"\t@Get(\"/sample/:id\")\n" +
+			"\tpublic void show(HttpServerRequest request) {}\n" +
+			"\n" +
+			"\t@Get(value = \"/sample/\\\\\\\\d+/\\\\\\\"quoted\\\\\\\"\", regex = true)\n" +
+			"\tpublic void regex(HttpServerRequest request) {}\n" +
+			"\n" +
+			"\t@Post(\"/sample\")\n" +
+			"\tpublic void create(HttpServerRequest request) {}\n" +
+			"\n" +
+			"\t@Put(\"/sample/:id\")\n" +
+			"\tpublic void update(HttpServerRequest request) {}\n" +
+			"\n" +
+			"\t@Delete(\"/sample/:id\")\n" +
+			"\tpublic void delete(HttpServerRequest request, String unexpected) {}\n" +
+			"\n" +
+			"\t@BusAddress(\"sample.local\")\n" +
+			"\tpublic void local(Message<JsonObject> message) {}\n" +
+			"\n" +
+			"\t@BusAddress(value = \"sample.remote\", local = false)\n" +
+			"\tpublic void remote(Message<JsonObject> message) {}\n" +
+			"\n" +
+			"}\n";
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void compiledRoutesRegisterTheRoutesOfTheJsonFile() throws Exception {
+		final File out = folder.newFolder("out");
+		assertTrue(compile(SOURCE, out).isEmpty());
+		assertTrue(new File(out, "sample/SampleController_Routes.class").isFile());
+
+		final List<String> compiled = register(out);
+		assertTrue(Files.deleteIfExists(
+				new File(out, "META-INF/services/" + CompiledRoutes.class.getName()).toPath()));
+		final List<String> json = register(out);
+
+		assertEquals(Arrays.asList(
+				"PUT /sample/:id",
+				"POST /sample",
+				"GET regex /sample/\\d+/\"quoted\"",
+				"GET /sample/:id",
+				"DELETE /sample/:id",
+				"BUS sample.remote",
+				"BUS local sample.local"), compiled);
+		assertEquals(compiled, json);
+	}
+
+	@Test
+	public void invalidEscapesInRoutePathsAreReported() throws Exception {
+		final List<String> errors = compile(SOURCE.replace("/sample/\\\\\\\\d+/", "/sample/\\\\d+/"),
+				folder.newFolder("out"));
+		assertEquals(1, errors.size());
+		assertTrue(errors.get(0), errors.get(0).contains("sample.SampleController.regex"));
+	}
+
+	/**
+	 * @return the compilation errors
+	 */
+	private List<String> compile(String code, File out) throws Exception {
+		final File src = folder.newFolder("src");
+		final File source = new File(src, "SampleController.java");
+		Files.write(source.toPath(), code.getBytes(StandardCharsets.UTF_8));
+		final JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+		final DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<>();
+		try (StandardJavaFileManager fm = compiler.getStandardFileManager(diagnostics, null, StandardCharsets.UTF_8)) {
+			final JavaCompiler.CompilationTask task = compiler.getTask(null, fm, diagnostics,
+					Arrays.asList("-classpath", System.getProperty("java.class.path"), "-d", out.getPath()),
+					null, fm.getJavaFileObjects(source));
+			task.setProcessors(Collections.singletonList(new ControllerAnnotationProcessor()));
+			final boolean success = task.call();
+			final List<String> errors = new ArrayList<>();
+			for (Diagnostic<? extends JavaFileObject> d : diagnostics.getDiagnostics()) {
+				if (d.getKind() == Diagnostic.Kind.ERROR) {
+					errors.add(d.getMessage(null));
+				}
+			}
+			assertEquals(errors.isEmpty(), success);
+			return errors;
+		}
+	}
+
+	/**
+	 * Instantiate the sample controller in a new class loader, and list the routes registered in the route
+	 * matcher and the event bus.
+	 */
+	private List<String> register(File out) throws Exception {
+		final List<String> routes = new ArrayList<>();
+		final RouteMatcher rm = new RouteMatcher() {
+			@Override
+			public RouteMatcher get(String pattern, Handler<HttpServerRequest> handler) {
+				routes.add("GET " + pattern);
+				return this;
+			}
+
+			@Override
+			public RouteMatcher post(String pattern, Handler<HttpServerRequest> handler) {
+				routes.add("POST " + pattern);
+				return this;
+			}
+
+			@Override
+			public RouteMatcher put(String pattern, Handler<HttpServerRequest> handler) {
+				routes.add("PUT " + pattern);
+				return this;
+			}
+
+			@Override
+			public RouteMatcher delete(String pattern, Handler<HttpServerRequest> handler) {
+				routes.add("DELETE " + pattern);
+				return this;
+			}
+
+			@Override
+			public RouteMatcher getWithRegEx(String regex, Handler<HttpServerRequest> handler) {
+				routes.add("GET regex " + regex);
+				return this;
+			}
+
+			@Override
+			public RouteMatcher postWithRegEx(String regex, Handler<HttpServerRequest> handler) {
+				routes.add("POST regex " + regex);
+				return this;
+			}
+
+			@Override
+			public RouteMatcher putWithRegEx(String regex, Handler<HttpServerRequest> handler) {
+				routes.add("PUT regex " + regex);
+				return this;
+			}
+
+			@Override
+			public RouteMatcher deleteWithRegEx(String regex, Handler<HttpServerRequest> handler) {
+				routes.add("DELETE regex " + regex);
+				return this;
+			}
+		};
+		final EventBus eb = (EventBus) Proxy.newProxyInstance(getClass().getClassLoader(),
+				new Class<?>[]{EventBus.class}, (proxy, method, args) -> {
+					if ("consumer".equals(method.getName())) {
+						routes.add("BUS " + args[0]);
+					} else if ("localConsumer".equals(method.getName())) {
+						routes.add("BUS local " + args[0]);
+					}
+					return null;
+				});
+		final Vertx vertx = (Vertx) Proxy.newProxyInstance(getClass().getClassLoader(),
+				new Class<?>[]{Vertx.class}, (proxy, method, args) ->
+						"eventBus".equals(method.getName()) ? eb : null);
+		try (URLClassLoader loader = new URLClassLoader(new URL[]{out.toURI().toURL()},
+				getClass().getClassLoader())) {
+			loader.loadClass("sample.SampleController").getConstructor(Vertx.class, RouteMatcher.class)
+					.newInstance(vertx, rm);
+		}
+		return routes;
+	}
+
+}
@@ -0,0 +1,225 @@
+/*
+ * Copyright © WebServices pour l'Éducation, 2014
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package fr.wseduc.webutils.test;
+
+import fr.wseduc.webutils.I18n;
+import fr.wseduc.webutils.data.FileResolver;
+import fr.wseduc.webutils.http.EncodedContent;
+import io.vertx.core.MultiMap;
+import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.http.HttpServerRequest;
+import io.vertx.core.http.HttpServerResponse;
+import io.vertx.core.json.JsonObject;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Locale;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class EncodedContentTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private static class Call {
+		final MultiMap headers = MultiMap.caseInsensitiveMultiMap();
+		final MultiMap responseHeaders = MultiMap.caseInsensitiveMultiMap();
+		int status = 200;
+		Buffer body;
+		final HttpServerRequest request;
+
+		Call(String... headers) {
+			for (int i = 0; i < headers.length; i += 2) {
+				this.headers.add(headers[i], headers[i + 1]);
+			}
+			final HttpServerResponse response = (HttpServerResponse) Proxy.newProxyInstance(
+					getClass().getClassLoader(), new Class<?>[]{HttpServerResponse.class}, (proxy, m, args) -> {
+						switch (m.getName()) {
+							case "putHeader":
+								responseHeaders.set(args[0].toString(), args[1].toString());
+								return proxy;
+							case "setStatusCode":
+								status = (Integer) args[0];
+								return proxy;
+							case "end":
+								body = (args != null && args.length > 0) ? (Buffer) args[0] : Buffer.buffer();
+								return null;
+							default:
+								return m.getReturnType() == HttpServerResponse.class ? proxy : null;
+						}
+					});
+			request = (HttpServerRequest) Proxy.newProxyInstance(getClass().getClassLoader(),
+					new Class<?>[]{HttpServerRequest.class}, (proxy, m, args) -> {
+						switch (m.getName()) {
+							case "headers":
+								return this.headers;
+							case "response":
+								return response;
+							default:
+								return null;
+						}
+					});
+		}
+
+		Call send(EncodedContent content) {
+			content.send(request);
+			return this;
+		}
+
+		String encoding() {
+			return responseHeaders.get("Content-Encoding");
+		}
+
+		String decoded() throws IOException {
+			final byte[] bytes = body.getBytes();
+			final String encoding = encoding();
+			if (encoding == null) {
+				return new String(bytes, StandardCharsets.UTF_8);
+			}
+			try (InputStream in = "gzip".equals(encoding) ? new GZIPInputStream(new ByteArrayInputStream(bytes)) :
+					new InflaterInputStream(new ByteArrayInputStream(bytes))) {
+				final ByteArrayOutputStream out = new ByteArrayOutputStream();
+				final byte[] buf = new byte[4096];
+				int n;
+				while ((n = in.read(buf)) > 0) {
+					out.write(buf, 0, n);
+				}
+				return new String(out.toByteArray(), StandardCharsets.UTF_8);
+			}
+		}
+	}
+
+	private static String text() {
+		final StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < 200; i++) {
+			sb.append("\"key.").append(i).append("\":\"Message numéro ").append(i).append("\",");
+		}
+		return sb.toString();
+	}
+
+	@Test
+	public void contentCodingNegotiation() throws IOException {
+		final String text = text();
+		final EncodedContent content = EncodedContent.of(text.getBytes(StandardCharsets.UTF_8), "text/plain");
+		final String[][] cases = {
+				{null, null},
+				{"", null},
+				{"gzip", "gzip"},
+				{"deflate", "deflate"},
+				{"GZIP;Q=0.5", "gzip"},
+				{"gzip, deflate", "gzip"},
+				{"gzip;q=0, deflate", "deflate"},
+				{"gzip;q=0, *", "deflate"},
+				{"*, gzip;q=0", "deflate"},
+				{"gzip;q=0, deflate;q=0.0, *", null},
+				{"*", "gzip"},
+				{"*;q=0", null},
+				{"gzip;level=1;q=0, *", "deflate"},
+				{"br, identity", null},
+				{"gzip;q=abc", null},
+		};
+		for (String[] c : cases) {
+			final Call call = (c[0] != null) ? new Call("Accept-Encoding", c[0]) : new Call();
+			call.send(content);
+			assertEquals(c[0], 200, call.status);
+			assertEquals(c[0], c[1], call.encoding());
+			assertEquals(c[0], text, call.decoded());
+			assertEquals(c[0], "Accept-Encoding", call.responseHeaders.get("Vary"));
+			assertEquals(c[0], "text/plain", call.responseHeaders.get("Content-Type"));
+		}
+	}
+
+	@Test
+	public void incompressibleContentIsNotVaried() {
+		final EncodedContent content = EncodedContent.of("{}".getBytes(StandardCharsets.UTF_8), "application/json");
+		final Call call = new Call("Accept-Encoding", "gzip").send(content);
+		assertNull(call.encoding());
+		assertNull(call.responseHeaders.get("Vary"));
+		assertEquals("\"" + content.getHash() + "\"", call.responseHeaders.get("ETag"));
+	}
+
+	@Test
+	public void i18nBundleIsRevalidatedWithItsETag() throws IOException {
+		final File i18nDir = folder.newFolder("i18n");
+		Files.write(new File(i18nDir, "en.json").toPath(), "{\"key\":\"value\"}".getBytes(StandardCharsets.UTF_8));
+		Files.write(new File(i18nDir, "fr.json").toPath(), ("{" + text() + "\"end\":\"fin\"}")
+				.getBytes(StandardCharsets.UTF_8));
+		final Vertx vertx = Vertx.vertx();
+		final I18n i18n = I18n.getInstance();
+		try {
+			FileResolver.getInstance().setBasePath(folder.getRoot().getAbsolutePath());
+			i18n.reload(vertx);
+		} finally {
+			FileResolver.getInstance().setBasePath((String) null);
+			vertx.close();
+		}
+		final String domain = "encoded-content-test";
+		i18n.add(domain, Locale.FRENCH, new JsonObject().put("domain", "test"));
+		final String[] request = {"Host", domain, "Accept-Language", "fr"};
+
+		final EncodedContent bundle = i18n.loadEncoded(new Call(request).request);
+		assertNotNull(bundle);
+		assertSame(bundle, i18n.loadEncoded(new Call(request).request));
+
+		final Call identity = new Call(request).send(bundle);
+		final String etag = identity.responseHeaders.get("ETag");
+		assertEquals("\"" + bundle.getHash() + "\"", etag);
+		assertEquals(i18n.load(new Call(request).request).encode(), identity.decoded());
+
+		final Call gzip = new Call("Host", domain, "Accept-Language", "fr", "Accept-Encoding", "gzip").send(bundle);
+		final String gzipETag = gzip.responseHeaders.get("ETag");
+		assertEquals("\"" + bundle.getHash() + "-gzip\"", gzipETag);
+		assertEquals(identity.decoded(), gzip.decoded());
+
+		for (String ifNoneMatch : new String[]{etag, gzipETag, "W/" + etag, "\"other\", " + gzipETag, "*"}) {
+			final Call notModified = new Call("Host", domain, "Accept-Language", "fr", "If-None-Match", ifNoneMatch)
+					.send(bundle);
+			assertEquals(ifNoneMatch, 304, notModified.status);
+			assertEquals(ifNoneMatch, 0, notModified.body.length());
+			assertEquals(ifNoneMatch, etag, notModified.responseHeaders.get("ETag"));
+		}
+		final Call modified = new Call("Host", domain, "Accept-Language", "fr", "If-None-Match", "\"other\"")
+				.send(bundle);
+		assertEquals(200, modified.status);
+
+		i18n.add(domain, Locale.FRENCH, new JsonObject().put("key.new", "Nouveau"));
+		final EncodedContent changed = i18n.loadEncoded(new Call(request).request);
+		assertFalse(bundle.getHash().equals(changed.getHash()));
+		assertEquals(200, new Call("Host", domain, "Accept-Language", "fr", "If-None-Match", etag)
+				.send(changed).status);
+		assertTrue(new Call(request).send(changed).decoded().contains("Nouveau"));
+	}
+
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright © WebServices pour l'Éducation, 2014
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fr.wseduc.webutils.test;
+
+import fr.wseduc.webutils.validation.JsonSchemaValidator;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class JsonSchemaValidatorTest {
+
+	private static final JsonSchemaValidator validator = JsonSchemaValidator.getInstance();
+
+	@BeforeClass
+	public static void addSchemas() {
+		assertTrue(validator.addSchema("test.user", new JsonObject(
+				"{\"type\":\"object\",\"required\":[\"name\",\"age\"],\"additionalProperties\":false," +
+				"\"properties\":{\"name\":{\"type\":\"string\",\"minLength\":1,\"pattern\":\"^[a-z]\"}," +
+				"\"age\":{\"type\":\"integer\",\"minimum\":0,\"exclusiveMaximum\":true,\"maximum\":150}," +
+				"\"email\":{\"type\":\"string\",\"format\":\"email\"}," +
+				"\"role\":{\"enum\":[\"teacher\",\"student\"]}," +
+				"\"groups\":{\"type\":\"array\",\"uniqueItems\":true,\"items\":{\"$ref\":\"#/definitions/group\"}}," +
+				"\"manager\":{\"$ref\":\"#\"}}," +
+				"\"definitions\":{\"group\":{\"oneOf\":[{\"type\":\"string\"},{\"type\":\"integer\"}]}}}")));
+		assertFalse(validator.addSchema("test.remote", new JsonObject("{\"$ref\":\"http://example.com/schema\"}")));
+	}
+
+	private static JsonObject validate(String schema, String json) {
+		final AtomicReference<JsonObject> reply = new AtomicReference<>();
+		validator.validateJson(schema, new JsonObject(json), event -> {
+			assertTrue(event.succeeded());
+			reply.set(event.result());
+		});
+		return reply.get();
+	}
+
+	private static String errors(JsonObject reply) {
+		final StringBuilder sb = new StringBuilder();
+		for (Object o : reply.getJsonArray("report", new JsonArray())) {
+			final JsonObject error = (JsonObject) o;
+			sb.append(error.getString("keyword")).append(error.getJsonObject("instance").getString("pointer"))
+					.append(' ');
+		}
+		return sb.toString().trim();
+	}
+
+	@Test
+	public void validDocument() {
+		final JsonObject reply = validate("test.user", "{\"name\":\"alice\",\"age\":30,\"email\":\"a@b.fr\"," +
+				"\"role\":\"teacher\",\"groups\":[\"g1\",2],\"manager\":{\"name\":\"bob\",\"age\":50}}");
+		assertEquals("ok", reply.getString("status"));
+	}
+
+	@Test
+	public void invalidDocument() {
+		final JsonObject reply = validate("test.user", "{\"name\":\"Alice\",\"age\":150.0,\"email\":\"nope\"," +
+				"\"role\":\"admin\",\"groups\":[\"g1\",\"g1\",1.5],\"manager\":{\"name\":\"bob\"},\"other\":1}");
+		assertEquals("error", reply.getString("status"));
+		assertEquals("pattern/name type/age exclusiveMaximum/age format/email enum/role " +
+				"uniqueItems/groups oneOf/groups/2 required/manager additionalProperties", errors(reply));
+		assertTrue(reply.getString("message").startsWith("Invalid json : "));
+	}
+
+	@Test
+	public void unknownSchema() {
+		final AtomicReference<Throwable> cause = new AtomicReference<>();
+		validator.validateJson("test.remote", new JsonObject(), event -> cause.set(event.cause()));
+		assertTrue(cause.get() instanceof IllegalArgumentException);
+	}
+
+}
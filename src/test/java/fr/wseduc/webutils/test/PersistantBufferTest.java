@@ -0,0 +1,294 @@
+/*
+ * Copyright © WebServices pour l'Éducation, 2014
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package fr.wseduc.webutils.test;
+
+import fr.wseduc.webutils.collections.PersistantBuffer;
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Context;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.streams.ReadStream;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class PersistantBufferTest {
+
+	private static final int THRESHOLD = 100000;
+	private static final int CHUNK = 30000;
+	private static final int LENGTH = 10 * CHUNK;
+	/** Persisted after the 4th and the 8th chunk, the 2 last chunks stay in memory */
+	private static final int PERSISTED = 8 * CHUNK;
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+	private Vertx vertx;
+	private Context context;
+
+	@Before
+	public void setUp() {
+		vertx = Vertx.vertx();
+		context = vertx.getOrCreateContext();
+	}
+
+	@After
+	public void tearDown() {
+		vertx.close();
+	}
+
+	private static Buffer content(int length) {
+		final Buffer content = Buffer.buffer(length);
+		for (int i = 0; i < length; i++) {
+			content.appendByte((byte) (i % 251));
+		}
+		return content;
+	}
+
+	/**
+	 * Run an action on the context of the buffer, and wait for its result.
+	 */
+	private <T> T call(Consumer<Handler<AsyncResult<T>>> action) throws Exception {
+		final CompletableFuture<AsyncResult<T>> result = new CompletableFuture<>();
+		context.runOnContext(v -> action.accept(result::complete));
+		final AsyncResult<T> ar = result.get(10, TimeUnit.SECONDS);
+		if (ar.failed()) {
+			throw new AssertionError(ar.cause());
+		}
+		return ar.result();
+	}
+
+	private <T> T get(Supplier<T> supplier) throws Exception {
+		final CompletableFuture<T> result = new CompletableFuture<>();
+		context.runOnContext(v -> result.complete(supplier.get()));
+		return result.get(10, TimeUnit.SECONDS);
+	}
+
+	/**
+	 * Append the content by chunks, waiting for each persist, so the persisted part is deterministic.
+	 */
+	private PersistantBuffer buffer(boolean memoryMapped) throws Exception {
+		return buffer(memoryMapped, "test");
+	}
+
+	private PersistantBuffer buffer(boolean memoryMapped, String id) throws Exception {
+		final PersistantBuffer buffer = new PersistantBuffer(vertx, Buffer.buffer(), id,
+				folder.getRoot().getAbsolutePath());
+		buffer.setPersistanceThreshold(THRESHOLD);
+		buffer.setMemoryMapped(memoryMapped);
+		buffer.setMappedRegionSize(65536);
+		final Buffer content = content(LENGTH);
+		for (int i = 0; i < LENGTH; i += CHUNK) {
+			final Buffer chunk = content.getBuffer(i, i + CHUNK);
+			this.<Buffer>call(h -> {
+				buffer.appendBuffer(chunk);
+				buffer.getBuffer(h);
+			});
+		}
+		return buffer;
+	}
+
+	private static class Collector {
+		final Buffer content = Buffer.buffer();
+		final List<Integer> chunks = Collections.synchronizedList(new ArrayList<>());
+		final CompletableFuture<Buffer> end = new CompletableFuture<>();
+
+		Collector(ReadStream<Buffer> stream) {
+			stream.exceptionHandler(end::completeExceptionally);
+			stream.endHandler(v -> end.complete(content));
+			stream.handler(chunk -> {
+				chunks.add(chunk.length());
+				content.appendBuffer(chunk);
+			});
+		}
+
+		Buffer await() throws Exception {
+			return end.get(10, TimeUnit.SECONDS);
+		}
+	}
+
+	private Buffer read(PersistantBuffer buffer, long offset, long len) throws Exception {
+		return get(() -> new Collector(buffer.readStream(offset, len))).await();
+	}
+
+	private Buffer slice(PersistantBuffer buffer, long offset, int len) throws Exception {
+		return call(h -> buffer.slice(offset, len, h));
+	}
+
+	@Test
+	public void readStream() throws Exception {
+		final PersistantBuffer buffer = buffer(false);
+		final Buffer content = content(LENGTH);
+		assertEquals(LENGTH, buffer.length());
+		assertEquals(content, get(() -> new Collector(buffer.readStream())).await());
+		assertEquals(content.getBuffer(PERSISTED - 70000, PERSISTED + 5000),
+				read(buffer, PERSISTED - 70000, 75000));
+		assertEquals(content.getBuffer(PERSISTED + 10, LENGTH), read(buffer, PERSISTED + 10, LENGTH - PERSISTED - 10));
+		assertEquals(Buffer.buffer(), read(buffer, 12345, 0));
+	}
+
+	@Test
+	public void readStreamPauseAndResume() throws Exception {
+		final PersistantBuffer buffer = buffer(false);
+		final Collector collector = get(() -> {
+			final ReadStream<Buffer> stream = buffer.readStream().pause();
+			final Collector c = new Collector(stream);
+			vertx.setTimer(200, t -> stream.fetch(1));
+			vertx.setTimer(600, t -> stream.resume());
+			return c;
+		});
+		Thread.sleep(100);
+		assertTrue(collector.chunks.isEmpty());
+		Thread.sleep(300);
+		assertEquals(1, collector.chunks.size());
+		assertFalse(collector.end.isDone());
+		assertEquals(content(LENGTH), collector.await());
+		for (int len : collector.chunks) {
+			assertTrue(len > 0 && len <= 65536);
+		}
+	}
+
+	@Test
+	public void sliceOfPersistedAndMemoryContent() throws Exception {
+		final PersistantBuffer buffer = buffer(false);
+		final Buffer content = content(LENGTH);
+		final int[][] slices = {
+				{0, 10},
+				{CHUNK * 4 - 5, 10},
+				{PERSISTED - 100, 200},
+				{PERSISTED - 1, 1},
+				{PERSISTED, 1},
+				{10, LENGTH - 20},
+				{LENGTH - 7, 7},
+		};
+		for (int[] s : slices) {
+			assertEquals(s[0] + "+" + s[1], content.getBuffer(s[0], s[0] + s[1]), slice(buffer, s[0], s[1]));
+		}
+	}
+
+	@Test
+	public void outOfRangeArguments() throws Exception {
+		final PersistantBuffer buffer = buffer(false);
+		final long[][] invalid = {{-1, 10}, {0, -1}, {0, LENGTH + 1}, {LENGTH, 1}, {LENGTH - 1, 2}};
+		for (long[] i : invalid) {
+			try {
+				buffer.readStream(i[0], i[1]);
+				fail("readStream " + i[0] + "+" + i[1]);
+			} catch (IndexOutOfBoundsException e) {
+				// expected
+			}
+			final CompletableFuture<AsyncResult<Buffer>> result = new CompletableFuture<>();
+			context.runOnContext(v -> buffer.slice(i[0], (int) i[1], result::complete));
+			final AsyncResult<Buffer> ar = result.get(10, TimeUnit.SECONDS);
+			assertTrue("slice " + i[0] + "+" + i[1], ar.failed());
+			assertTrue(ar.cause() instanceof IndexOutOfBoundsException);
+		}
+		assertEquals(Buffer.buffer(), slice(buffer, LENGTH, 0));
+	}
+
+	@Test
+	public void mappedReads() throws Exception {
+		final PersistantBuffer buffer = buffer(true);
+		final Buffer content = content(LENGTH);
+		assertTrue(new File(folder.getRoot(), "PersistantBuffer-test").length() >= PERSISTED);
+		assertEquals(content, this.<Buffer>call(buffer::getBuffer));
+		assertEquals(content, get(() -> new Collector(buffer.readStream())).await());
+		assertEquals(content.getBuffer(PERSISTED - 70000, PERSISTED + 5000),
+				read(buffer, PERSISTED - 70000, 75000));
+		final int[][] slices = {{0, 10}, {65530, 20}, {65536, 65536}, {PERSISTED - 100, 200}, {10, LENGTH - 20}};
+		for (int[] s : slices) {
+			assertEquals(s[0] + "+" + s[1], content.getBuffer(s[0], s[0] + s[1]), slice(buffer, s[0], s[1]));
+		}
+	}
+
+	@Test
+	public void mappedSlicesRemainValidAfterClear() throws Exception {
+		final PersistantBuffer buffer = buffer(true);
+		final Buffer content = content(LENGTH);
+		final Buffer slice = slice(buffer, 1000, 70000);
+		final File file = new File(folder.getRoot(), "PersistantBuffer-test");
+		get(() -> {
+			buffer.clear();
+			return null;
+		});
+		for (int i = 0; i < 500 && file.exists(); i++) {
+			Thread.sleep(10);
+		}
+		assertFalse(file.exists());
+		assertEquals(content.getBuffer(1000, 71000), slice);
+		assertEquals(0, buffer.length());
+	}
+
+	@Test
+	public void mappedReadsAfterClose() throws Exception {
+		final PersistantBuffer buffer = buffer(true);
+		final Buffer content = content(LENGTH);
+		this.<Void>call(buffer::close);
+		assertFalse(buffer.isMemoryMapped());
+		assertEquals(PERSISTED, new File(folder.getRoot(), "PersistantBuffer-test").length());
+		assertEquals(content, get(() -> new Collector(buffer.readStream())).await());
+		assertEquals(content.getBuffer(PERSISTED - 100, PERSISTED + 100), slice(buffer, PERSISTED - 100, 200));
+		assertEquals(content, this.<Buffer>call(buffer::getBuffer));
+	}
+
+	@Test
+	public void clearWhileStreaming() throws Exception {
+		for (boolean memoryMapped : new boolean[]{false, true}) {
+			final PersistantBuffer buffer = buffer(memoryMapped, "cleared-" + memoryMapped);
+			final CompletableFuture<ReadStream<Buffer>> stream = new CompletableFuture<>();
+			final Collector collector = get(() -> {
+				final ReadStream<Buffer> s = buffer.readStream().pause();
+				stream.complete(s);
+				return new Collector(s);
+			});
+			context.runOnContext(v -> stream.join().fetch(1));
+			for (int i = 0; i < 500 && collector.chunks.isEmpty(); i++) {
+				Thread.sleep(10);
+			}
+			assertEquals(1, collector.chunks.size());
+			context.runOnContext(v -> {
+				buffer.clear();
+				stream.join().resume();
+			});
+			try {
+				collector.await();
+				fail("The stream must fail when the buffer is cleared");
+			} catch (ExecutionException e) {
+				assertTrue(e.getCause() instanceof IllegalStateException);
+			}
+			assertEquals(1, collector.chunks.size());
+		}
+	}
+
+}
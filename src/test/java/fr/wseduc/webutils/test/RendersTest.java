@@ -0,0 +1,111 @@
+/*
+ * Copyright © WebServices pour l'Éducation, 2014
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package fr.wseduc.webutils.test;
+
+import fr.wseduc.webutils.http.Renders;
+import fr.wseduc.webutils.template.TemplateProcessor;
+import io.vertx.core.MultiMap;
+import io.vertx.core.http.HttpServerRequest;
+import io.vertx.core.json.JsonObject;
+import org.junit.Test;
+
+import java.io.StringReader;
+import java.io.Writer;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class RendersTest {
+
+	private static final String TEMPLATE = "{{#static}}app.js{{/static}} {{#infra}}i.js{{/infra}}";
+
+	private static class TestRenders extends Renders {
+		TestRenders() {
+			super(null, new JsonObject().put("path-prefix", "app"));
+			this.templateProcessor = new TemplateProcessor(null, "view/");
+		}
+
+		String render(HttpServerRequest request) {
+			final AtomicReference<String> result = new AtomicReference<>();
+			processTemplate(request, new JsonObject(), "test.html", new StringReader(TEMPLATE),
+					(Writer w) -> result.set(w != null ? w.toString() : null));
+			return result.get();
+		}
+	}
+
+	private static HttpServerRequest request(String host) {
+		final MultiMap headers = MultiMap.caseInsensitiveMultiMap().add("Host", host)
+				.add("X-Forwarded-For", "10.0.0.1");
+		return (HttpServerRequest) Proxy.newProxyInstance(RendersTest.class.getClassLoader(),
+				new Class<?>[]{HttpServerRequest.class}, (proxy, m, args) ->
+						"headers".equals(m.getName()) ? headers : null);
+	}
+
+	@Test
+	public void concurrentRendersUseTheLambdasOfTheirRequest() throws Exception {
+		final TestRenders renders = new TestRenders();
+		final int threads = 8;
+		final ExecutorService executor = Executors.newFixedThreadPool(threads);
+		final CountDownLatch start = new CountDownLatch(1);
+		try {
+			final List<Future<Boolean>> results = new ArrayList<>();
+			for (int t = 0; t < threads; t++) {
+				final String host = "host" + t;
+				final HttpServerRequest request = request(host);
+				results.add(executor.submit(() -> {
+					start.await();
+					for (int i = 0; i < 500; i++) {
+						final String expected = "http://" + host + "/app/public/app.js http://" + host + "/infra/public/i.js";
+						if (!expected.equals(renders.render(request))) {
+							return false;
+						}
+					}
+					return true;
+				}));
+			}
+			start.countDown();
+			for (Future<Boolean> result : results) {
+				assertTrue(result.get(30, TimeUnit.SECONDS));
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	@Test
+	@SuppressWarnings("deprecation")
+	public void legacyLambdasOverrideIsStillCalled() {
+		final TestRenders renders = new TestRenders() {
+			@Override
+			protected void setLambdaTemplateRequest(HttpServerRequest request) {
+				super.setLambdaTemplateRequest(request);
+				templateProcessor.setLambda("static", (frag, out) -> out.write("legacy/" + frag.execute()));
+			}
+		};
+		assertEquals("legacy/app.js http://host/infra/public/i.js", renders.render(request("host")));
+	}
+
+}
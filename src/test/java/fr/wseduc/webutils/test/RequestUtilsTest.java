@@ -0,0 +1,190 @@
+/*
+ * Copyright © WebServices pour l'Éducation, 2014
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package fr.wseduc.webutils.test;
+
+import fr.wseduc.webutils.request.RequestUtils;
+import io.vertx.core.Handler;
+import io.vertx.core.MultiMap;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.http.HttpServerRequest;
+import io.vertx.core.http.HttpServerResponse;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import org.junit.Test;
+
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class RequestUtilsTest {
+
+	private static class Call {
+		final HttpServerRequest request;
+		final MultiMap headers = MultiMap.caseInsensitiveMultiMap();
+		Handler<Buffer> handler;
+		Handler<Void> endHandler;
+		int status = 200;
+		boolean ended = false;
+		Object result;
+
+		Call() {
+			final HttpServerResponse response = (HttpServerResponse) Proxy.newProxyInstance(
+					getClass().getClassLoader(), new Class<?>[]{HttpServerResponse.class}, (proxy, m, args) -> {
+						switch (m.getName()) {
+							case "setStatusCode":
+								status = (Integer) args[0];
+								return proxy;
+							case "end":
+								ended = true;
+								return null;
+							default:
+								return m.getReturnType() == HttpServerResponse.class ? proxy : null;
+						}
+					});
+			request = (HttpServerRequest) Proxy.newProxyInstance(getClass().getClassLoader(),
+					new Class<?>[]{HttpServerRequest.class}, (proxy, m, args) -> {
+						switch (m.getName()) {
+							case "headers":
+								return headers;
+							case "response":
+								return response;
+							case "handler":
+								handler = cast(args[0]);
+								return proxy;
+							case "endHandler":
+								endHandler = cast(args[0]);
+								return proxy;
+							default:
+								return m.getReturnType() == HttpServerRequest.class ? proxy : null;
+						}
+					});
+		}
+
+		@SuppressWarnings("unchecked")
+		private static <T> Handler<T> cast(Object handler) {
+			return (Handler<T>) handler;
+		}
+
+		Call object(long maxBodySize, byte[]... chunks) {
+			RequestUtils.streamToJson(request, maxBodySize, json -> result = json);
+			return send(chunks);
+		}
+
+		Call array(long maxBodySize, byte[]... chunks) {
+			RequestUtils.streamToJsonArray(request, maxBodySize, json -> result = json);
+			return send(chunks);
+		}
+
+		private Call send(byte[]... chunks) {
+			if (ended) {
+				return this;
+			}
+			for (byte[] chunk : chunks) {
+				handler.handle(Buffer.buffer(chunk));
+			}
+			endHandler.handle(null);
+			return this;
+		}
+	}
+
+	private static byte[] bytes(String s) {
+		return s.getBytes(StandardCharsets.UTF_8);
+	}
+
+	private static byte[][] split(byte[] body, int index) {
+		final byte[] first = new byte[index];
+		final byte[] second = new byte[body.length - index];
+		System.arraycopy(body, 0, first, 0, index);
+		System.arraycopy(body, index, second, 0, second.length);
+		return new byte[][]{first, second};
+	}
+
+	/**
+	 * The vert.x json equality depends on the classes, and the parsed trees are made of webutils collections.
+	 */
+	private static void assertJson(Object expected, Object actual) {
+		assertEquals(expected.toString(), String.valueOf(actual));
+	}
+
+	@Test
+	public void bodySizeLimit() {
+		final byte[] body = bytes("{\"name\":\"value\"}");
+		final Call atLimit = new Call().object(body.length, split(body, 7));
+		assertJson(new JsonObject().put("name", "value"), atLimit.result);
+		assertEquals(200, atLimit.status);
+
+		final Call aboveLimit = new Call().object(body.length - 1, split(body, 7));
+		assertNull(aboveLimit.result);
+		assertEquals(413, aboveLimit.status);
+
+		final Call contentLength = new Call();
+		contentLength.headers.set("Content-Length", String.valueOf(body.length + 1));
+		contentLength.object(body.length);
+		assertNull(contentLength.result);
+		assertEquals(413, contentLength.status);
+		assertNull(contentLength.handler);
+	}
+
+	@Test
+	public void chunkBoundaries() {
+		final String value = "é€😀 <b>x</b> 12";
+		final byte[] body = bytes("{\"name\":\"" + value + "\",\"n\":12345,\"b\":true,\"z\":null}");
+		final JsonObject expected = new JsonObject().put("name", value).put("n", 12345).put("b", true)
+				.putNull("z");
+		for (int i = 0; i <= body.length; i++) {
+			final Call call = new Call().object(-1, split(body, i));
+			assertEquals("split at " + i, expected.encode(), ((JsonObject) call.result).encode());
+		}
+	}
+
+	@Test
+	public void nestedValues() {
+		final Call call = new Call().object(-1, bytes(
+				"{\"a\":{\"b\":[1,{\"c\":\"d\"}]},\"l\":[[1,2],[]],\"o\":{}}"));
+		final JsonObject json = (JsonObject) call.result;
+		assertJson(new JsonObject()
+				.put("a", new JsonObject().put("b", new JsonArray().add(1).add(new JsonObject().put("c", "d"))))
+				.put("l", new JsonArray().add(new JsonArray().add(1).add(2)).add(new JsonArray()))
+				.put("o", new JsonObject()), json);
+		assertTrue(json instanceof fr.wseduc.webutils.collections.JsonObject);
+		assertTrue(json.getJsonObject("a") instanceof fr.wseduc.webutils.collections.JsonObject);
+		assertTrue(json.getJsonObject("a").getJsonArray("b") instanceof fr.wseduc.webutils.collections.JsonArray);
+		assertTrue(json.getJsonArray("l").getJsonArray(0) instanceof fr.wseduc.webutils.collections.JsonArray);
+
+		final Call array = new Call().array(-1, bytes("[{\"a\":[]},[{}]]"));
+		assertJson(new JsonArray().add(new JsonObject().put("a", new JsonArray()))
+				.add(new JsonArray().add(new JsonObject())), array.result);
+		assertTrue(array.result instanceof fr.wseduc.webutils.collections.JsonArray);
+	}
+
+	@Test
+	public void malformedBodies() {
+		final String[] objects = {"", "{\"a\":", "{\"a\" 1}", "[1,2]", "\"a\"", "{} {}", "{\"a\":1}}", "nul"};
+		for (String body : objects) {
+			final Call call = new Call().object(-1, bytes(body));
+			assertNull(body, call.result);
+			assertEquals(body, 400, call.status);
+		}
+		final Call array = new Call().array(-1, bytes("{\"a\":1}"));
+		assertNull(array.result);
+		assertEquals(400, array.status);
+	}
+
+}
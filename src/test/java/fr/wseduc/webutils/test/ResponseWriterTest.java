@@ -0,0 +1,260 @@
+/*
+ * Copyright © WebServices pour l'Éducation, 2014
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package fr.wseduc.webutils.test;
+
+import fr.wseduc.webutils.http.ResponseWriter;
+import io.vertx.core.Context;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.http.HttpServerResponse;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ResponseWriterTest {
+
+	private Vertx vertx;
+	private Context context;
+
+	private static class Response {
+		final List<Buffer> writes = Collections.synchronizedList(new ArrayList<>());
+		volatile boolean full = false;
+		volatile boolean closed = false;
+		volatile boolean chunked = false;
+		volatile Buffer end;
+		volatile Handler<Void> drainHandler;
+		final HttpServerResponse response = (HttpServerResponse) Proxy.newProxyInstance(
+				getClass().getClassLoader(), new Class<?>[]{HttpServerResponse.class}, (proxy, m, args) -> {
+					switch (m.getName()) {
+						case "writeQueueFull":
+							return full;
+						case "closed":
+							return closed;
+						case "setChunked":
+							chunked = (Boolean) args[0];
+							return proxy;
+						case "write":
+							writes.add((Buffer) args[0]);
+							return proxy;
+						case "end":
+							end = (args != null && args.length > 0) ? (Buffer) args[0] : Buffer.buffer();
+							return null;
+						case "drainHandler":
+							drainHandler = cast(args[0]);
+							return proxy;
+						case "close":
+							closed = true;
+							return null;
+						default:
+							return m.getReturnType() == HttpServerResponse.class ? proxy : null;
+					}
+				});
+
+		@SuppressWarnings("unchecked")
+		private static <T> Handler<T> cast(Object handler) {
+			return (Handler<T>) handler;
+		}
+
+		String body() {
+			final Buffer body = Buffer.buffer();
+			synchronized (writes) {
+				for (Buffer b : writes) {
+					body.appendBuffer(b);
+				}
+			}
+			if (end != null) {
+				body.appendBuffer(end);
+			}
+			return body.toString("UTF-8");
+		}
+	}
+
+	@Before
+	public void setUp() {
+		vertx = Vertx.vertx();
+		context = vertx.getOrCreateContext();
+	}
+
+	@After
+	public void tearDown() {
+		vertx.close();
+	}
+
+	private static void await(BooleanSupplier condition) throws InterruptedException {
+		final long end = System.currentTimeMillis() + 5000;
+		while (!condition.getAsBoolean()) {
+			assertTrue("timeout", System.currentTimeMillis() < end);
+			Thread.sleep(5);
+		}
+	}
+
+	@Test
+	public void shortTextIsSentWithContentLength() throws Exception {
+		final Response r = new Response();
+		final ResponseWriter writer = new ResponseWriter(r.response, context, 16, 1024, 1000);
+		writer.write("hello");
+		writer.close();
+		await(() -> r.end != null);
+		assertFalse(r.chunked);
+		assertTrue(r.writes.isEmpty());
+		assertEquals("hello", r.body());
+		assertFalse(writer.isCommitted());
+	}
+
+	@Test
+	public void textIsSentInChunks() throws Exception {
+		final Response r = new Response();
+		final ResponseWriter writer = new ResponseWriter(r.response, context, 4, 1024, 1000);
+		final String text = "héllo wörld 😀 fin €";
+		writer.write(text.substring(0, 3));
+		writer.write(text.charAt(3));
+		writer.write(text.toCharArray(), 4, text.length() - 4);
+		writer.close();
+		await(() -> r.end != null);
+		assertTrue(r.chunked);
+		assertTrue(writer.isCommitted());
+		assertTrue(r.writes.size() > 1);
+		assertEquals(text, r.body());
+	}
+
+	@Test
+	public void writesDoNotBlockWhileTheResponseIsFull() throws Exception {
+		final Response r = new Response();
+		r.full = true;
+		final ResponseWriter writer = new ResponseWriter(r.response, context, 4, 1024, 5000);
+		writer.write("abcdefghijkl");
+		writer.close();
+		await(() -> r.drainHandler != null);
+		assertTrue(r.writes.isEmpty());
+		assertNull(r.end);
+
+		r.full = false;
+		context.runOnContext(v -> r.drainHandler.handle(null));
+		await(() -> r.end != null);
+		assertEquals("abcdefghijkl", r.body());
+		assertFalse(r.closed);
+	}
+
+	/**
+	 * Write the text from another thread, collecting its errors.
+	 */
+	private static Thread writeInBackground(ResponseWriter writer, String text, List<IOException> errors) {
+		final Thread thread = new Thread(() -> {
+			try {
+				writer.write(text);
+			} catch (IOException e) {
+				errors.add(e);
+			}
+		});
+		thread.start();
+		return thread;
+	}
+
+	@Test
+	public void writerWaitsForTheDrainWhenTheBacklogIsFull() throws Exception {
+		final Response r = new Response();
+		r.full = true;
+		final ResponseWriter writer = new ResponseWriter(r.response, context, 4, 8, 5000);
+		writer.write("abcdefgh");
+		final List<IOException> errors = Collections.synchronizedList(new ArrayList<>());
+		final Thread thread = writeInBackground(writer, "ijklmnop", errors);
+		await(() -> thread.getState() == Thread.State.WAITING);
+		await(() -> r.drainHandler != null);
+		assertTrue(r.writes.isEmpty());
+
+		r.full = false;
+		context.runOnContext(v -> r.drainHandler.handle(null));
+		thread.join(5000);
+		assertFalse(thread.isAlive());
+		assertTrue(errors.isEmpty());
+		writer.close();
+		await(() -> r.end != null);
+		assertEquals("abcdefghijklmnop", r.body());
+		assertFalse(r.closed);
+	}
+
+	@Test
+	public void waitingWriterFailsOnDrainTimeout() throws Exception {
+		final Response r = new Response();
+		r.full = true;
+		final ResponseWriter writer = new ResponseWriter(r.response, context, 4, 8, 200);
+		final List<IOException> errors = Collections.synchronizedList(new ArrayList<>());
+		final Thread thread = writeInBackground(writer, "abcdefghijkl", errors);
+		thread.join(5000);
+		assertFalse(thread.isAlive());
+		assertEquals(1, errors.size());
+		assertTrue(errors.get(0).getMessage().contains("drain timeout"));
+		await(() -> r.closed);
+	}
+
+	@Test
+	public void responseIsClosedWhenNotDrained() throws Exception {
+		final Response r = new Response();
+		r.full = true;
+		final ResponseWriter writer = new ResponseWriter(r.response, context, 4, 1024, 50);
+		writer.write("abcd");
+		await(() -> r.closed);
+		try {
+			writer.write("efgh");
+			fail("The writer must fail after the drain timeout");
+		} catch (IOException e) {
+			assertTrue(e.getMessage().contains("drain timeout"));
+		}
+		assertNull(r.end);
+	}
+
+	@Test
+	public void writesFailOnceTheResponseIsClosed() throws Exception {
+		final Response r = new Response();
+		final ResponseWriter writer = new ResponseWriter(r.response, context, 4, 1024, 1000);
+		writer.write("abcd");
+		await(() -> r.writes.size() == 1);
+		assertTrue(writer.isCommitted());
+		r.closed = true;
+		await(() -> {
+			try {
+				writer.write("efgh");
+				return false;
+			} catch (IOException e) {
+				return true;
+			}
+		});
+		try {
+			writer.close();
+			fail("The writer must fail once the response is closed");
+		} catch (IOException e) {
+			assertTrue(e.getMessage().contains("closed"));
+		}
+		assertNull(r.end);
+		assertEquals(1, r.writes.size());
+	}
+
+}
@@ -0,0 +1,226 @@
+/*
+ * Copyright © WebServices pour l'Éducation, 2014
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package fr.wseduc.webutils.test;
+
+import io.vertx.core.MultiMap;
+import io.vertx.core.http.HttpMethod;
+import io.vertx.core.http.HttpServerRequest;
+import io.vertx.core.http.HttpServerResponse;
+import org.junit.Test;
+import org.vertx.java.core.http.RouteMatcher;
+
+import java.lang.reflect.Proxy;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class RouteMatcherTest {
+
+	private static class Call {
+		final HttpServerRequest request;
+		final Map<String, String> responseHeaders = new HashMap<>();
+		int status = 200;
+
+		Call(HttpMethod method, String path) {
+			final MultiMap params = MultiMap.caseInsensitiveMultiMap();
+			final HttpServerResponse response = (HttpServerResponse) Proxy.newProxyInstance(
+					getClass().getClassLoader(), new Class<?>[]{HttpServerResponse.class}, (proxy, m, args) -> {
+						switch (m.getName()) {
+							case "setStatusCode":
+								status = (Integer) args[0];
+								return proxy;
+							case "putHeader":
+								responseHeaders.put(args[0].toString(), args[1].toString());
+								return proxy;
+							default:
+								return null;
+						}
+					});
+			request = (HttpServerRequest) Proxy.newProxyInstance(
+					getClass().getClassLoader(), new Class<?>[]{HttpServerRequest.class}, (proxy, m, args) -> {
+						switch (m.getName()) {
+							case "method":
+								return method;
+							case "path":
+								return path;
+							case "params":
+								return params;
+							case "getParam":
+								return params.get((String) args[0]);
+							case "response":
+								return response;
+							default:
+								return null;
+						}
+					});
+		}
+	}
+
+	private static Call handle(RouteMatcher rm, HttpMethod method, String path) {
+		final Call call = new Call(method, path);
+		rm.handle(call.request);
+		return call;
+	}
+
+	private static Call get(RouteMatcher rm, String path) {
+		return handle(rm, HttpMethod.GET, path);
+	}
+
+	@Test
+	public void literalAndParamRoutes() {
+		final Map<String, String> handled = new HashMap<>();
+		final RouteMatcher rm = new RouteMatcher();
+		rm.get("/app/list", r -> handled.put("route", "list"));
+		rm.get("/app/:id", r -> handled.put("route", "id:" + r.params().get("id")));
+		rm.get("/app/:id/share/:userId", r ->
+				handled.put("route", "share:" + r.params().get("id") + ":" + r.params().get("userId")));
+
+		get(rm, "/app/list");
+		assertEquals("list", handled.get("route"));
+		get(rm, "/app/42");
+		assertEquals("id:42", handled.get("route"));
+		get(rm, "/app/42/share/bob");
+		assertEquals("share:42:bob", handled.get("route"));
+		assertEquals(404, get(rm, "/app/42/share").status);
+		assertEquals(404, get(rm, "/app/").status);
+		assertEquals(404, get(rm, "/app/42/").status);
+	}
+
+	@Test
+	public void registrationOrderWins() {
+		final Map<String, String> handled = new HashMap<>();
+		final RouteMatcher rm = new RouteMatcher();
+		rm.get("/app/:id", r -> handled.put("route", "id"));
+		rm.get("/app/list", r -> handled.put("route", "list"));
+		rm.getWithRegEx("\\/app\\/.*", r -> handled.put("route", "regex"));
+		rm.get("/other/:id", r -> handled.put("route", "other"));
+		rm.getWithRegEx("\\/other\\/(.*)", r -> handled.put("route", "regex:" + r.params().get("param0")));
+
+		get(rm, "/app/list");
+		assertEquals("id", handled.get("route"));
+		get(rm, "/app/list/more");
+		assertEquals("regex", handled.get("route"));
+		get(rm, "/other/1");
+		assertEquals("other", handled.get("route"));
+		get(rm, "/other/1/2");
+		assertEquals("regex:1/2", handled.get("route"));
+	}
+
+	@Test
+	public void patternsWithRegexCharacters() {
+		final Map<String, String> handled = new HashMap<>();
+		final RouteMatcher rm = new RouteMatcher();
+		rm.get("/app/file.json", r -> handled.put("route", "file"));
+		rm.get("/app/prefix-:id", r -> handled.put("route", "prefix:" + r.params().get("id")));
+
+		get(rm, "/app/fileXjson");
+		assertEquals("file", handled.get("route"));
+		get(rm, "/app/prefix-12");
+		assertEquals("prefix:12", handled.get("route"));
+		handled.clear();
+		get(rm, "/app/other");
+		assertNull(handled.get("route"));
+	}
+
+	@Test
+	public void lazyParams() {
+		final Map<String, String> handled = new HashMap<>();
+		final RouteMatcher rm = new RouteMatcher().lazyParams(true);
+		rm.get("/app/:id/share/:userId", r -> {
+			handled.put("id", r.params().get("id"));
+			handled.put("userId", r.getParam("USERID"));
+			handled.put("size", String.valueOf(r.params().size()));
+			r.params().set("id", "43");
+			handled.put("updated", r.params().get("id"));
+		});
+		rm.getWithRegEx("\\/regex\\/([^\\/]+)(\\/sub)?", r -> {
+			handled.put("param0", r.params().get("param0"));
+			handled.put("param1", String.valueOf(r.params().contains("param1")));
+		});
+
+		final Call call = get(rm, "/app/42/share/bob");
+		assertEquals("42", handled.get("id"));
+		assertEquals("bob", handled.get("userId"));
+		assertEquals("2", handled.get("size"));
+		assertEquals("43", handled.get("updated"));
+		assertEquals("43", call.request.params().get("id"));
+		get(rm, "/regex/a");
+		assertEquals("a", handled.get("param0"));
+		assertEquals("false", handled.get("param1"));
+	}
+
+	@Test
+	public void methodNotAllowedAndHead() {
+		final Map<String, String> handled = new HashMap<>();
+		final RouteMatcher rm = new RouteMatcher().methodNotAllowed(true);
+		rm.get("/app/:id", r -> handled.put("route", "get:" + r.params().get("id")));
+		rm.put("/app/:id", r -> handled.put("route", "put"));
+		rm.postWithRegEx("\\/upload\\/.+", r -> handled.put("route", "upload"));
+		rm.head("/app/list", r -> handled.put("route", "head"));
+
+		handle(rm, HttpMethod.HEAD, "/app/42");
+		assertEquals("get:42", handled.get("route"));
+		handle(rm, HttpMethod.HEAD, "/app/list");
+		assertEquals("head", handled.get("route"));
+
+		Call call = handle(rm, HttpMethod.DELETE, "/app/42");
+		assertEquals(405, call.status);
+		assertEquals("GET, HEAD, PUT", call.responseHeaders.get("Allow"));
+		call = handle(rm, HttpMethod.GET, "/upload/file");
+		assertEquals(405, call.status);
+		assertEquals("POST", call.responseHeaders.get("Allow"));
+		assertEquals(404, handle(rm, HttpMethod.DELETE, "/other").status);
+	}
+
+	@Test
+	public void noMatchHandlerByDefault() {
+		final Map<String, String> handled = new HashMap<>();
+		final RouteMatcher rm = new RouteMatcher();
+		rm.get("/app/:id", r -> handled.put("route", "get"));
+		rm.noMatch(r -> handled.put("route", "fallback:" + r.path()));
+
+		final Call call = handle(rm, HttpMethod.DELETE, "/app/42");
+		assertEquals("fallback:/app/42", handled.get("route"));
+		assertEquals(200, call.status);
+		assertNull(call.responseHeaders.get("Allow"));
+	}
+
+	@Test
+	public void resolutionCache() {
+		final Map<String, String> handled = new HashMap<>();
+		final RouteMatcher rm = new RouteMatcher().cacheSize(2);
+		rm.get("/app/:id", r -> handled.put("route", "id:" + r.params().get("id")));
+
+		get(rm, "/app/1");
+		get(rm, "/app/1");
+		assertEquals("id:1", handled.get("route"));
+		assertEquals(1, rm.getCacheHits());
+		assertEquals(1, rm.getCacheMisses());
+
+		rm.get("/app/1", r -> handled.put("route", "one"));
+		get(rm, "/app/1");
+		assertEquals("id:1", handled.get("route"));
+		rm.getWithRegEx("\\/app\\/2", r -> handled.put("route", "two"));
+		get(rm, "/app/2");
+		assertEquals("id:2", handled.get("route"));
+		assertEquals(1, rm.getCacheHits());
+		assertEquals(3, rm.getCacheMisses());
+	}
+
+}
@@ -0,0 +1,278 @@
+/*
+ * Copyright © WebServices pour l'Éducation, 2014
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package fr.wseduc.webutils.test;
+
+import fr.wseduc.webutils.http.StaticAssets;
+import io.vertx.core.MultiMap;
+import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.http.HttpServerRequest;
+import io.vertx.core.http.HttpServerResponse;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class StaticAssetsTest {
+
+	private static final long MODIFIED = 1441529377000L;
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+	private Vertx vertx;
+
+	private static class Call {
+		final MultiMap headers = MultiMap.caseInsensitiveMultiMap();
+		final MultiMap responseHeaders = MultiMap.caseInsensitiveMultiMap();
+		final CountDownLatch done = new CountDownLatch(1);
+		volatile int status = 200;
+		volatile Buffer body;
+		volatile String sentFile;
+		final HttpServerRequest request;
+
+		Call(String... headers) {
+			for (int i = 0; i < headers.length; i += 2) {
+				this.headers.add(headers[i], headers[i + 1]);
+			}
+			final HttpServerResponse response = (HttpServerResponse) Proxy.newProxyInstance(
+					getClass().getClassLoader(), new Class<?>[]{HttpServerResponse.class}, (proxy, m, args) -> {
+						switch (m.getName()) {
+							case "headers":
+								return responseHeaders;
+							case "putHeader":
+								responseHeaders.set(args[0].toString(), args[1].toString());
+								return proxy;
+							case "setStatusCode":
+								status = (Integer) args[0];
+								return proxy;
+							case "end":
+								body = (args != null && args.length > 0) ? (Buffer) args[0] : Buffer.buffer();
+								done.countDown();
+								return null;
+							case "sendFile":
+								sentFile = (String) args[0];
+								done.countDown();
+								return proxy;
+							case "ended":
+								return done.getCount() == 0;
+							default:
+								return m.getReturnType() == HttpServerResponse.class ? proxy : null;
+						}
+					});
+			request = (HttpServerRequest) Proxy.newProxyInstance(getClass().getClassLoader(),
+					new Class<?>[]{HttpServerRequest.class}, (proxy, m, args) -> {
+						switch (m.getName()) {
+							case "headers":
+								return this.headers;
+							case "response":
+								return response;
+							default:
+								return null;
+						}
+					});
+		}
+
+		Call serve(StaticAssets assets, File file) throws InterruptedException {
+			assets.serve(request, file.getAbsolutePath());
+			assertTrue("timeout", done.await(5, TimeUnit.SECONDS));
+			return this;
+		}
+
+		String encoding() {
+			return responseHeaders.get("Content-Encoding");
+		}
+	}
+
+	@Before
+	public void setUp() {
+		vertx = Vertx.vertx();
+	}
+
+	@After
+	public void tearDown() {
+		vertx.close();
+	}
+
+	private File file(String name, byte[] content, long lastModified) throws IOException {
+		final File file = new File(folder.getRoot(), name);
+		Files.write(file.toPath(), content);
+		Files.setLastModifiedTime(file.toPath(), FileTime.fromMillis(lastModified));
+		return file;
+	}
+
+	private static byte[] script(int size) {
+		final StringBuilder sb = new StringBuilder();
+		while (sb.length() < size) {
+			sb.append("console.log('static asset');\n");
+		}
+		return sb.substring(0, size).getBytes(StandardCharsets.UTF_8);
+	}
+
+	private static byte[] random(int size) {
+		final byte[] bytes = new byte[size];
+		new Random(size).nextBytes(bytes);
+		return bytes;
+	}
+
+	private static byte[] gunzip(Buffer body) throws IOException {
+		try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(body.getBytes()))) {
+			final ByteArrayOutputStream out = new ByteArrayOutputStream();
+			final byte[] buf = new byte[4096];
+			int n;
+			while ((n = in.read(buf)) > 0) {
+				out.write(buf, 0, n);
+			}
+			return out.toByteArray();
+		}
+	}
+
+	@Test
+	public void precompressedVariantsAreSelected() throws Exception {
+		final byte[] content = script(4096);
+		final byte[] gz = "precompressed gzip".getBytes(StandardCharsets.UTF_8);
+		final byte[] br = "precompressed br".getBytes(StandardCharsets.UTF_8);
+		final File file = file("app.js", content, MODIFIED);
+		file("app.js.gz", gz, MODIFIED + 1000);
+		file("app.js.br", br, MODIFIED);
+		final StaticAssets assets = new StaticAssets(vertx, 65536, 1048576);
+
+		final Call brotli = new Call("Accept-Encoding", "gzip, br").serve(assets, file);
+		assertEquals("br", brotli.encoding());
+		assertArrayEquals(br, brotli.body.getBytes());
+		assertTrue(brotli.responseHeaders.get("ETag").endsWith("-br\""));
+		assertTrue(brotli.responseHeaders.get("Content-Type").startsWith("application/javascript"));
+
+		final Call gzip = new Call("Accept-Encoding", "gzip, br;q=0").serve(assets, file);
+		assertEquals("gzip", gzip.encoding());
+		assertArrayEquals(gz, gzip.body.getBytes());
+
+		final Call identity = new Call("Accept-Encoding", "gzip;q=0, *;q=0.5, br;q=0").serve(assets, file);
+		assertNull(identity.encoding());
+		assertArrayEquals(content, identity.body.getBytes());
+
+		assertEquals(1, assets.getCacheMisses());
+		assertEquals(2, assets.getCacheHits());
+		for (Call call : Arrays.asList(brotli, gzip, identity)) {
+			assertEquals("Accept-Encoding", call.responseHeaders.get("Vary"));
+			assertEquals(200, call.status);
+			assertNull(call.sentFile);
+		}
+	}
+
+	@Test
+	public void staleOrMissingVariantsAreComputed() throws Exception {
+		final byte[] content = script(4096);
+		final File file = file("app.js", content, MODIFIED);
+		file("app.js.gz", "stale".getBytes(StandardCharsets.UTF_8), MODIFIED - 1000);
+		file("app.js.br", "stale".getBytes(StandardCharsets.UTF_8), MODIFIED - 1000);
+		final StaticAssets assets = new StaticAssets(vertx, 65536, 1048576);
+
+		final Call call = new Call("Accept-Encoding", "br, gzip").serve(assets, file);
+		assertEquals("gzip", call.encoding());
+		assertArrayEquals(content, gunzip(call.body));
+	}
+
+	@Test
+	public void varyIsOnlySentWithVariants() throws Exception {
+		final File image = file("image.png", random(4096), MODIFIED);
+		final File small = file("small.js", script(100), MODIFIED);
+		final StaticAssets assets = new StaticAssets(vertx, 65536, 1048576);
+		for (File file : Arrays.asList(image, small)) {
+			final Call call = new Call("Accept-Encoding", "gzip").serve(assets, file);
+			assertNull(file.getName(), call.encoding());
+			assertNull(file.getName(), call.responseHeaders.get("Vary"));
+			assertArrayEquals(Files.readAllBytes(file.toPath()), call.body.getBytes());
+		}
+	}
+
+	@Test
+	public void sizeLimits() throws Exception {
+		final StaticAssets assets = new StaticAssets(vertx, 2048, 4096);
+		final File large = file("large.png", random(3000), MODIFIED);
+		final Call sent = new Call().serve(assets, large);
+		assertEquals(large.getAbsolutePath(), sent.sentFile);
+		assertNull(sent.body);
+		assertEquals("\"" + Long.toHexString(MODIFIED) + "-" + Long.toHexString(3000) + "\"",
+				sent.responseHeaders.get("ETag"));
+		final long entry = assets.getSize();
+		assertTrue(entry > 0 && entry < 1024);
+
+		final File first = file("first.png", random(1500), MODIFIED);
+		final File second = file("second.png", random(1500), MODIFIED);
+		final File third = file("third.png", random(1500), MODIFIED);
+		for (File file : Arrays.asList(first, second, third)) {
+			assertArrayEquals(Files.readAllBytes(file.toPath()), new Call().serve(assets, file).body.getBytes());
+			assertTrue(assets.getSize() <= 4096);
+		}
+		final long misses = assets.getCacheMisses();
+		new Call().serve(assets, third);
+		assertEquals(misses, assets.getCacheMisses());
+		new Call().serve(assets, first);
+		assertEquals(misses + 1, assets.getCacheMisses());
+
+		final Call missing = new Call().serve(assets, new File(folder.getRoot(), "missing.js"));
+		assertEquals(404, missing.status);
+	}
+
+	@Test
+	public void notModified() throws Exception {
+		final File file = file("app.js", script(4096), MODIFIED);
+		final StaticAssets assets = new StaticAssets(vertx, 65536, 1048576);
+		final Call first = new Call().serve(assets, file);
+		final String etag = first.responseHeaders.get("ETag");
+		final String lastModified = first.responseHeaders.get("Last-Modified");
+		final String gzipETag = new Call("Accept-Encoding", "gzip").serve(assets, file).responseHeaders.get("ETag");
+
+		for (String[] headers : new String[][]{
+				{"If-None-Match", etag},
+				{"If-None-Match", gzipETag},
+				{"If-None-Match", "W/" + etag, "Accept-Encoding", "gzip"},
+				{"If-Modified-Since", lastModified},
+		}) {
+			final Call call = new Call(headers).serve(assets, file);
+			assertEquals(headers[1], 304, call.status);
+			assertEquals(headers[1], 0, call.body.length());
+			assertNull(headers[1], call.encoding());
+			assertEquals(headers[1], "Accept-Encoding", call.responseHeaders.get("Vary"));
+		}
+		final Call changed = new Call("If-None-Match", "\"other\"", "If-Modified-Since", lastModified)
+				.serve(assets, file);
+		assertEquals(200, changed.status);
+	}
+
+}
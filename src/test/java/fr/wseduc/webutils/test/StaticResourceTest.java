@@ -0,0 +1,267 @@
+/*
+ * Copyright © WebServices pour l'Éducation, 2014
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package fr.wseduc.webutils.test;
+
+import fr.wseduc.webutils.http.ByteRanges;
+import fr.wseduc.webutils.http.StaticResource;
+import io.vertx.core.Handler;
+import io.vertx.core.MultiMap;
+import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.http.HttpMethod;
+import io.vertx.core.http.HttpServerRequest;
+import io.vertx.core.http.HttpServerResponse;
+import io.vertx.core.shareddata.LocalMap;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.lang.reflect.Proxy;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.stream.LongStream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class StaticResourceTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private static class Call {
+		final MultiMap responseHeaders = MultiMap.caseInsensitiveMultiMap();
+		final Buffer body = Buffer.buffer();
+		final HttpServerRequest request;
+		boolean full = false;
+		volatile boolean ended = false;
+		volatile int status = 200;
+		volatile Object[] sentFile;
+		int drains = 0;
+		Handler<Void> drainHandler;
+
+		Call(String range) {
+			final HttpServerResponse response = (HttpServerResponse) Proxy.newProxyInstance(
+					getClass().getClassLoader(), new Class<?>[]{HttpServerResponse.class}, (proxy, m, args) -> {
+						switch (m.getName()) {
+							case "headers":
+								return responseHeaders;
+							case "putHeader":
+								responseHeaders.set(args[0].toString(), args[1].toString());
+								return proxy;
+							case "setStatusCode":
+								status = (Integer) args[0];
+								return proxy;
+							case "write":
+								body.appendBuffer((Buffer) args[0]);
+								return proxy;
+							case "end":
+								if (args != null && args.length > 0) {
+									body.appendBuffer((Buffer) args[0]);
+								}
+								ended = true;
+								return null;
+							case "sendFile":
+								sentFile = args;
+								ended = true;
+								return proxy;
+							case "writeQueueFull":
+								return full;
+							case "closed":
+								return false;
+							case "drainHandler":
+								drainHandler = cast(args[0]);
+								return proxy;
+							default:
+								return m.getReturnType() == HttpServerResponse.class ? proxy : null;
+						}
+					});
+			final MultiMap headers = MultiMap.caseInsensitiveMultiMap().add("Range", range);
+			request = (HttpServerRequest) Proxy.newProxyInstance(getClass().getClassLoader(),
+					new Class<?>[]{HttpServerRequest.class}, (proxy, m, args) -> {
+						switch (m.getName()) {
+							case "headers":
+								return headers;
+							case "method":
+								return HttpMethod.GET;
+							case "uri":
+								return "/app/public/video.mp4";
+							case "response":
+								return response;
+							default:
+								return null;
+						}
+					});
+		}
+
+		@SuppressWarnings("unchecked")
+		private static <T> Handler<T> cast(Object handler) {
+			return (Handler<T>) handler;
+		}
+
+		boolean send(Buffer content) {
+			final boolean sent = ByteRanges.send(request, content, "application/octet-stream", "etag", null);
+			while (!ended && drainHandler != null) {
+				final Handler<Void> handler = drainHandler;
+				drains++;
+				handler.handle(null);
+			}
+			return sent;
+		}
+
+		/**
+		 * @return the expected multipart body, with the boundary of the response
+		 */
+		Buffer multipart(Buffer content, long[]... ranges) {
+			final String contentType = responseHeaders.get("Content-Type");
+			final String boundary = contentType.substring(contentType.indexOf("boundary=") + 9);
+			final Buffer expected = Buffer.buffer();
+			for (long[] r : ranges) {
+				expected.appendString("\r\n--" + boundary + "\r\nContent-Type: application/octet-stream\r\n" +
+						"Content-Range: bytes " + r[0] + "-" + r[1] + "/" + content.length() + "\r\n\r\n");
+				expected.appendBuffer(content.slice((int) r[0], (int) r[1] + 1));
+			}
+			return expected.appendString("\r\n--" + boundary + "--\r\n");
+		}
+	}
+
+	private static Buffer content(int length) {
+		final Buffer content = Buffer.buffer(length);
+		for (int i = 0; i < length; i++) {
+			content.appendByte((byte) (i % 251));
+		}
+		return content;
+	}
+
+	@Test
+	public void formatAndParseDates() {
+		assertEquals("Sun, 06 Sep 2015 08:49:37 GMT", StaticResource.formatDate(1441529377123L));
+		assertEquals(1441529377000L, StaticResource.parseDate("Sun, 06 Sep 2015 08:49:37 GMT"));
+		assertEquals(1441529377000L, StaticResource.parseDate("Sun, 6 Sep 2015 08:49:37 GMT"));
+		assertEquals(-1L, StaticResource.parseDate("06/09/2015"));
+	}
+
+	@Test
+	public void concurrentFormatting() {
+		assertTrue(LongStream.range(0, 20000).parallel().allMatch(i -> {
+			final long time = 1400000000000L + i * 86399999L;
+			return StaticResource.parseDate(StaticResource.formatDate(time)) == time - time % 1000;
+		}));
+	}
+
+	@Test
+	public void etag() {
+		assertEquals("14fa1d8b163-400", StaticResource.etag(1024, 1441529377123L));
+	}
+
+	@Test
+	public void parseRanges() {
+		List<long[]> ranges = ByteRanges.parse("bytes=0-99, 200-, -50", 1000);
+		assertEquals(3, ranges.size());
+		assertArrayEquals(new long[]{0, 99}, ranges.get(0));
+		assertArrayEquals(new long[]{200, 999}, ranges.get(1));
+		assertArrayEquals(new long[]{950, 999}, ranges.get(2));
+		assertArrayEquals(new long[]{990, 999}, ByteRanges.parse("bytes=990-2000", 1000).get(0));
+		assertTrue(ByteRanges.parse("bytes=1000-", 1000).isEmpty());
+		assertNull(ByteRanges.parse("bytes=20-10", 1000));
+		assertNull(ByteRanges.parse("items=0-1", 1000));
+		assertNull(ByteRanges.parse("bytes=a-b", 1000));
+	}
+
+	@Test
+	public void multipartRanges() {
+		final Buffer content = content(300000);
+		final long[][] ranges = {{0, 99999}, {100001, 100010}, {150000, 299999}};
+		final Call call = new Call("bytes=150000-, 100001-100010, 0-99999");
+		assertTrue(call.send(content));
+		assertTrue(call.ended);
+		assertEquals(206, call.status);
+		assertEquals(0, call.drains);
+		assertEquals(call.multipart(content, ranges), call.body);
+		assertEquals(String.valueOf(call.body.length()), call.responseHeaders.get("Content-Length"));
+		assertNull(call.drainHandler);
+	}
+
+	@Test
+	public void multipartRangesWithBackpressure() {
+		final Buffer content = content(300000);
+		final long[][] ranges = {{0, 99999}, {100001, 100010}, {150000, 299999}};
+		final Call call = new Call("bytes=0-99999, 100001-100010, 150000-");
+		call.full = true;
+		assertTrue(call.send(content));
+		assertTrue(call.ended);
+		assertEquals(6, call.drains);
+		assertEquals(call.multipart(content, ranges), call.body);
+		assertNull(call.drainHandler);
+	}
+
+	@Test
+	public void rangesAreCapped() {
+		final Buffer content = content(100);
+		final StringBuilder range = new StringBuilder("bytes=0-0");
+		final long[][] ranges = new long[16][];
+		ranges[0] = new long[]{0, 0};
+		for (int i = 1; i < 16; i++) {
+			range.append(",").append(2 * i).append("-").append(2 * i);
+			ranges[i] = new long[]{2 * i, 2 * i};
+		}
+		final Call call = new Call(range.toString());
+		assertTrue(call.send(content));
+		assertEquals(call.multipart(content, ranges), call.body);
+
+		final Call tooMany = new Call(range.append(",40-40").toString());
+		assertFalse(tooMany.send(content));
+		assertFalse(tooMany.ended);
+	}
+
+	@Test
+	public void publicFilesAcceptRanges() throws Exception {
+		final File file = folder.newFile("video.mp4");
+		Files.write(file.toPath(), content(1000).getBytes());
+		final Vertx vertx = Vertx.vertx();
+		try {
+			final LocalMap<String, String> lastModifiedDates = vertx.sharedData().getLocalMap("staticRessources");
+			final LocalMap<String, String> etags = vertx.sharedData().getLocalMap("staticRessourcesETags");
+			final LocalMap<String, Long> sizes = vertx.sharedData().getLocalMap("staticRessourcesSizes");
+			// the properties of the file are read by the first call, and kept for the second one
+			for (int i = 0; i < 2; i++) {
+				final Call call = new Call("bytes=100-199");
+				StaticResource.serveRessource(vertx, call.request, file.getAbsolutePath(), lastModifiedDates, etags,
+						sizes, false);
+				final long end = System.currentTimeMillis() + 5000;
+				while (!call.ended) {
+					assertTrue("timeout", System.currentTimeMillis() < end);
+					Thread.sleep(5);
+				}
+				assertEquals(206, call.status);
+				assertEquals("bytes", call.responseHeaders.get("Accept-Ranges"));
+				assertEquals("bytes 100-199/1000", call.responseHeaders.get("Content-Range"));
+				assertEquals(file.getAbsolutePath(), call.sentFile[0]);
+				assertEquals(100L, call.sentFile[1]);
+				assertEquals(100L, call.sentFile[2]);
+			}
+			assertEquals(Long.valueOf(1000), sizes.get("/app/public/video.mp4"));
+		} finally {
+			vertx.close();
+		}
+	}
+
+}
@@ -0,0 +1,192 @@
+/*
+ * Copyright © WebServices pour l'Éducation, 2014
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fr.wseduc.webutils.test;
+
+import com.samskivert.mustache.Mustache;
+import fr.wseduc.webutils.collections.JsonUtils;
+import fr.wseduc.webutils.template.TemplateProcessor;
+import io.vertx.core.AbstractVerticle;
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonObject;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.attribute.FileTime;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TemplateProcessorTest {
+
+	private static final JsonObject PARAMS = new JsonObject("{\"name\":\"n<1>\",\"flag\":true,\"off\":false," +
+			"\"nul\":null,\"empty\":[],\"eo\":{},\"strs\":[\"s1\",\"s2\"],\"num\":0," +
+			"\"items\":[{\"id\":1,\"tags\":[\"a\",\"b\"],\"sub\":{\"x\":\"y\"}},{\"id\":2.5,\"tags\":[]}]}");
+
+	private static final Mustache.Lambda UP = (frag, out) -> out.write(frag.execute().toUpperCase());
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private static String render(String template, Map<String, Mustache.Lambda> lambdas) {
+		final AtomicReference<String> result = new AtomicReference<>();
+		new TemplateProcessor(null, "view/").processTemplate("test", PARAMS, new StringReader(template), true,
+				lambdas, w -> result.set(w.toString()));
+		return result.get();
+	}
+
+	private static String renderConverted(String template) {
+		final Map<String, Object> ctx = JsonUtils.convertMap(PARAMS);
+		ctx.put("up", UP);
+		return Mustache.compiler().defaultValue("").compile(template).execute(ctx);
+	}
+
+	@Test
+	public void sameOutputAsConvertedContext() {
+		final String[] templates = {
+				"{{name}}|{{{name}}}|{{missing}}|{{num}}",
+				"{{#flag}}F{{/flag}}{{^off}}O{{/off}}{{#off}}X{{/off}}[{{nul}}]{{^nul}}N{{/nul}}",
+				"{{#empty}}E{{/empty}}{{^empty}}noE{{/empty}}{{#eo}}EO{{/eo}}",
+				"{{#items}}<{{id}}:{{#tags}}{{.}},{{/tags}}{{sub.x}}{{name}}{{#up}}{{name}}{{/up}}>{{/items}}",
+				"{{#strs}}{{this}}-{{/strs}}{{items.size}} {{strs.1}} {{items.0.id}}"
+		};
+		for (String template : templates) {
+			assertEquals(template, renderConverted(template), render(template, Collections.singletonMap("up", UP)));
+		}
+	}
+
+	@Test
+	public void lambdasOverrideParams() {
+		final TemplateProcessor processor = new TemplateProcessor(null, "view/");
+		processor.setLambda("name", (frag, out) -> out.write("shared"));
+		final AtomicReference<String> result = new AtomicReference<>();
+		processor.processTemplate("test", PARAMS, new StringReader("{{#name}}x{{/name}}"), true, null,
+				w -> result.set(w.toString()));
+		assertEquals("shared", result.get());
+		processor.processTemplate("test", PARAMS, new StringReader("{{#name}}x{{/name}}"), true,
+				Collections.singletonMap("name", UP), w -> result.set(w.toString()));
+		assertEquals("X", result.get());
+	}
+
+	private static void write(File file, String content, long mtime) throws Exception {
+		Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+		Files.setLastModifiedTime(file.toPath(), FileTime.fromMillis(mtime));
+	}
+
+	private static String render(TemplateProcessor processor, String template) throws Exception {
+		final CompletableFuture<String> result = new CompletableFuture<>();
+		processor.processTemplate(template, new JsonObject().put("name", "n"), result::complete);
+		return result.get(5, TimeUnit.SECONDS);
+	}
+
+	private static void await(BooleanSupplier condition) throws InterruptedException {
+		final long end = System.currentTimeMillis() + 5000;
+		while (!condition.getAsBoolean()) {
+			assertTrue("timeout", System.currentTimeMillis() < end);
+			Thread.sleep(10);
+		}
+	}
+
+	@Test
+	public void precompiledTemplatesAreSharedByFolder() throws Exception {
+		final File dir = folder.newFolder("shared");
+		final long mtime = System.currentTimeMillis() - 60000;
+		write(new File(dir, "a.html"), "A {{name}}", mtime);
+		write(new File(dir, "b.html"), "B {{name}}", mtime);
+		final Vertx vertx = Vertx.vertx();
+		try {
+			final TemplateProcessor first = new TemplateProcessor(vertx, dir.getPath()).precompile(0);
+			await(() -> first.getCompilations() == 2);
+			final TemplateProcessor second = new TemplateProcessor(vertx, dir.getPath()).precompile(0);
+			assertEquals("A n", render(second, "a.html"));
+			assertEquals("B n", render(second, "b.html"));
+			assertEquals(2, second.getCacheHits());
+			assertEquals(0, second.getCacheMisses());
+			assertEquals(2, second.getCompilations());
+		} finally {
+			TemplateProcessor.undeploy("");
+			vertx.close();
+		}
+	}
+
+	@Test
+	public void modifiedTemplatesAreCompiledAgainUntilUndeploy() throws Exception {
+		final File dir = folder.newFolder("watched");
+		final File a = new File(dir, "a.html");
+		final File b = new File(dir, "b.html");
+		final long mtime = System.currentTimeMillis() - 60000;
+		write(a, "v1 {{name}}", mtime);
+		write(b, "b", mtime);
+		final Vertx vertx = Vertx.vertx();
+		try {
+			final TemplateProcessor processor = new TemplateProcessor(vertx, dir.getPath());
+			final CompletableFuture<String> deployment = new CompletableFuture<>();
+			vertx.deployVerticle(new AbstractVerticle() {
+				@Override
+				public void start() {
+					processor.precompile(20);
+				}
+
+				@Override
+				public void stop() {
+					TemplateProcessor.undeploy(deploymentID());
+				}
+			}, ar -> deployment.complete(ar.result()));
+			final String id = deployment.get(5, TimeUnit.SECONDS);
+			await(() -> processor.getCompilations() == 2);
+			assertEquals("v1 n", render(processor, "a.html"));
+
+			write(a, "v2 {{name}}", mtime + 10000);
+			await(() -> {
+				try {
+					return "v2 n".equals(render(processor, "a.html"));
+				} catch (Exception e) {
+					throw new AssertionError(e);
+				}
+			});
+			Files.delete(b.toPath());
+			await(() -> {
+				try {
+					return render(processor, "b.html") == null;
+				} catch (Exception e) {
+					throw new AssertionError(e);
+				}
+			});
+
+			final CompletableFuture<Void> undeployed = new CompletableFuture<>();
+			vertx.undeploy(id, ar -> undeployed.complete(null));
+			undeployed.get(5, TimeUnit.SECONDS);
+			final long compilations = processor.getCompilations();
+			write(a, "v3 {{name}}", mtime + 20000);
+			Thread.sleep(200);
+			assertEquals("v2 n", render(processor, "a.html"));
+			assertEquals(compilations, processor.getCompilations());
+		} finally {
+			vertx.close();
+		}
+	}
+
+}
@@ -0,0 +1,138 @@
+/*
+ * Copyright © WebServices pour l'Éducation, 2014
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fr.wseduc.webutils.test;
+
+import fr.wseduc.webutils.security.XSSUtils;
+import fr.wseduc.webutils.security.XssHttpServerRequest;
+import io.vertx.core.MultiMap;
+import io.vertx.core.http.HttpServerRequest;
+import org.junit.Test;
+
+import java.lang.reflect.Proxy;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+public class XSSUtilsTest {
+
+	private static final Pattern[] patterns = new Pattern[]{
+			Pattern.compile("<script>(.*?)</script>", Pattern.CASE_INSENSITIVE),
+			Pattern.compile("<script>", Pattern.CASE_INSENSITIVE),
+			Pattern.compile("</script>", Pattern.CASE_INSENSITIVE),
+			Pattern.compile("<script(.*?)>", Pattern.CASE_INSENSITIVE | Pattern.MULTILINE | Pattern.DOTALL),
+			Pattern.compile("eval\\((.*?)\\)", Pattern.CASE_INSENSITIVE | Pattern.MULTILINE | Pattern.DOTALL),
+			Pattern.compile("expression\\((.*?)\\)", Pattern.CASE_INSENSITIVE | Pattern.MULTILINE | Pattern.DOTALL),
+			Pattern.compile("javascript:", Pattern.CASE_INSENSITIVE),
+			Pattern.compile("vbscript:", Pattern.CASE_INSENSITIVE),
+			Pattern.compile("on(click|context|mouse|dblclick|key|abort|error|before|hash|load|page|" +
+					"resize|scroll|unload|blur|change|focus|input|invalid|reset|search|select|submit|drag|drop|copy|cut|paste|" +
+					"after| before|can|end|duration|emptied|play|progress|seek|stall|suspend|time|volume|waiting|message|open|touch|" +
+					"online|offline|popstate|show|storage|toggle|wheel)(\\s*\\w*\\s*)=",
+					Pattern.CASE_INSENSITIVE | Pattern.MULTILINE | Pattern.DOTALL),
+	};
+
+	private static final String[] FRAGMENTS = new String[]{"<", ">", "/", "script", "SCRIPT", "sCrIpT", "ſcript",
+			"eval", "EVAL", "expression", "(", ")", "java", "vb", "script:", ":", "on", "ON", "click", "Mouse",
+			" before", "before", "load", "x", "_1", " ", "\t", "\n", "\u000B", "=", "\0", "é", "K", "bonjour", "mon"};
+
+	private static String reference(String value) {
+		if (value != null) {
+			value = value.replaceAll("\0", "");
+			for (Pattern scriptPattern : patterns){
+				value = scriptPattern.matcher(value).replaceAll("");
+			}
+		}
+		return value;
+	}
+
+	@Test
+	public void cleanValuesAreNotCopied() {
+		final String[] values = new String[]{"", "bonjour", "Mon onglet", "a=b&c=d", "<p>Lorem ipsum</p>",
+				"Évaluation (expressions) du script", "on =", "online"};
+		for (String value : values) {
+			assertSame(value, XSSUtils.stripXSS(value));
+		}
+	}
+
+	@Test
+	public void sameOutputAsSequentialPatterns() {
+		final String[] values = new String[]{"<script>alert(1)</script>", "<SCRIPT src=x>", "a\0b",
+				"<div onclick=\"alert(1)\">", "<a href=\"JavaScript:void(0)\">", "eval(x) + EXPRESSION(y)",
+				"onMouseOver_1 \t= x", "on before=", "java<script>script:alert(1)", "onload\n\u000B=",
+				"onclick\u00a0=", "<ſcript>", "onclicK=", "vbscript:msgbox"};
+		for (String value : values) {
+			assertEquals(value, reference(value), XSSUtils.stripXSS(value));
+		}
+		final Random random = new Random(42);
+		for (int i = 0; i < 20000; i++) {
+			final StringBuilder sb = new StringBuilder();
+			final int length = random.nextInt(12);
+			for (int j = 0; j < length; j++) {
+				sb.append(FRAGMENTS[random.nextInt(FRAGMENTS.length)]);
+			}
+			final String value = sb.toString();
+			assertEquals(value, reference(value), XSSUtils.stripXSS(value));
+		}
+	}
+
+	@Test
+	public void safeMultiMap() {
+		final MultiMap m = MultiMap.caseInsensitiveMultiMap()
+				.add("clean", "value")
+				.add("dirty", "ok")
+				.add("dirty", "<script>alert(1)</script>text");
+		final String clean = m.get("clean");
+		XSSUtils.safeMultiMap(m);
+		assertSame(clean, m.get("clean"));
+		assertEquals(2, m.getAll("dirty").size());
+		assertEquals("ok", m.getAll("dirty").get(0));
+		assertEquals("text", m.getAll("dirty").get(1));
+	}
+
+	@Test
+	public void sanitizedRequest() {
+		final MultiMap params = MultiMap.caseInsensitiveMultiMap().add("name", "<script>x</script>value");
+		final MultiMap headers = MultiMap.caseInsensitiveMultiMap()
+				.add("Accept-Language", "fr<script>")
+				.add("Referer", "javascript:alert(1)");
+		final HttpServerRequest request = (HttpServerRequest) Proxy.newProxyInstance(getClass().getClassLoader(),
+				new Class<?>[]{HttpServerRequest.class}, (proxy, m, args) -> {
+					switch (m.getName()) {
+						case "params":
+							return params;
+						case "headers":
+							return headers;
+						default:
+							return null;
+					}
+				});
+		XSSUtils.setSkippedHeaders(Arrays.asList("Cookie", "accept-*"));
+		try {
+			final XssHttpServerRequest xss = new XssHttpServerRequest(request);
+			assertEquals("value", xss.getParam("name"));
+			assertSame(xss.params().get("name"), xss.params().getAll("name").get(0));
+			assertEquals("<script>x</script>value", params.get("name"));
+			assertEquals("fr<script>", xss.getHeader("Accept-Language"));
+			assertEquals("alert(1)", xss.headers().get("referer"));
+		} finally {
+			XSSUtils.setSkippedHeaders(null);
+		}
+	}
+
+}